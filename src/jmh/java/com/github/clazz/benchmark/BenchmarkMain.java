@@ -0,0 +1,46 @@
+package com.github.clazz.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+   the JMH command line, with defaults suited to tracking releases: the gc
+   profiler for allocation rates, and results written as JSON to
+   jmh-result.json. options given on the command line win, e.g.
+     java -jar target/benchmarks.jar Parse -rff parse-1.1.0.json
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain(){
+        // no instance.
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if(commandLine.shouldHelp()){
+            commandLine.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if(!commandLine.getResultFormat().hasValue()){
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if(!commandLine.getResult().hasValue()){
+            options.result("jmh-result.json");
+        }
+        if(commandLine.getProfilers().isEmpty()){
+            options.addProfiler(GCProfiler.class);
+        }
+
+        Runner runner = new Runner(options.build());
+        if(commandLine.shouldList() || commandLine.shouldListWithParams()){
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.clazz.benchmark;
+
+import com.github.clazz.index.ClassQuery;
+import com.github.clazz.index.ClassSearchIndex;
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+   matching a class name against every class of the scanned jars: the linear
+   scan done while jars are parsed, and the trigram index built over them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MatchBenchmark {
+    @Param({"200"})
+    public int jars;
+
+    @Param({"1000"})
+    public int classesPerJar;
+
+    @Param({"SUBSTRING", "PREFIX", "SIMPLE_NAME", "EXACT"})
+    public ClassSearchIndex.MatchType matchType;
+
+    private List<JarClass> jarClasses;
+    private ClassSearchIndex searchIndex;
+    private ClassQuery query;
+    private String className;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        jarClasses = new ArrayList<>(jars);
+        for (int jar = 0; jar < jars; jar++) {
+            ClassNameTable.Builder builder = new ClassNameTable.Builder();
+            for (int i = 0; i < classesPerJar; i++) {
+                builder.add(SyntheticCorpus.className("jar" + jar, i).replace('/', '.').replace('$', '.'));
+            }
+            JarClass jarClass = new JarClass();
+            jarClass.setJarPath("/lib/artifact-" + jar + ".jar");
+            jarClass.setClassNames(builder.build());
+            jarClasses.add(jarClass);
+        }
+        searchIndex = ClassSearchIndex.build(jarClasses);
+
+        switch(matchType){
+            case PREFIX:
+                className = "com.example.jar7.p3";
+                break;
+            case SIMPLE_NAME:
+                className = "Service12";
+                break;
+            case EXACT:
+                className = "com.example.jar7.p3.Service12";
+                break;
+            default:
+                className = "p3.Service12";
+        }
+        query = new ClassQuery(matchType, className);
+    }
+
+    @Benchmark
+    public long linearMatch(){
+        long[] matches = new long[1];
+        for (JarClass jarClass : jarClasses) {
+            query.forEachMatch(jarClass, classMatch -> {
+                matches[0]++;
+                return true;
+            });
+        }
+        return matches[0];
+    }
+
+    @Benchmark
+    public int[] indexedMatch(){
+        return searchIndex.find(matchType, className);
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.clazz.benchmark;
+
+import com.github.clazz.model.JarClass;
+import com.github.clazz.utils.NestedArchives;
+import com.github.clazz.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+   parsing the class names of one jar from its central directory, nested
+   library jars included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParseBenchmark {
+    @Param({"1000", "20000"})
+    public int entries;
+
+    @Param({"0", "8"})
+    public int nestedJars;
+
+    @Param({"STORED", "DEFLATED"})
+    public SyntheticCorpus.Compression compression;
+
+    private Path root;
+    private String jarPath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = SyntheticCorpus.create(1, entries, nestedJars, compression);
+        jarPath = SyntheticCorpus.firstJar(root).toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticCorpus.delete(root);
+    }
+
+    @Benchmark
+    public List<JarClass> jarArchiveParse() throws IOException {
+        return Utils.jarArchiveParse(jarPath, 0, NestedArchives.DEFAULT_MAX_DEPTH);
+    }
+
+    @Benchmark
+    public JarClass jarClassParse(){
+        return Utils.jarClassParse(jarPath);
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.clazz.benchmark;
+
+import com.github.clazz.utils.NestedArchives;
+import com.github.clazz.utils.ParallelDirectoryWalker;
+import com.github.clazz.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+   the directory walk: finding the jars of a lib tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScanBenchmark {
+    @Param({"1000"})
+    public int jars;
+
+    @Param({"1", "4"})
+    public int walkThreads;
+
+    private Path root;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = SyntheticCorpus.create(jars, 1, 0, SyntheticCorpus.Compression.DEFLATED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticCorpus.delete(root);
+    }
+
+    @Benchmark
+    public List<File> dirJarFileScan(){
+        return Utils.dirJarFileScan(root.toString(), walkThreads);
+    }
+
+    @Benchmark
+    public int parallelDirectoryWalk() throws IOException {
+        AtomicInteger found = new AtomicInteger();
+        new ParallelDirectoryWalker(walkThreads, true).walk(root,
+                file -> NestedArchives.isArchiveName(file.getFileName().toString()),
+                (file, attrs) -> found.incrementAndGet());
+        return found.get();
+    }
+}
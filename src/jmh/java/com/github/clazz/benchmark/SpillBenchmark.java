@@ -0,0 +1,50 @@
+package com.github.clazz.benchmark;
+
+import com.github.clazz.utils.ListWithDiskBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+   filling and draining a ListWithDiskBuffer of class names, all in memory
+   or mostly spilled to disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SpillBenchmark {
+    @Param({"100000"})
+    public int elements;
+
+    @Param({"0", "10000", "1000000"})
+    public int maxInMemoryElements;
+
+    private String[] classNames;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        classNames = new String[elements];
+        for (int i = 0; i < elements; i++) {
+            classNames[i] = SyntheticCorpus.className("spill", i).replace('/', '.');
+        }
+    }
+
+    @Benchmark
+    public int fillAndDrain() throws IOException {
+        int length = 0;
+        try(ListWithDiskBuffer<String> list = new ListWithDiskBuffer<>(maxInMemoryElements,
+                ListWithDiskBuffer.Codec.UTF8)){
+            for (String className : classNames) {
+                list.add(className);
+            }
+            while(!list.isEmpty()){
+                length += list.removeFirst().length();
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.clazz.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/*
+   generates jar corpora for the benchmarks: jars spread over a directory
+   tree, each holding synthetic but valid class files, optionally with stored
+   library jars nested under BOOT-INF/lib like a Spring Boot fat jar.
+ */
+public final class SyntheticCorpus {
+    private static final int JARS_PER_DIRECTORY = 16;
+    private static final int PACKAGES = 64;
+
+    public enum Compression {
+        STORED, DEFLATED
+    }
+
+    private SyntheticCorpus(){
+        // no instance.
+    }
+
+    /**
+     * Create {@code jars} jars under a new temporary directory.
+     *
+     * @param jars the number of jars
+     * @param classesPerJar the number of class entries of each jar
+     * @param nestedJars the number of library jars nested in each jar, each holding a quarter
+     *     of {@code classesPerJar} classes
+     * @param compression how class entries are stored
+     * @return the temporary directory
+     */
+    static Path create(int jars, int classesPerJar, int nestedJars, Compression compression) throws IOException {
+        Path root = Files.createTempDirectory("class-inspections-bench");
+        for (int jar = 0; jar < jars; jar++) {
+            Path dir = root.resolve("group" + (jar / JARS_PER_DIRECTORY)).resolve("lib");
+            Files.createDirectories(dir);
+            try(OutputStream out = Files.newOutputStream(dir.resolve("artifact-" + jar + ".jar"))){
+                writeJar(out, "jar" + jar, classesPerJar, nestedJars, compression);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return the path of the first jar created by {@link #create}
+     */
+    static Path firstJar(Path root){
+        return root.resolve("group0").resolve("lib").resolve("artifact-0.jar");
+    }
+
+    static void delete(Path root) throws IOException {
+        if(root == null){
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @param i a class number
+     * @return a binary class name, a few of them inner or anonymous classes
+     */
+    static String className(String prefix, int i){
+        String name = "com/example/" + prefix + "/p" + (i % PACKAGES) + "/Service" + (i / PACKAGES);
+        switch(i % 8){
+            case 6:
+                return name + "$Builder";
+            case 7:
+                return name + "$1";
+            default:
+                return name;
+        }
+    }
+
+    private static void writeJar(OutputStream out, String prefix, int classes, int nestedJars,
+                                 Compression compression) throws IOException {
+        try(ZipOutputStream zipOut = new ZipOutputStream(out)){
+            putEntry(zipOut, "META-INF/MANIFEST.MF",
+                    "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII), compression);
+            for (int i = 0; i < classes; i++) {
+                String className = className(prefix, i);
+                putEntry(zipOut, className + ".class", classFile(className), compression);
+            }
+            for (int lib = 0; lib < nestedJars; lib++) {
+                ByteArrayOutputStream nested = new ByteArrayOutputStream();
+                writeJar(nested, prefix + "lib" + lib, Math.max(1, classes / 4), 0, compression);
+                // nested jars are stored, as Spring Boot requires.
+                putEntry(zipOut, "BOOT-INF/lib/lib-" + lib + ".jar", nested.toByteArray(), Compression.STORED);
+            }
+        }
+    }
+
+    private static void putEntry(ZipOutputStream zipOut, String name, byte[] content, Compression compression)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if(compression == Compression.STORED){
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        zipOut.putNextEntry(entry);
+        zipOut.write(content);
+        zipOut.closeEntry();
+    }
+
+    /*
+       a minimal valid class file: public abstract class extending Object, with one abstract
+       method run()V and one named after the class, so method searches have something to find.
+     */
+    static byte[] classFile(String binaryName){
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(160);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+
+            out.writeShort(8);
+            out.writeByte(1);
+            out.writeUTF(binaryName);
+            out.writeByte(7);
+            out.writeShort(1);
+            out.writeByte(1);
+            out.writeUTF("java/lang/Object");
+            out.writeByte(7);
+            out.writeShort(3);
+            out.writeByte(1);
+            out.writeUTF("run");
+            out.writeByte(1);
+            out.writeUTF("()V");
+            out.writeByte(1);
+            out.writeUTF("handle" + binaryName.substring(binaryName.lastIndexOf('/') + 1).replace('$', '_'));
+
+            out.writeShort(0x0421);
+            out.writeShort(2);
+            out.writeShort(4);
+            out.writeShort(0);
+            out.writeShort(0);
+
+            out.writeShort(2);
+            for (int name : new int[]{5, 7}) {
+                out.writeShort(0x0401);
+                out.writeShort(name);
+                out.writeShort(6);
+                out.writeShort(0);
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        }catch (IOException ioe){
+            throw new IllegalStateException(ioe);
+        }
+    }
+}
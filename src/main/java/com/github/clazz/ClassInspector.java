@@ -0,0 +1,554 @@
+package com.github.clazz;
+
+import com.github.clazz.classfile.MethodSearch;
+import com.github.clazz.index.ClassMatcher;
+import com.github.clazz.index.ClassQuery;
+import com.github.clazz.index.ClassSearchIndex;
+import com.github.clazz.index.DuplicateClassDetector;
+import com.github.clazz.index.JarClassIndex;
+import com.github.clazz.index.MultiPatternQuery;
+import com.github.clazz.metrics.ScanMetrics;
+import com.github.clazz.model.ClassMatch;
+import com.github.clazz.model.JarClass;
+import com.github.clazz.utils.JarPipeline;
+import com.github.clazz.utils.NestedArchives;
+import com.github.clazz.utils.ProblemListener;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * The scanning engine as a library: owns the parsed jars of a set of jar paths and answers
+ * queries on them asynchronously, without printing anything or exiting the JVM. The jars are
+ * parsed once, on {@link #refresh()} or on the first query, and shared by every query; any number
+ * of queries run at once, while a refresh waits for them and holds new ones back until it is
+ * done. Class name lookups go through a {@link ClassSearchIndex}, built on the first lookup after
+ * a refresh, so repeated queries do not scan every class name.
+ *
+ * <p>Jars, nested archives and class files that cannot be read are skipped and reported to the
+ * configured {@link ProblemListener}, nothing is printed.
+ *
+ * <p>Every query returns a {@link CompletableFuture} completed on the configured executor.
+ * Cancelling the future, or letting it time out, stops the query at the next jar.
+ */
+public final class ClassInspector implements AutoCloseable {
+    private final List<String> jarPaths;
+    private final int threads;
+    private final JarClassIndex jarClassIndex;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final long queryTimeoutMillis;
+    private final ScheduledExecutorService timer;
+    private final ScanMetrics metrics;
+    private final ProblemListener listener;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean indexed;
+    // guarded by lock, null until a class name lookup needs it.
+    private ClassSearchIndex searchIndex;
+
+    private ClassInspector(Builder builder){
+        this.jarPaths = Collections.unmodifiableList(new ArrayList<>(builder.jarPaths));
+        this.threads = builder.threads;
+        this.listener = builder.listener;
+        this.jarClassIndex = builder.indexFile == null
+                ? JarClassIndex.inMemory(builder.nameFlags, builder.maxDepth, listener)
+                : JarClassIndex.load(builder.indexFile, builder.nameFlags, builder.maxDepth, listener);
+        if(builder.executor != null){
+            this.executor = builder.executor;
+            this.ownedExecutor = null;
+        }else{
+            this.ownedExecutor = Executors.newCachedThreadPool(daemonThreads("class-inspector"));
+            this.executor = ownedExecutor;
+        }
+        this.queryTimeoutMillis = builder.queryTimeoutMillis;
+        this.metrics = builder.metrics;
+        this.timer = queryTimeoutMillis > 0
+                ? Executors.newSingleThreadScheduledExecutor(daemonThreads("class-inspector-timer"))
+                : null;
+    }
+
+    /**
+     * @param jarPaths the jar, WAR or EAR files or directories to inspect
+     * @return a builder of an inspector of {@code jarPaths}
+     */
+    public static Builder builder(String... jarPaths){
+        checkNotNull(jarPaths, "jarPaths");
+        return new Builder(Arrays.asList(jarPaths));
+    }
+
+    public List<String> getJarPaths(){
+        return jarPaths;
+    }
+
+    /**
+     * @return the number of jars currently indexed, nested archives excluded
+     */
+    public int getJarCount(){
+        lock.readLock().lock();
+        try{
+            return jarClassIndex.size();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Bring the parsed jars up to date with every jar path: only added or changed jars are parsed.
+     *
+     * @return what the refresh did, by jar path
+     */
+    public CompletableFuture<Map<String, JarClassIndex.RefreshResult>> refresh(){
+        return refresh(jarPaths);
+    }
+
+    /**
+     * Bring the parsed jars of some jar paths up to date, e.g. the ones known to have changed.
+     *
+     * @param changedJarPaths jar paths among {@link #getJarPaths()}
+     * @return what the refresh did, by jar path
+     */
+    public CompletableFuture<Map<String, JarClassIndex.RefreshResult>> refresh(Collection<String> changedJarPaths){
+        checkNotNull(changedJarPaths, "changedJarPaths");
+        List<String> paths = new ArrayList<>(changedJarPaths);
+        return submit(future -> {
+            lock.writeLock().lock();
+            try{
+                Map<String, JarClassIndex.RefreshResult> results = refreshLocked(paths);
+                if(paths.containsAll(jarPaths)){
+                    indexed = true;
+                }
+                return results;
+            }finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Find the classes matching a query.
+     *
+     * @param matchType how to match {@code className}
+     * @param className the class name, or part of it
+     * @param limit the maximum number of matches
+     * @return the matches, grouped by jar in jar path order
+     */
+    public CompletableFuture<List<ClassMatch>> findClasses(ClassSearchIndex.MatchType matchType, String className,
+                                                           long limit){
+        return findClasses(new ClassQuery(matchType, className), limit);
+    }
+
+    /**
+     * Find the classes matching a query, such as a {@link MultiPatternQuery} checking a whole
+     * list of patterns in one pass.
+     *
+     * @param query the class query
+     * @param limit the maximum number of matches
+     * @return the matches, grouped by jar in jar path order
+     */
+    public CompletableFuture<List<ClassMatch>> findClasses(ClassMatcher query, long limit){
+        checkNotNull(query, "query");
+        if(limit < 1){
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        return submit(future -> {
+            List<ClassMatch> matches = new ArrayList<>();
+            visitClasses(future, query, classMatch -> {
+                matches.add(classMatch);
+                return matches.size() < limit;
+            });
+            return matches;
+        });
+    }
+
+    /**
+     * Hand the classes matching {@code query} to {@code visitor} as they are found, without
+     * collecting them.
+     *
+     * @param query the class query
+     * @param visitor receives the matches on an executor thread, returns false to stop
+     * @return the number of matches handed to {@code visitor}
+     */
+    public CompletableFuture<Long> forEachClass(ClassMatcher query, Predicate<ClassMatch> visitor){
+        checkNotNull(query, "query");
+        checkNotNull(visitor, "visitor");
+        return submit(future -> visitClasses(future, query, visitor));
+    }
+
+    /**
+     * Find the methods named {@code methodName} in the classes matching a query. The class files
+     * are read from the jars, nothing is loaded.
+     *
+     * @param matchType how to match {@code className}
+     * @param className the class name, or part of it
+     * @param methodName the method name, {@code <init>} for constructors
+     * @return the matched classes declaring such methods, with the methods
+     */
+    public CompletableFuture<List<MethodSearch.ClassMethods>> findMethods(ClassSearchIndex.MatchType matchType,
+                                                                         String className, String methodName){
+        checkNotNull(methodName, "methodName");
+        ClassQuery query = new ClassQuery(matchType, className);
+        return submit(future -> {
+            Map<String, List<String>> matchedClasses = new LinkedHashMap<>();
+            visitClasses(future, query, classMatch -> {
+                matchedClasses.computeIfAbsent(classMatch.getJarPath(), k -> new ArrayList<>())
+                        .add(classMatch.getCanonicalName());
+                return true;
+            });
+
+            List<MethodSearch.ClassMethods> found = new ArrayList<>();
+            MethodSearch.search(matchedClasses, methodName, threads, listener, classMethods -> {
+                stopIfDone(future);
+                found.add(classMethods);
+            });
+            found.sort(Comparator.comparing(MethodSearch.ClassMethods::getJarPath)
+                    .thenComparing(MethodSearch.ClassMethods::getCanonicalName));
+            return found;
+        });
+    }
+
+    /**
+     * Find the classes present in more than one jar.
+     *
+     * @return the duplicates, sorted by class name
+     */
+    public CompletableFuture<List<DuplicateClassDetector.Duplicate>> findDuplicates(){
+        return submit(future -> {
+            DuplicateClassDetector detector = new DuplicateClassDetector();
+            forEachJarClass(future, detector::add);
+            List<DuplicateClassDetector.Duplicate> duplicates = new ArrayList<>(detector.getDuplicateCount());
+            detector.forEachDuplicate(duplicates::add);
+            return duplicates;
+        });
+    }
+
+    /**
+     * Hand every parsed jar, and every archive nested in it, to {@code consumer} in jar path
+     * order, parsing them first if no refresh ran yet. Runs on the calling thread, concurrently
+     * with the queries but not with a refresh.
+     *
+     * @param consumer receives the jars
+     */
+    public void forEachJarClass(Consumer<JarClass> consumer){
+        forEachJarClass(null, consumer);
+    }
+
+    /**
+     * Save the index file, if any, and stop the threads of the inspector. Running queries are
+     * not waited for.
+     *
+     * @throws IOException if the index file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if(timer != null){
+            timer.shutdownNow();
+        }
+        if(ownedExecutor != null){
+            ownedExecutor.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try{
+            jarClassIndex.save();
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long visitClasses(CompletableFuture<?> future, ClassMatcher query, Predicate<ClassMatch> visitor){
+        if(query instanceof ClassQuery){
+            return visitIndexedClasses(future, (ClassQuery) query, visitor);
+        }
+
+        long[] count = new long[1];
+        boolean[] stopped = new boolean[1];
+        forEachJarClass(future, jarClass -> {
+            if(!stopped[0]){
+                long startNanos = System.nanoTime();
+                stopped[0] = !query.forEachMatch(jarClass, classMatch -> {
+                    count[0]++;
+                    return visitor.test(classMatch);
+                });
+                if(metrics != null){
+                    metrics.record(ScanMetrics.Stage.MATCH, System.nanoTime() - startNanos);
+                }
+            }
+        });
+        return count[0];
+    }
+
+    private long visitIndexedClasses(CompletableFuture<?> future, ClassQuery query, Predicate<ClassMatch> visitor){
+        ClassSearchIndex index = lockSearchIndex();
+        try{
+            long startNanos = System.nanoTime();
+            int[] ids = index.find(query.getMatchType(), query.getQuery());
+            if(metrics != null){
+                metrics.record(ScanMetrics.Stage.MATCH, System.nanoTime() - startNanos);
+            }
+            long count = 0;
+            for (int id : ids) {
+                stopIfDone(future);
+                count++;
+                if(!visitor.test(new ClassMatch(index.getJarPath(id), index.getCanonicalName(id)))){
+                    break;
+                }
+            }
+            return count;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+       the search index over the parsed jars, built on the first use after a refresh. returns
+       with the read lock held, so a refresh cannot replace the jars while the index is read.
+     */
+    private ClassSearchIndex lockSearchIndex(){
+        ensureIndexed();
+        lock.readLock().lock();
+        if(searchIndex != null){
+            return searchIndex;
+        }
+        lock.readLock().unlock();
+
+        lock.writeLock().lock();
+        try{
+            if(searchIndex == null){
+                List<JarClass> jarClasses = new ArrayList<>();
+                jarClassIndex.forEachJarClass(jarClasses::add);
+                searchIndex = ClassSearchIndex.build(jarClasses);
+            }
+            // downgraded: the read lock is taken before the write lock is released.
+            lock.readLock().lock();
+            return searchIndex;
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Map<String, JarClassIndex.RefreshResult> refreshLocked(List<String> paths) throws IOException {
+        // built again from the refreshed jars when next needed.
+        searchIndex = null;
+        Map<String, JarClassIndex.RefreshResult> results = new LinkedHashMap<>();
+        for (String jarPath : paths) {
+            results.put(jarPath, jarClassIndex.refresh(jarPath, JarPipeline.directory(jarPath, threads),
+                    threads, metrics, jarClass -> {}));
+        }
+        jarClassIndex.save();
+        return results;
+    }
+
+    private void forEachJarClass(CompletableFuture<?> future, Consumer<JarClass> consumer){
+        checkNotNull(consumer, "consumer");
+        ensureIndexed();
+
+        lock.readLock().lock();
+        try{
+            jarClassIndex.forEachJarClass(jarClass -> {
+                stopIfDone(future);
+                consumer.accept(jarClass);
+            });
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void ensureIndexed(){
+        if(!indexed){
+            lock.writeLock().lock();
+            try{
+                if(!indexed){
+                    refreshLocked(jarPaths);
+                    indexed = true;
+                }
+            }catch (IOException ioe){
+                // the jars were parsed, only the index file could not be written.
+                listener.problem("index file save failed", String.valueOf(jarClassIndex.getIndexFile()), ioe);
+                indexed = true;
+            }finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /*
+       runs task on the executor and completes the returned future with its result. a future
+       cancelled or timed out meanwhile is already done, so the task stops at its next check.
+     */
+    private <T> CompletableFuture<T> submit(Task<T> task){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if(timer != null){
+            ScheduledFuture<?> timeout = timer.schedule(() -> future.completeExceptionally(
+                    new TimeoutException("query timed out after " + queryTimeoutMillis + " ms")),
+                    queryTimeoutMillis, TimeUnit.MILLISECONDS);
+            future.whenComplete((result, error) -> timeout.cancel(false));
+        }
+
+        try{
+            executor.execute(() -> {
+                if(future.isDone()){
+                    return;
+                }
+                try{
+                    future.complete(task.run(future));
+                }catch (StoppedException se){
+                    // the future is already done.
+                }catch (Throwable t){
+                    future.completeExceptionally(t);
+                }
+            });
+        }catch (RejectedExecutionException ree){
+            future.completeExceptionally(ree);
+        }
+        return future;
+    }
+
+    private static void stopIfDone(CompletableFuture<?> future){
+        if(future != null && future.isDone()){
+            throw new StoppedException();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name){
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private interface Task<T> {
+        T run(CompletableFuture<T> future) throws Exception;
+    }
+
+    private static final class StoppedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private StoppedException(){
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Configures a {@link ClassInspector}.
+     */
+    public static final class Builder {
+        private final List<String> jarPaths;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int nameFlags;
+        private int maxDepth = NestedArchives.DEFAULT_MAX_DEPTH;
+        private Path indexFile;
+        private Executor executor;
+        private long queryTimeoutMillis;
+        private ScanMetrics metrics;
+        private ProblemListener listener = ProblemListener.IGNORE;
+
+        private Builder(List<String> jarPaths){
+            this.jarPaths = jarPaths;
+        }
+
+        /**
+         * @param threads the number of parser threads, default: available processors
+         * @return this builder
+         */
+        public Builder threads(int threads){
+            if(threads < 1){
+                throw new IllegalArgumentException("threads must be positive: " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * @param nameFlags {@link com.github.clazz.utils.ClassNames} flags selecting the classes
+         *     to skip, default: none
+         * @return this builder
+         */
+        public Builder nameFlags(int nameFlags){
+            this.nameFlags = nameFlags;
+            return this;
+        }
+
+        /**
+         * @param maxDepth how many levels of nested archives to open, 0 for none, default: 2
+         * @return this builder
+         */
+        public Builder maxDepth(int maxDepth){
+            if(maxDepth < 0){
+                throw new IllegalArgumentException("maxDepth must not be negative: " + maxDepth);
+            }
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * @param indexFile the index file to load and keep up to date, null to keep the parsed
+         *     jars in memory only, default: null
+         * @return this builder
+         */
+        public Builder indexFile(Path indexFile){
+            this.indexFile = indexFile;
+            return this;
+        }
+
+        /**
+         * @param executor runs the queries, default: a cached pool of daemon threads owned by
+         *     the inspector
+         * @return this builder
+         */
+        public Builder executor(Executor executor){
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param timeout how long a query may run before its future fails with a {@link
+         *     TimeoutException}, 0 for no limit, default: 0
+         * @param unit the unit of {@code timeout}
+         * @return this builder
+         */
+        public Builder queryTimeout(long timeout, TimeUnit unit){
+            checkNotNull(unit, "unit");
+            if(timeout < 0){
+                throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+            }
+            this.queryTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * @param metrics receives the timings and counters of every refresh, and the match time
+         *     of every class query, null for none, default: null
+         * @return this builder
+         */
+        public Builder metrics(ScanMetrics metrics){
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param listener receives the jars, nested archives and class files skipped because
+         *     they cannot be read, and an index file that cannot be used, default: {@link
+         *     ProblemListener#IGNORE}
+         * @return this builder
+         */
+        public Builder problemListener(ProblemListener listener){
+            this.listener = checkNotNull(listener, "listener");
+            return this;
+        }
+
+        public ClassInspector build(){
+            if(jarPaths.isEmpty()){
+                throw new IllegalArgumentException("no jar path");
+            }
+            return new ClassInspector(this);
+        }
+    }
+}
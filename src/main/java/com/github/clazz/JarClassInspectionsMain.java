@@ -1,13 +1,59 @@
 package com.github.clazz;
 
+import com.github.clazz.classfile.ClassBytesCache;
+import com.github.clazz.classfile.ClassReferences;
+import com.github.clazz.classfile.MemberInfo;
+import com.github.clazz.classfile.MethodSearch;
+import com.github.clazz.daemon.DaemonClient;
+import com.github.clazz.daemon.InspectionDaemon;
+import com.github.clazz.index.BatchQuery;
+import com.github.clazz.index.ClassMatcher;
+import com.github.clazz.index.ClassQuery;
+import com.github.clazz.index.ClassSearchIndex;
+import com.github.clazz.index.ClassSetDiff;
+import com.github.clazz.index.DuplicateClassDetector;
+import com.github.clazz.index.ExternalClassSorter;
+import com.github.clazz.index.JarClassIndex;
+import com.github.clazz.index.MultiPatternQuery;
+import com.github.clazz.index.ReferenceIndex;
+import com.github.clazz.metrics.ScanMetrics;
+import com.github.clazz.model.ClassMatch;
+import com.github.clazz.model.ClassNameTable;
 import com.github.clazz.model.JarClass;
+import com.github.clazz.utils.ArchiveDedupe;
+import com.github.clazz.utils.ArchiveHandleCache;
+import com.github.clazz.utils.ClassNames;
+import com.github.clazz.utils.JarPipeline;
+import com.github.clazz.utils.NestedArchives;
+import com.github.clazz.utils.ProblemListener;
 import com.github.clazz.utils.Utils;
 
+import javax.management.JMException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.PatternSyntaxException;
 
 import static com.github.clazz.utils.Utils.ensureFileOrDirExistAndCanRead;
 import static com.github.clazz.utils.Utils.paramIndexSearch;
@@ -15,21 +61,59 @@ import static com.github.clazz.utils.Utils.paramIndexSearch;
 public class JarClassInspectionsMain {
 
     private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final long DEFAULT_MAX_HEAP_ENTRIES = 1_000_000;
 
     private static final String USAGE =
             "usage: " + LINE_SEPARATOR +
                     " java -jar class-inspections-1.0.0 " + LINE_SEPARATOR +
-                    "    ---jar_paths path1|path2|path3|...(comma-delimited) " + LINE_SEPARATOR +
-                    "    ---class_name class_name " + LINE_SEPARATOR +
-                    "    ---method_name method_name "
+                    "    ---jar_paths path1|path2|path3|...(comma-delimited jar/war/ear files or directories) " + LINE_SEPARATOR +
+                    "    ---class_name class_name (or a glob such as org.apache.*.JndiLookup, or regex:pattern) " + LINE_SEPARATOR +
+                    "    ---class_names pattern_file (class names, globs and regex: patterns, one per line, all matched in one scan) " + LINE_SEPARATOR +
+                    "    ---duplicates (report classes found in more than one jar, no ---class_name needed) " + LINE_SEPARATOR +
+                    "    ---class_listing output_file (write every class and its jar sorted by class name, no ---class_name needed) " + LINE_SEPARATOR +
+                    "    ---build_references (index which classes refer to which classes, fields and methods, no ---class_name needed) " + LINE_SEPARATOR +
+                    "    ---references_of symbol (the classes referring to a class such as java.util.HashMap, or to a field or method such as java.util.HashMap#put, no ---jar_paths needed) " + LINE_SEPARATOR +
+                    "    ---references_index index_file(written by ---build_references and read by ---references_of, default: ~/.class-inspections/references.idx) " + LINE_SEPARATOR +
+                    "    ---diff before_path after_path (report the classes added, removed or changed between two jar files or directories, no ---jar_paths needed) " + LINE_SEPARATOR +
+                    "    ---batch query_file(answer every query of the file, or of stdin for -, one per line: a class name, glob or regex, optionally followed by #method_name, in one scan, as JSON lines on stdout, no ---class_name needed) " + LINE_SEPARATOR +
+                    "    ---max_heap_entries entries(classes kept on the heap by ---duplicates, ---class_listing and ---diff before spilling sorted runs to disk, default: unlimited for ---duplicates, 1000000 for ---class_listing and ---diff; these modes parse every jar without the index file, which would keep every class on the heap) " + LINE_SEPARATOR +
+                    "    ---method_name method_name (report the methods of that name in the matched classes) " + LINE_SEPARATOR +
+                    "    ---max_open_jars count(jars kept open between method and class reads, default: 64) " + LINE_SEPARATOR +
+                    "    ---class_cache_mb megabytes(class files kept in memory between method and class reads, 0 for none, default: 64) " + LINE_SEPARATOR +
+                    "    ---match exact|simple_name|prefix|substring(default: substring) " + LINE_SEPARATOR +
+                    "    ---limit max_matches(default: unlimited) " + LINE_SEPARATOR +
+                    "    ---threads threads(default: available processors) " + LINE_SEPARATOR +
+                    "    ---index_file index_file(default: ~/.class-inspections/jar-class.idx) " + LINE_SEPARATOR +
+                    "    ---no_index (parse every jar, do not read or write the index file) " + LINE_SEPARATOR +
+                    "    ---max_depth depth(nested jar/war/ear levels to open, 0 for none, default: 2) " + LINE_SEPARATOR +
+                    "    ---skip_anonymous (skip anonymous classes such as Foo$1) " + LINE_SEPARATOR +
+                    "    ---skip_synthetic (skip generated classes such as Foo$$Lambda$1 and package-info) " + LINE_SEPARATOR +
+                    "    ---daemon (keep the jars of ---jar_paths in memory, refreshed as they change, and answer ---client queries) " + LINE_SEPARATOR +
+                    "    ---client (send the ---class_name or ---duplicates query to the running daemon, no ---jar_paths needed) " + LINE_SEPARATOR +
+                    "    ---shutdown (with ---client, stop the daemon) " + LINE_SEPARATOR +
+                    "    ---daemon_port port(loopback port of the daemon, default: any free port, recorded with an access token in the ---daemon_port_file, readable by its owner only) " + LINE_SEPARATOR +
+                    "    ---daemon_port_file port_file(shared by ---daemon and ---client, default: index_file.port next to the ---index_file, ~/.class-inspections/daemon.port for the default index or ---no_index) " + LINE_SEPARATOR +
+                    "    ---metrics_file metrics_file (append the walk, open, parse and match timings, the counters and the slowest jars as JSON lines, on exit for ---daemon) " + LINE_SEPARATOR +
+                    "    ---metrics_jmx (publish the same metrics as the MBean com.github.clazz:type=ScanMetrics, e.g. for ---daemon) " + LINE_SEPARATOR +
+                    "    ---slowest_jars count(print the jars that took longest to parse, default with ---metrics_file or ---metrics_jmx: 10 kept, none printed) "
             ;
 
-    private static void printUsageAndExit(String...messages){
-        for (String message : messages) {
-            System.err.println(message);
+    // the library reports what it skips, the tool prints it.
+    private static final ProblemListener PROBLEMS = JarClassInspectionsMain::printProblem;
+
+    private static void printProblem(String message, String path, Throwable cause){
+        StringBuilder sb = new StringBuilder(message);
+        if(path != null){
+            sb.append(':').append(path);
+        }
+        if(cause != null){
+            sb.append(path != null ? ',' : ':').append(cause);
         }
-        System.err.println(USAGE);
-        System.exit(1);
+        System.err.println(sb.toString());
+    }
+
+    private static void usageError(String...messages){
+        throw new UsageException(String.join(LINE_SEPARATOR, messages));
     }
 
     private static String[] getJarPaths(String[] args){
@@ -43,7 +127,7 @@ public class JarClassInspectionsMain {
                     try{
                         ensureFileOrDirExistAndCanRead(new File(item));
                     }catch (IOException ioe){
-                        printUsageAndExit(Utils.stackTrace(ioe));
+                        usageError(Utils.stackTrace(ioe));
                     }
                 }
 
@@ -52,14 +136,14 @@ public class JarClassInspectionsMain {
                 try{
                     ensureFileOrDirExistAndCanRead(new File(jarPathTemp));
                 }catch (IOException ioe){
-                    printUsageAndExit(Utils.stackTrace(ioe));
+                    usageError(Utils.stackTrace(ioe));
                 }
 
                 jarPaths = new String[1];
                 jarPaths[0] = jarPathTemp;
             }
         }else {
-            printUsageAndExit("error: ---jar_paths not found!");
+            usageError("error: ---jar_paths not found!");
         }
 
         return jarPaths;
@@ -71,75 +155,1154 @@ public class JarClassInspectionsMain {
         if(index != -1){
             className = args[index+1];
         }else {
-            printUsageAndExit("error: ---class_name not found!");
+            usageError("error: ---class_name not found!");
         }
 
         if(className == null || className.trim().length() == 0){
-            printUsageAndExit("error: ---class_name is invalid!");
+            usageError("error: ---class_name is invalid!");
         }
 
         return className;
     }
 
+    private static Path getClassNamesFile(String[] args){
+        Path classNamesFile = null;
+        int index = paramIndexSearch(args,"---class_names");
+        if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().length() == 0){
+                usageError("error: ---class_names is invalid!");
+            }
+            classNamesFile = Paths.get(args[index+1]);
+        }
+        return classNamesFile;
+    }
+
+    /*
+       a plain ---class_name is looked up by a ClassQuery, a glob, a regex or a ---class_names
+       file by a MultiPatternQuery.
+     */
+    private static ClassMatcher getClassMatcher(String[] args, ClassSearchIndex.MatchType matchType){
+        Path classNamesFile = getClassNamesFile(args);
+        if(classNamesFile == null){
+            String className = getClassName(args);
+            if(!MultiPatternQuery.isPattern(className)){
+                return new ClassQuery(matchType, className);
+            }
+            return compilePatterns(matchType, Collections.singletonList(className));
+        }
+
+        List<String> patterns = new ArrayList<>();
+        try{
+            patterns.addAll(MultiPatternQuery.readPatterns(classNamesFile));
+        }catch (IOException ioe){
+            usageError("error: ---class_names file " + classNamesFile + " is unreadable:" + ioe);
+        }
+        if(paramIndexSearch(args,"---class_name") != -1){
+            patterns.add(getClassName(args));
+        }
+        if(patterns.isEmpty()){
+            usageError("error: ---class_names file " + classNamesFile + " has no pattern!");
+        }
+        return compilePatterns(matchType, patterns);
+    }
+
+    private static MultiPatternQuery compilePatterns(ClassSearchIndex.MatchType matchType, List<String> patterns){
+        try{
+            return MultiPatternQuery.of(matchType, patterns);
+        }catch (PatternSyntaxException pse){
+            usageError("error: invalid pattern " + pse.getPattern() + ":" + pse.getDescription());
+            return null;
+        }
+    }
+
+    /*
+       the daemon may run in another directory, the ---class_names file goes over as an absolute
+       path.
+     */
+    private static String[] clientArgs(String[] args){
+        Path classNamesFile = getClassNamesFile(args);
+        if(classNamesFile == null){
+            return args;
+        }
+        String[] clientArgs = args.clone();
+        clientArgs[paramIndexSearch(args,"---class_names") + 1] = classNamesFile.toAbsolutePath().toString();
+        return clientArgs;
+    }
+
     private static String getMethodName(String[] args){
         String methodName = null;
         int index = paramIndexSearch(args,"---method_name");
         if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().length() == 0){
+                usageError("error: ---method_name is invalid!");
+            }
             methodName = args[index+1];
         }
         return methodName;
     }
 
+    private static int getThreads(String[] args){
+        int threads = Runtime.getRuntime().availableProcessors();
+        int index = paramIndexSearch(args,"---threads");
+        if(index != -1){
+            try{
+                threads = Integer.parseInt(args[index+1]);
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---threads is invalid!");
+            }
+
+            if(threads < 1){
+                usageError("error: ---threads must be positive!");
+            }
+        }
+        return threads;
+    }
+
+    private static ClassSearchIndex.MatchType getMatchType(String[] args){
+        ClassSearchIndex.MatchType matchType = ClassSearchIndex.MatchType.SUBSTRING;
+        int index = paramIndexSearch(args,"---match");
+        if(index != -1){
+            try{
+                matchType = ClassSearchIndex.MatchType.valueOf(args[index+1].toUpperCase(Locale.ROOT));
+            }catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---match is invalid!");
+            }
+        }
+        return matchType;
+    }
+
+    private static long getLimit(String[] args){
+        long limit = Long.MAX_VALUE;
+        int index = paramIndexSearch(args,"---limit");
+        if(index != -1){
+            try{
+                limit = Long.parseLong(args[index+1]);
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---limit is invalid!");
+            }
+
+            if(limit < 1){
+                usageError("error: ---limit must be positive!");
+            }
+        }
+        return limit;
+    }
+
+    private static int getNameFlags(String[] args){
+        int nameFlags = 0;
+        if(paramIndexSearch(args,"---skip_anonymous") != -1){
+            nameFlags |= ClassNames.SKIP_ANONYMOUS;
+        }
+        if(paramIndexSearch(args,"---skip_synthetic") != -1){
+            nameFlags |= ClassNames.SKIP_SYNTHETIC;
+        }
+        return nameFlags;
+    }
+
+    private static int getMaxDepth(String[] args){
+        int maxDepth = NestedArchives.DEFAULT_MAX_DEPTH;
+        int index = paramIndexSearch(args,"---max_depth");
+        if(index != -1){
+            try{
+                maxDepth = Integer.parseInt(args[index+1]);
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---max_depth is invalid!");
+            }
+
+            if(maxDepth < 0){
+                usageError("error: ---max_depth must not be negative!");
+            }
+        }
+        return maxDepth;
+    }
+
+    private static long getMaxHeapEntries(String[] args, long defaultMaxHeapEntries){
+        long maxHeapEntries = defaultMaxHeapEntries;
+        int index = paramIndexSearch(args,"---max_heap_entries");
+        if(index != -1){
+            try{
+                maxHeapEntries = Long.parseLong(args[index+1]);
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---max_heap_entries is invalid!");
+            }
+
+            if(maxHeapEntries < 1){
+                usageError("error: ---max_heap_entries must be positive!");
+            }
+        }
+        return maxHeapEntries;
+    }
+
+    private static int getMaxOpenJars(String[] args){
+        int maxOpenJars = ArchiveHandleCache.DEFAULT_MAX_OPEN;
+        int index = paramIndexSearch(args,"---max_open_jars");
+        if(index != -1){
+            try{
+                maxOpenJars = Integer.parseInt(args[index+1]);
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---max_open_jars is invalid!");
+            }
+
+            if(maxOpenJars < 1){
+                usageError("error: ---max_open_jars must be positive!");
+            }
+        }
+        return maxOpenJars;
+    }
+
+    private static long getClassCacheBytes(String[] args){
+        long classCacheMb = ClassBytesCache.DEFAULT_MAX_BYTES >> 20;
+        int index = paramIndexSearch(args,"---class_cache_mb");
+        if(index != -1){
+            try{
+                classCacheMb = Long.parseLong(args[index+1]);
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---class_cache_mb is invalid!");
+            }
+
+            if(classCacheMb < 0 || classCacheMb > Long.MAX_VALUE >> 20){
+                usageError("error: ---class_cache_mb is out of range!");
+            }
+        }
+        return classCacheMb << 20;
+    }
+
+    private static String[] getDiffPaths(String[] args){
+        String[] diffPaths = null;
+        int index = paramIndexSearch(args,"---diff");
+        if(index != -1){
+            if(index + 2 >= args.length || args[index+1].trim().length() == 0 || args[index+2].trim().length() == 0){
+                usageError("error: ---diff is invalid!");
+            }
+            diffPaths = new String[]{args[index+1].trim(), args[index+2].trim()};
+            for (String diffPath : diffPaths) {
+                if(!new File(diffPath).exists()){
+                    usageError("error: ---diff path " + diffPath + " does not exist!");
+                }
+            }
+        }
+        return diffPaths;
+    }
+
+    private static String getBatchFile(String[] args){
+        String batchFile = null;
+        int index = paramIndexSearch(args,"---batch");
+        if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().length() == 0){
+                usageError("error: ---batch is invalid!");
+            }
+            batchFile = args[index+1].trim();
+        }
+        return batchFile;
+    }
+
+    private static Path getClassListingFile(String[] args){
+        Path classListingFile = null;
+        int index = paramIndexSearch(args,"---class_listing");
+        if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().length() == 0){
+                usageError("error: ---class_listing is invalid!");
+            }
+            classListingFile = Paths.get(args[index+1]);
+        }
+        return classListingFile;
+    }
+
+    private static int getDaemonPort(String[] args){
+        int port = 0;
+        int index = paramIndexSearch(args,"---daemon_port");
+        if(index != -1){
+            try{
+                port = Integer.parseInt(args[index+1]);
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---daemon_port is invalid!");
+            }
+
+            if(port < 1 || port > 65535){
+                usageError("error: ---daemon_port must be within 1 and 65535!");
+            }
+        }
+        return port;
+    }
+
+    /*
+       the ---daemon_port_file, or the port file next to the index file, the same for the daemon
+       and its clients.
+     */
+    private static Path getDaemonPortFile(String[] args){
+        int index = paramIndexSearch(args,"---daemon_port_file");
+        if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().length() == 0){
+                usageError("error: ---daemon_port_file is invalid!");
+            }
+            return Paths.get(args[index+1]);
+        }
+        return InspectionDaemon.portFileFor(getIndexFile(args));
+    }
+
+    private static String getReferencesOf(String[] args){
+        String symbol = null;
+        int index = paramIndexSearch(args,"---references_of");
+        if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().length() == 0){
+                usageError("error: ---references_of is invalid!");
+            }
+            symbol = args[index+1].trim();
+        }
+        return symbol;
+    }
+
+    private static Path getReferencesIndexFile(String[] args){
+        Path indexFile = ReferenceIndex.defaultIndexFile();
+        int index = paramIndexSearch(args,"---references_index");
+        if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().length() == 0){
+                usageError("error: ---references_index is invalid!");
+            }
+            indexFile = Paths.get(args[index+1]);
+        }
+        return indexFile;
+    }
+
+    private static Path getMetricsFile(String[] args){
+        Path metricsFile = null;
+        int index = paramIndexSearch(args,"---metrics_file");
+        if(index != -1){
+            if(index + 1 >= args.length || args[index+1].trim().length() == 0){
+                usageError("error: ---metrics_file is invalid!");
+            }
+            metricsFile = Paths.get(args[index+1]);
+        }
+        return metricsFile;
+    }
+
+    private static int getSlowestJars(String[] args){
+        int slowestJars = -1;
+        int index = paramIndexSearch(args,"---slowest_jars");
+        if(index != -1){
+            try{
+                slowestJars = Integer.parseInt(args[index+1]);
+            }catch (NumberFormatException | ArrayIndexOutOfBoundsException e){
+                usageError("error: ---slowest_jars is invalid!");
+            }
+
+            if(slowestJars < 1){
+                usageError("error: ---slowest_jars must be positive!");
+            }
+        }
+        return slowestJars;
+    }
+
+    /*
+       the metrics of the run, null when neither written, published nor printed.
+     */
+    private static ScanMetrics getScanMetrics(String[] args){
+        int slowestJars = getSlowestJars(args);
+        boolean jmx = paramIndexSearch(args,"---metrics_jmx") != -1;
+        if(getMetricsFile(args) == null && !jmx && slowestJars == -1){
+            return null;
+        }
+
+        ScanMetrics metrics = new ScanMetrics(slowestJars == -1 ? ScanMetrics.DEFAULT_SLOWEST_JARS : slowestJars);
+        if(jmx){
+            try{
+                metrics.registerMBean();
+            }catch (JMException jme){
+                System.err.println("metrics MBean registration failed:" + jme);
+            }
+        }
+        return metrics;
+    }
+
+    /*
+       appends the metrics to the ---metrics_file and prints the ---slowest_jars, once the run
+       is over.
+     */
+    private static void reportMetrics(String[] args, ScanMetrics metrics, PrintStream out){
+        if(metrics == null){
+            return;
+        }
+
+        if(getSlowestJars(args) != -1){
+            List<ScanMetrics.JarTiming> slowest = metrics.getSlowest();
+            out.println(slowest.isEmpty() ? "no jar parsed." : "slowest jars:");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < slowest.size(); i++) {
+                ScanMetrics.JarTiming timing = slowest.get(i);
+                sb.delete(0,sb.length());
+                Utils.appendPosixNanos(sb,timing.getParseNanos());
+                out.println("   " + i + " => " + timing.getJarPath() + " (parse:" + sb + ",bytes:" + timing.getBytes()
+                        + ",entries:" + timing.getEntries() + ",classes:" + timing.getClasses() + ")");
+            }
+            sb.delete(0,sb.length());
+            sb.append("jars:").append(metrics.getJarsParsed()).append(",parse latency micros");
+            for (Map.Entry<String, Long> latency : metrics.getParseLatencyMicros().entrySet()) {
+                sb.append(',').append(latency.getKey()).append(':').append(latency.getValue());
+            }
+            out.println(sb.toString());
+        }
+
+        Path metricsFile = getMetricsFile(args);
+        if(metricsFile != null){
+            try(Writer writer = Files.newBufferedWriter(metricsFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)){
+                metrics.writeJsonLines(writer);
+            }catch (IOException ioe){
+                System.err.println("metrics file " + metricsFile + " write failed:" + ioe);
+            }
+        }
+    }
+
+    private static Path getIndexFile(String[] args){
+        if(paramIndexSearch(args,"---no_index") != -1){
+            return null;
+        }
+
+        Path indexFile = JarClassIndex.defaultIndexFile();
+        int index = paramIndexSearch(args,"---index_file");
+        if(index != -1){
+            if(index + 1 >= args.length){
+                usageError("error: ---index_file is invalid!");
+            }
+            indexFile = Paths.get(args[index+1]);
+        }
+        return indexFile;
+    }
+
+    private static JarClassIndex getJarClassIndex(String[] args, int nameFlags, int maxDepth){
+        Path indexFile = getIndexFile(args);
+        return indexFile == null ? null : JarClassIndex.load(indexFile, nameFlags, maxDepth, PROBLEMS);
+    }
+
     public static void main(String[] args){
+        try{
+            run(args);
+        }catch (UsageException ue){
+            System.err.println(ue.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+
+    private static void run(String[] args){
+        if(paramIndexSearch(args,"---client") != -1){
+            // the daemon has the jars, only the query goes over.
+            System.exit(DaemonClient.query(getDaemonPort(args), getDaemonPortFile(args), clientArgs(args)));
+        }
+
+        // jars and class files kept between reads of class files.
+        ArchiveHandleCache.setShared(new ArchiveHandleCache(getMaxOpenJars(args)));
+        ClassBytesCache.setShared(new ClassBytesCache(getClassCacheBytes(args)));
+
+        // referrers of a symbol, answered from the reference index alone.
+        String referencesOf = getReferencesOf(args);
+        if(referencesOf != null){
+            queryReferences(referencesOf, getReferencesIndexFile(args), getLimit(args), System.out);
+            return;
+        }
+
+        // two class sets to compare, they replace the jar paths.
+        String[] diffPaths = getDiffPaths(args);
+        if(diffPaths != null){
+            int threads = getThreads(args);
+            int nameFlags = getNameFlags(args);
+            int maxDepth = getMaxDepth(args);
+            ScanMetrics metrics = getScanMetrics(args);
+            long maxHeapEntries = getMaxHeapEntries(args, DEFAULT_MAX_HEAP_ENTRIES);
+            long globalStartNanos = System.nanoTime();
+
+            diffClasses(diffPaths[0], diffPaths[1], threads, nameFlags, maxDepth, metrics, maxHeapEntries,
+                    System.out);
+
+            printTotalTime(globalStartNanos, System.out);
+            reportMetrics(args, metrics, System.out);
+            return;
+        }
+
         // jar paths.
         String[] jarPaths = getJarPaths(args);
-        // class name to inspections.
-        String className = getClassName(args);
-        // method name in the class.
+        // report classes found in more than one jar instead of looking up a class name.
+        boolean duplicates = paramIndexSearch(args,"---duplicates") != -1;
+        // parser threads.
+        int threads = getThreads(args);
+        // classes to skip while parsing.
+        int nameFlags = getNameFlags(args);
+        // nested archive levels to open.
+        int maxDepth = getMaxDepth(args);
+
+        // stage timings and counters, null when not asked for.
+        ScanMetrics metrics = getScanMetrics(args);
+
+        if(paramIndexSearch(args,"---daemon") != -1){
+            serveDaemon(args, jarPaths, threads, nameFlags, maxDepth, metrics);
+            reportMetrics(args, metrics, System.out);
+            return;
+        }
+
+        if(paramIndexSearch(args,"---build_references") != -1){
+            long globalStartNanos = System.nanoTime();
+
+            buildReferences(jarPaths, threads, nameFlags, maxDepth, metrics, getReferencesIndexFile(args));
+
+            printTotalTime(globalStartNanos, System.out);
+            reportMetrics(args, metrics, System.out);
+            return;
+        }
+
+        // queries to answer in one scan, null for a single query.
+        String batchFile = getBatchFile(args);
+        if(batchFile != null){
+            batchQuery(args, jarPaths, batchFile, threads, nameFlags, maxDepth, metrics);
+            return;
+        }
+
+        // sorted class listing to write, null for none.
+        Path classListingFile = getClassListingFile(args);
+
+        if(classListingFile != null || (duplicates && paramIndexSearch(args,"---max_heap_entries") != -1)){
+            // classes kept on the heap before spilling a sorted run.
+            long maxHeapEntries = getMaxHeapEntries(args, DEFAULT_MAX_HEAP_ENTRIES);
+            long globalStartNanos = System.nanoTime();
+
+            sortClasses(jarPaths, threads, nameFlags, maxDepth, metrics, maxHeapEntries, classListingFile,
+                    duplicates);
+
+            printTotalTime(globalStartNanos, System.out);
+            reportMetrics(args, metrics, System.out);
+            return;
+        }
+
+        query(args, threads, consumer -> {
+            // persistent jar class index, null when disabled.
+            JarClassIndex jarClassIndex = getJarClassIndex(args, nameFlags, maxDepth);
+            scanJarPaths(jarPaths, threads, nameFlags, maxDepth, jarClassIndex, metrics, System.out, consumer);
+        }, null, metrics, System.out);
+        reportMetrics(args, metrics, System.out);
+    }
+
+    /*
+       answers the duplicates or class name query of args over the jars scanner hands out,
+       printing to out, and the time spent matching to metrics when not null. shared by the
+       command line and the daemon; the daemon passes its inspector, whose search index answers
+       a single class name without going through every jar.
+     */
+    private static void query(String[] args, int threads, Consumer<Consumer<JarClass>> scanner,
+                              ClassInspector inspector, ScanMetrics metrics, PrintStream out){
+        if(paramIndexSearch(args,"---duplicates") != -1){
+            long globalStartNanos = System.nanoTime();
+
+            DuplicateClassDetector detector = new DuplicateClassDetector();
+            scanner.accept(detector::add);
+            printDuplicates(detector, out);
+
+            printTotalTime(globalStartNanos, out);
+            return;
+        }
+
+        // how to match the class names.
+        ClassSearchIndex.MatchType matchType = getMatchType(args);
+        // class name, or patterns, to inspections.
+        ClassMatcher classMatcher = getClassMatcher(args, matchType);
+        // maximum number of matches to report.
+        long limit = getLimit(args);
+        // method name in the matched classes, null to report classes only.
         String methodName = getMethodName(args);
 
-        long globalStartTs = System.currentTimeMillis();
+        long globalStartNanos = System.nanoTime();
+
+        // with several patterns, every match tells the patterns it comes from.
+        MultiPatternQuery patterns = classMatcher instanceof MultiPatternQuery
+                && ((MultiPatternQuery) classMatcher).size() > 1 ? (MultiPatternQuery) classMatcher : null;
+        MatchPrinter matchPrinter = new MatchPrinter(limit, patterns, out);
+        // matched classes by jar, kept only when their methods are searched afterwards.
+        Map<String, List<String>> matchedClasses = new LinkedHashMap<>();
+        Predicate<ClassMatch> collector = methodName == null ? matchPrinter : classMatch -> {
+            if(matchPrinter.isLimitReached()){
+                return false;
+            }
+            matchedClasses.computeIfAbsent(classMatch.getJarPath(), k -> new ArrayList<>())
+                    .add(classMatch.getCanonicalName());
+            return matchPrinter.test(classMatch);
+        };
+        if(inspector != null && classMatcher instanceof ClassQuery){
+            // the inspector records the match time itself.
+            inspector.forEachClass(classMatcher, collector).join();
+        }else{
+            scanner.accept(jarClass -> {
+                if(!matchPrinter.isLimitReached()){
+                    long startNanos = System.nanoTime();
+                    classMatcher.forEachMatch(jarClass, collector);
+                    if(metrics != null){
+                        metrics.record(ScanMetrics.Stage.MATCH, System.nanoTime() - startNanos);
+                    }
+                }
+            });
+        }
+        matchPrinter.printSummary();
+
+        if(methodName != null){
+            searchMethods(matchedClasses, methodName, threads, out);
+        }
+
+        printTotalTime(globalStartNanos, out);
+    }
+
+    /*
+       keeps the jars of every jar path in the index, in memory, refreshed as they change on
+       disk, and answers the queries of ---client until told to shut down.
+     */
+    private static void serveDaemon(String[] args, String[] jarPaths, int threads, int nameFlags, int maxDepth,
+                                    ScanMetrics metrics){
+        int port = getDaemonPort(args);
+        ClassInspector inspector = ClassInspector.builder(jarPaths)
+                .threads(threads)
+                .nameFlags(nameFlags)
+                .maxDepth(maxDepth)
+                .indexFile(getIndexFile(args))
+                .metrics(metrics)
+                .problemListener(PROBLEMS)
+                .build();
+
+        try(InspectionDaemon daemon = new InspectionDaemon(inspector,
+                (queryArgs, daemonInspector, out) -> query(queryArgs, threads, daemonInspector::forEachJarClass,
+                        daemonInspector, metrics, out))){
+            daemon.start(port, getDaemonPortFile(args));
+            System.out.println("daemon listening on " + daemon.getAddress() + ",jars:" + inspector.getJarCount());
+            daemon.awaitShutdown();
+        }catch (IOException ioe){
+            System.err.println("daemon failed:" + ioe);
+            System.exit(1);
+        }catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        Map<String,String> matchJarClassMap = new HashMap<>();
+    /*
+       scans every jar path, parses its jars, or takes them from the index when enabled, and
+       hands each parsed jar to consumer. byte-identical jars are parsed once. jars are parsed
+       while the path is still being walked, so the first ones reach consumer before the walk is
+       over. the index is saved once every path is done. the stages of the scan are recorded into
+       metrics when not null, the progress is printed on progress.
+     */
+    private static void scanJarPaths(String[] jarPaths, int threads, int nameFlags, int maxDepth,
+                                     JarClassIndex jarClassIndex, ScanMetrics metrics, PrintStream progress,
+                                     Consumer<JarClass> consumer){
+        ArchiveDedupe dedupe = new ArchiveDedupe();
+        scanJarPaths(jarPaths, threads, nameFlags, maxDepth, jarClassIndex, dedupe, metrics, progress, consumer);
+        printShared(dedupe, progress);
+        saveIndex(jarClassIndex);
+    }
+
+    /*
+       same as above without saving the index, so that several scans can share it and dedupe,
+       which are both thread safe, and save it once.
+     */
+    private static void scanJarPaths(String[] jarPaths, int threads, int nameFlags, int maxDepth,
+                                     JarClassIndex jarClassIndex, ArchiveDedupe dedupe, ScanMetrics metrics,
+                                     PrintStream progress, Consumer<JarClass> consumer){
         for (String jarPath : jarPaths) {
-            long startTs = System.currentTimeMillis();
-            List<File> dirJarFiles = Utils.dirJarFileScan(jarPath);
-            long transMillis = System.currentTimeMillis() - startTs;
+            long startNanos = System.nanoTime();
+            JarPipeline.Source source = JarPipeline.directory(jarPath, threads);
+
+            int failed;
+            long walkNanos;
+            if(jarClassIndex != null){
+                JarClassIndex.RefreshResult refreshResult = jarClassIndex.refresh(jarPath, source, threads, dedupe,
+                        metrics, consumer);
+                progress.println("jar path:" + jarPath + ",index refresh " + refreshResult);
+                failed = refreshResult.getFailed();
+                walkNanos = refreshResult.getWalkNanos();
+            }else{
+                JarPipeline.Stats stats = JarPipeline.run(source, threads,
+                        (jarFile, attrs) -> dedupe.parse(jarFile.getAbsolutePath(), attrs, nameFlags, maxDepth, metrics,
+                                PROBLEMS),
+                        PROBLEMS, jarClasses -> jarClasses.forEach(consumer));
+                failed = stats.getFailed();
+                walkNanos = stats.getWalkNanos();
+                if(metrics != null){
+                    metrics.record(ScanMetrics.Stage.WALK, walkNanos);
+                }
+            }
+            if(failed > 0){
+                System.err.println("jar path:" + jarPath + "," + failed + " jar file(s) failed to parse.");
+            }
             StringBuilder sb = new StringBuilder();
-            Utils.appendPosixTime(sb,transMillis);
-            System.out.println("jar path:" + jarPath + ",jar file scan time elapsed:" + sb.toString());
-
-            startTs = System.currentTimeMillis();
-            List<JarClass> jarClassList = Utils.jarFileClassesParse(dirJarFiles);
-            for (JarClass jarClass : jarClassList) {
-                for (String s : jarClass.getCanonicalNames()) {
-                    if(s.contains(className)){
-                        matchJarClassMap.put(jarClass.getJarPath(),s);
+            Utils.appendPosixNanos(sb,walkNanos);
+            progress.println("jar path:" + jarPath + ",jar file scan time elapsed:" + sb.toString());
+            long transNanos = System.nanoTime() - startNanos;
+            sb.delete(0,sb.length());
+            Utils.appendPosixNanos(sb,transNanos);
+            progress.println("jar path:" + jarPath + ",jar file parse time elapsed:" + sb.toString());
+        }
+    }
+
+    private static void printShared(ArchiveDedupe dedupe, PrintStream progress){
+        if(dedupe.getShared() > 0){
+            progress.println("identical jar files parsed once:" + dedupe.getShared() + " shared");
+        }
+    }
+
+    private static void saveIndex(JarClassIndex jarClassIndex){
+        if(jarClassIndex != null){
+            try{
+                jarClassIndex.save();
+            }catch (IOException ioe){
+                System.err.println("index file " + jarClassIndex.getIndexFile() + " save failed:" + ioe);
+            }
+        }
+    }
+
+    /*
+       answers every query of batchFile, - for stdin, in one scan. the answers are the only thing
+       written to stdout, as JSON lines through one buffered writer; the progress goes to stderr.
+     */
+    private static void batchQuery(String[] args, String[] jarPaths, String batchFile, int threads, int nameFlags,
+                                   int maxDepth, ScanMetrics metrics){
+        List<String> lines = null;
+        try(BufferedReader reader = "-".equals(batchFile)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(batchFile), StandardCharsets.UTF_8)){
+            lines = BatchQuery.readQueries(reader);
+        }catch (IOException ioe){
+            usageError("error: ---batch file " + batchFile + " is unreadable:" + ioe);
+        }
+        BatchQuery batch = BatchQuery.of(getMatchType(args), lines, getLimit(args));
+        // persistent jar class index, null when disabled.
+        JarClassIndex jarClassIndex = getJarClassIndex(args, nameFlags, maxDepth);
+
+        PrintStream progress = System.err;
+        try{
+            long globalStartNanos = System.nanoTime();
+            scanJarPaths(jarPaths, threads, nameFlags, maxDepth, jarClassIndex, metrics, progress, jarClass -> {
+                long startNanos = System.nanoTime();
+                batch.add(jarClass);
+                if(metrics != null){
+                    metrics.record(ScanMetrics.Stage.MATCH, System.nanoTime() - startNanos);
+                }
+            });
+            int failed = batch.searchMethods(threads, PROBLEMS);
+            if(failed > 0){
+                System.err.println(failed + " jar file(s) failed to read for methods.");
+            }
+            printReadCaches(progress);
+
+            Writer answers = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            batch.writeJsonLines(answers);
+            answers.flush();
+            progress.println("queries:" + batch.size() + ",matches:" + batch.getMatchCount());
+            printTotalTime(globalStartNanos, progress);
+            reportMetrics(args, metrics, progress);
+        }catch (IOException ioe){
+            System.err.println("batch answers write failed:" + ioe);
+            System.exit(1);
+        }
+    }
+
+    /*
+       compares the classes under before and after: both are scanned at the same time, each
+       with half the threads, into sorters spilling past maxHeapEntries classes between them,
+       then merged side by side. jars found on both sides are parsed once. like sortClasses, the
+       jar class index is not used, so neither side is held on the heap.
+     */
+    private static void diffClasses(String before, String after, int threads, int nameFlags, int maxDepth,
+                                    ScanMetrics metrics, long maxHeapEntries, PrintStream out){
+        int sideThreads = Math.max(1, threads / 2);
+        long sideHeapEntries = Math.max(1, maxHeapEntries / 2);
+        ArchiveDedupe dedupe = new ArchiveDedupe();
+        try(ExternalClassSorter beforeSorter = new ExternalClassSorter(sideHeapEntries);
+            ExternalClassSorter afterSorter = new ExternalClassSorter(sideHeapEntries)){
+            FutureTask<Void> beforeScan = new FutureTask<>(() -> {
+                scanJarPaths(new String[]{before}, sideThreads, nameFlags, maxDepth, null, dedupe, metrics,
+                        out, jarClass -> addClasses(beforeSorter, jarClass));
+                return null;
+            });
+            Thread beforeThread = new Thread(beforeScan, "diff-before-scan");
+            beforeThread.setDaemon(true);
+            beforeThread.start();
+            Throwable failure = null;
+            try{
+                scanJarPaths(new String[]{after}, sideThreads, nameFlags, maxDepth, null, dedupe, metrics,
+                        out, jarClass -> addClasses(afterSorter, jarClass));
+                beforeScan.get();
+            }catch (ExecutionException ee){
+                throw ee.getCause() instanceof UncheckedIOException ? (UncheckedIOException) ee.getCause()
+                        : new IllegalStateException(ee.getCause());
+            }catch (RuntimeException | Error e){
+                failure = e;
+                throw e;
+            }finally {
+                // the sorters close next, the before scan must be done adding to its sorter.
+                stopScan(beforeScan, beforeThread, failure);
+            }
+            printShared(dedupe, out);
+
+            long startNanos = System.nanoTime();
+            out.println("classes before:" + beforeSorter.getClassCount() + ",classes after:"
+                    + afterSorter.getClassCount() + ",sorted runs spilled:"
+                    + (beforeSorter.getRunCount() + afterSorter.getRunCount()));
+            String beforePrefix = new File(before).getAbsolutePath() + File.separator;
+            String afterPrefix = new File(after).getAbsolutePath() + File.separator;
+            out.println("diff " + before + " " + after + ":");
+            ClassSetDiff.Summary summary = ClassSetDiff.diff(beforeSorter, afterSorter, change -> {
+                switch (change.getKind()){
+                    case ADDED:
+                        out.println("   + " + change.getCanonicalName() + "  "
+                                + relativeJarPaths(change.getAfterJarPaths(), afterPrefix));
+                        break;
+                    case REMOVED:
+                        out.println("   - " + change.getCanonicalName() + "  "
+                                + relativeJarPaths(change.getBeforeJarPaths(), beforePrefix));
+                        break;
+                    default:
+                        out.println("   ~ " + change.getCanonicalName() + "  "
+                                + relativeJarPaths(change.getBeforeJarPaths(), beforePrefix) + " -> "
+                                + relativeJarPaths(change.getAfterJarPaths(), afterPrefix));
                         break;
-                    }
                 }
+            });
+            out.println(summary);
+
+            StringBuilder sb = new StringBuilder();
+            Utils.appendPosixNanos(sb,System.nanoTime() - startNanos);
+            out.println("class diff time elapsed:" + sb.toString());
+        }catch (IOException | UncheckedIOException e){
+            System.err.println("class diff failed:" + e);
+            System.exit(1);
+        }catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+       cancels scan if still running and waits for its thread to end. when the other side
+       failed too, the failure of scan is added to failure rather than lost.
+     */
+    private static void stopScan(FutureTask<Void> scan, Thread thread, Throwable failure){
+        scan.cancel(true);
+        boolean interrupted = false;
+        while(thread.isAlive()){
+            try{
+                thread.join();
+            }catch (InterruptedException ie){
+                interrupted = true;
             }
-            transMillis = System.currentTimeMillis() - startTs;
-            sb.delete(0,sb.length());
-            Utils.appendPosixTime(sb,transMillis);
-            System.out.println("jar path:" + jarPath + ",jar file parse time elapsed:" + sb.toString());
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
         }
 
-        if(matchJarClassMap.size() > 0){
-            System.out.println("match class jar:");
-            int i = 0;
-            for (Map.Entry<String, String> entry : matchJarClassMap.entrySet()) {
-                System.out.println("   " + i + " => " + entry.getKey());
-                System.out.println("         " + entry.getValue());
-                i++;
+        if(failure != null && !scan.isCancelled()){
+            try{
+                scan.get();
+            }catch (ExecutionException ee){
+                failure.addSuppressed(ee.getCause());
+            }catch (InterruptedException ie){
+                Thread.currentThread().interrupt();
             }
+        }
+    }
+
+    private static void addClasses(ExternalClassSorter sorter, JarClass jarClass){
+        try{
+            sorter.add(jarClass);
+        }catch (IOException ioe){
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /*
+       the jar paths below a diffed directory, relative to it, a diffed jar file keeps its path.
+     */
+    private static String relativeJarPaths(List<String> jarPaths, String prefix){
+        StringBuilder sb = new StringBuilder();
+        for (String jarPath : jarPaths) {
+            if(sb.length() > 0){
+                sb.append(',');
+            }
+            sb.append(jarPath.startsWith(prefix) ? jarPath.substring(prefix.length()) : jarPath);
+        }
+        return sb.toString();
+    }
+
+    private static void searchMethods(Map<String, List<String>> matchedClasses, String methodName, int threads,
+                                      PrintStream out){
+        long startNanos = System.nanoTime();
+        long[] counters = new long[2];
+        int failed = MethodSearch.search(matchedClasses, methodName, threads, PROBLEMS, classMethods -> {
+            if(counters[0] == 0){
+                out.println("match method:");
+            }
+            out.println("   " + counters[0] + " => " + classMethods.getJarPath() + "!" + classMethods.getCanonicalName());
+            for (MemberInfo method : classMethods.getMethods()) {
+                out.println("         " + method);
+            }
+            counters[0]++;
+            counters[1] += classMethods.getMethods().size();
+        });
+        if(failed > 0){
+            System.err.println(failed + " jar file(s) failed to read for method search.");
+        }
+
+        if(counters[0] == 0){
+            out.println("no match method.");
         }else{
-            System.out.println("no match class jar.");
+            out.println("methods:" + counters[1] + ",classes:" + counters[0]);
+        }
+        long transNanos = System.nanoTime() - startNanos;
+        StringBuilder sb = new StringBuilder();
+        Utils.appendPosixNanos(sb,transNanos);
+        out.println("method search time elapsed:" + sb.toString());
+        printReadCaches(out);
+    }
+
+    private static void printReadCaches(PrintStream out){
+        out.println("archive handle cache:" + ArchiveHandleCache.shared() + ", class bytes cache:"
+                + ClassBytesCache.shared());
+    }
+
+    private static void printDuplicates(DuplicateClassDetector detector, PrintStream out){
+        printDuplicates(detector::forEachDuplicate, detector.getClassCount(), out);
+    }
+
+    private static void printDuplicates(Consumer<Consumer<DuplicateClassDetector.Duplicate>> duplicates, long classCount,
+                                        PrintStream out){
+        int[] counters = new int[2];
+        duplicates.accept(duplicate -> {
+            if(counters[0] + counters[1] == 0){
+                out.println("duplicate classes:");
+            }
+            boolean identical = duplicate.isIdentical();
+            out.println("   " + (counters[0] + counters[1]) + " => " + duplicate.getCanonicalName()
+                    + (identical ? " (identical)" : " (conflicting)"));
+            for (int i = 0; i < duplicate.size(); i++) {
+                out.println("         " + duplicate.getJarPath(i)
+                        + String.format(" (crc:%08x,size:%d)", duplicate.getEntryCrc(i), duplicate.getEntrySize(i)));
+            }
+            counters[identical ? 0 : 1]++;
+        });
+
+        if(counters[0] + counters[1] == 0){
+            out.println("no duplicate class.");
+            return;
+        }
+        out.println("classes:" + classCount + ",duplicates:" + (counters[0] + counters[1])
+                + ",identical:" + counters[0] + ",conflicting:" + counters[1]);
+    }
+
+    /*
+       scans every jar path into an external sorter, which keeps at most maxHeapEntries classes
+       on the heap, then merges its sorted runs once: into the class listing file, one
+       "class_name<TAB>jar_path" line per class, and into the duplicate report. the jar class
+       index is not used, it would hold every class name on the heap; the jars are parsed as they
+       are walked and their class names dropped once spilled, short of the copies dedupe keeps
+       softly referenced.
+     */
+    private static void sortClasses(String[] jarPaths, int threads, int nameFlags, int maxDepth,
+                                    ScanMetrics metrics, long maxHeapEntries, Path classListingFile,
+                                    boolean duplicates){
+        try(ExternalClassSorter sorter = new ExternalClassSorter(maxHeapEntries)){
+            scanJarPaths(jarPaths, threads, nameFlags, maxDepth, null, metrics, System.out, jarClass -> {
+                try{
+                    sorter.add(jarClass);
+                }catch (IOException ioe){
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+
+            long startNanos = System.nanoTime();
+            System.out.println("classes:" + sorter.getClassCount() + ",sorted runs spilled:" + sorter.getRunCount());
+            try(Writer listing = classListingFile == null ? null : Files.newBufferedWriter(classListingFile,
+                    StandardCharsets.UTF_8)){
+                Consumer<ExternalClassSorter.ClassEntry> listingWriter = classEntry -> {
+                    if(listing == null){
+                        return;
+                    }
+                    try{
+                        listing.write(classEntry.getCanonicalName());
+                        listing.write('\t');
+                        listing.write(classEntry.getJarPath());
+                        listing.write('\n');
+                    }catch (IOException ioe){
+                        throw new UncheckedIOException(ioe);
+                    }
+                };
+
+                if(duplicates){
+                    printDuplicates(duplicateConsumer -> {
+                        try{
+                            sorter.merge(listingWriter, duplicateConsumer);
+                        }catch (IOException ioe){
+                            throw new UncheckedIOException(ioe);
+                        }
+                    }, sorter.getClassCount(), System.out);
+                }else{
+                    sorter.merge(listingWriter, duplicate -> {});
+                }
+            }
+            if(classListingFile != null){
+                System.out.println("class listing:" + classListingFile.toAbsolutePath());
+            }
+
+            long transNanos = System.nanoTime() - startNanos;
+            StringBuilder sb = new StringBuilder();
+            Utils.appendPosixNanos(sb,transNanos);
+            System.out.println("class sort time elapsed:" + sb.toString());
+        }catch (IOException | UncheckedIOException e){
+            System.err.println("class sort failed:" + e);
+            System.exit(1);
+        }
+    }
+
+    /*
+       reads the constant pool of every class of every jar, in parallel, into a reverse reference
+       index written to indexFile.
+     */
+    private static void buildReferences(String[] jarPaths, int threads, int nameFlags, int maxDepth,
+                                        ScanMetrics metrics, Path indexFile){
+        ReferenceIndex.Builder builder = ReferenceIndex.builder();
+        for (String jarPath : jarPaths) {
+            long startNanos = System.nanoTime();
+            JarPipeline.Stats stats = JarPipeline.run(JarPipeline.directory(jarPath, threads), threads,
+                    (jarFile, attrs) -> readReferences(jarFile.getAbsolutePath(), nameFlags, maxDepth, metrics),
+                    PROBLEMS, references -> references.forEach((archivePath, classReferences) -> {
+                        for (ClassReferences classReference : classReferences) {
+                            builder.add(archivePath, classReference.getCanonicalName(), classReference.getSymbols());
+                        }
+                    }));
+            if(stats.getFailed() > 0){
+                System.err.println("jar path:" + jarPath + "," + stats.getFailed() + " jar file(s) failed to read.");
+            }
+            StringBuilder sb = new StringBuilder();
+            Utils.appendPosixNanos(sb,System.nanoTime() - startNanos);
+            System.out.println("jar path:" + jarPath + ",jar files:" + stats.getProcessed()
+                    + ",reference scan time elapsed:" + sb.toString());
+        }
+
+        System.out.println("classes:" + builder.getClassCount() + ",symbols:" + builder.getSymbolCount()
+                + ",references:" + builder.getReferenceCount());
+        try{
+            builder.write(indexFile);
+            System.out.println("reference index:" + indexFile.toAbsolutePath());
+        }catch (IOException ioe){
+            System.err.println("reference index " + indexFile + " write failed:" + ioe);
+            System.exit(1);
+        }
+    }
+
+    /*
+       the references of every class of an archive file and of the archives nested in it, by
+       archive path.
+     */
+    private static Map<String, List<ClassReferences>> readReferences(String archivePath, int nameFlags, int maxDepth,
+                                                                     ScanMetrics metrics) throws IOException {
+        Map<String, List<ClassReferences>> references = new LinkedHashMap<>();
+        for (JarClass jarClass : Utils.jarArchiveParse(archivePath, nameFlags, maxDepth, metrics, PROBLEMS)) {
+            ClassNameTable table = jarClass.getClassNames();
+            List<String> classNames = new ArrayList<>(table.size());
+            for (int i = 0; i < table.size(); i++) {
+                classNames.add(table.getCanonicalName(i));
+            }
+            references.put(jarClass.getJarPath(), ClassReferences.readAll(jarClass.getJarPath(), classNames, PROBLEMS));
+        }
+        return references;
+    }
+
+    private static void queryReferences(String symbol, Path indexFile, long limit, PrintStream out){
+        long globalStartNanos = System.nanoTime();
+        try(ReferenceIndex referenceIndex = ReferenceIndex.open(indexFile)){
+            out.println("classes referring to " + symbol + ":");
+            MatchPrinter matchPrinter = new MatchPrinter(limit, null, out);
+            referenceIndex.forEachReferrer(symbol, matchPrinter);
+            matchPrinter.printSummary();
+
+            int dot = symbol.lastIndexOf('.');
+            if(symbol.indexOf('#') < 0 && dot > 0 && referenceIndex.getReferrerCount(symbol) == 0){
+                // X.foo is a class named foo, a method of X is X#foo.
+                String member = symbol.substring(0, dot) + "#" + symbol.substring(dot + 1);
+                int referrers = referenceIndex.getReferrerCount(member);
+                if(referrers > 0){
+                    out.println("did you mean " + member + "? " + referrers + " class(es) refer to it.");
+                }
+            }
+        }catch (IOException ioe){
+            System.err.println("reference index " + indexFile + " unreadable, build it with ---build_references:" + ioe);
+            System.exit(1);
         }
+        printTotalTime(globalStartNanos, out);
+    }
 
-        long transMillis = System.currentTimeMillis() - globalStartTs;
+    private static void printTotalTime(long globalStartNanos, PrintStream out){
+        long transNanos = System.nanoTime() - globalStartNanos;
         StringBuilder sb = new StringBuilder();
-        Utils.appendPosixTime(sb,transMillis);
-        System.out.println("total time elapsed:" + sb.toString());
+        Utils.appendPosixNanos(sb,transNanos);
+        out.println("total time elapsed:" + sb.toString());
+    }
+
+    /*
+       prints matches as soon as they are found, grouped under their jar. only the
+       jar currently printed and the counters are kept, whatever the match count.
+     */
+    private static final class MatchPrinter implements Predicate<ClassMatch> {
+        private final long limit;
+        private final MultiPatternQuery patterns;
+        private final PrintStream out;
+        private long matches;
+        private int jars;
+        private String currentJarPath;
+
+        private MatchPrinter(long limit, MultiPatternQuery patterns, PrintStream out){
+            this.limit = limit;
+            this.patterns = patterns;
+            this.out = out;
+        }
+
+        @Override
+        public boolean test(ClassMatch classMatch){
+            if(matches >= limit){
+                return false;
+            }
+
+            if(!classMatch.getJarPath().equals(currentJarPath)){
+                if(jars == 0){
+                    out.println("match class jar:");
+                }
+                currentJarPath = classMatch.getJarPath();
+                out.println("   " + jars + " => " + currentJarPath);
+                jars++;
+            }
+            if(patterns == null){
+                out.println("         " + classMatch.getCanonicalName());
+            }else{
+                out.println("         " + classMatch.getCanonicalName() + " (pattern:"
+                        + String.join(",", patterns.matchingPatterns(classMatch.getCanonicalName())) + ")");
+            }
+            matches++;
+            return matches < limit;
+        }
+
+        private boolean isLimitReached(){
+            return matches >= limit;
+        }
+
+        private void printSummary(){
+            if(matches == 0){
+                out.println("no match class jar.");
+            }else{
+                out.println("matches:" + matches + ",jars:" + jars
+                        + (isLimitReached() ? ",limit " + limit + " reached, remaining matches skipped." : ""));
+            }
+        }
+    }
+
+    /*
+       a bad command line, reported with the usage by main and sent back to the client by the
+       daemon.
+     */
+    private static final class UsageException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private UsageException(String message){
+            super(message);
+        }
     }
 }
@@ -0,0 +1,153 @@
+package com.github.clazz.classfile;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   a least recently used cache of inflated class files by jar entry, bounded
+   by the bytes it holds rather than by the number of classes, so a few huge
+   classes cannot crowd out the heap. like ClassInfoCache, an entry is only
+   returned while the jar entry still has the CRC-32 and size it was read
+   with. the cached arrays are shared, callers must not modify them. thread
+   safe.
+ */
+public final class ClassBytesCache {
+    /** the default weight limit, 64 MiB of class files. */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    // the key and map entry, roughly, on top of the class bytes.
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static volatile ClassBytesCache shared = new ClassBytesCache(DEFAULT_MAX_BYTES);
+
+    private final long maxBytes;
+    private final Map<String, Cached> cached = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes the weight kept before the least recently used classes are evicted, 0 to
+     *     cache nothing
+     */
+    public ClassBytesCache(long maxBytes){
+        if(maxBytes < 0){
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache used by the class file readers of the process
+     */
+    public static ClassBytesCache shared(){
+        return shared;
+    }
+
+    /**
+     * Replace the cache used by the class file readers of the process.
+     *
+     * @param cache the new cache
+     */
+    public static void setShared(ClassBytesCache cache){
+        shared = checkNotNull(cache, "cache");
+    }
+
+    /**
+     * @param jarPath the jar holding the class
+     * @param className the canonical class name
+     * @param entryCrc the CRC-32 the jar entry has now
+     * @param entrySize the size the jar entry has now
+     * @return the cached class file, or null if absent or read from a different entry content
+     */
+    public synchronized byte[] get(String jarPath, String className, int entryCrc, long entrySize){
+        Cached entry = cached.get(key(jarPath, className));
+        if(entry == null || entry.entryCrc != entryCrc || entry.entrySize != entrySize){
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.classBytes;
+    }
+
+    public synchronized void put(String jarPath, String className, int entryCrc, long entrySize, byte[] classBytes){
+        String key = key(jarPath, className);
+        long entryWeight = weightOf(key, classBytes);
+        if(entryWeight > maxBytes){
+            return;
+        }
+        Cached previous = cached.put(key, new Cached(entryCrc, entrySize, classBytes));
+        if(previous != null){
+            weight -= weightOf(key, previous.classBytes);
+        }
+        weight += entryWeight;
+
+        Iterator<Map.Entry<String, Cached>> eldest = cached.entrySet().iterator();
+        while(weight > maxBytes){
+            Map.Entry<String, Cached> evicted = eldest.next();
+            eldest.remove();
+            weight -= weightOf(evicted.getKey(), evicted.getValue().classBytes);
+            evictions++;
+        }
+    }
+
+    public synchronized int size(){
+        return cached.size();
+    }
+
+    /**
+     * @return the bytes held, class files plus an estimate of the bookkeeping
+     */
+    public synchronized long getWeight(){
+        return weight;
+    }
+
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    /**
+     * @return the number of classes evicted to stay within the weight limit
+     */
+    public synchronized long getEvictions(){
+        return evictions;
+    }
+
+    public synchronized void clear(){
+        cached.clear();
+        weight = 0;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return "classes:" + cached.size() + ",bytes:" + weight + ",hits:" + hits + ",misses:" + misses
+                + ",evictions:" + evictions;
+    }
+
+    private static long weightOf(String key, byte[] classBytes){
+        return classBytes.length + 2L * key.length() + ENTRY_OVERHEAD;
+    }
+
+    private static String key(String jarPath, String className){
+        return jarPath + '!' + className;
+    }
+
+    private static final class Cached {
+        private final int entryCrc;
+        private final long entrySize;
+        private final byte[] classBytes;
+
+        private Cached(int entryCrc, long entrySize, byte[] classBytes){
+            this.entryCrc = entryCrc;
+            this.entrySize = entrySize;
+            this.classBytes = classBytes;
+        }
+    }
+}
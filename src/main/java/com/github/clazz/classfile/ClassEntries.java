@@ -0,0 +1,150 @@
+package com.github.clazz.classfile;
+
+import com.github.clazz.utils.ArchiveHandleCache;
+import com.github.clazz.utils.ClassNames;
+import com.github.clazz.utils.NestedArchives;
+import com.github.clazz.utils.ZipCentralDirectory;
+import com.github.clazz.utils.ZipEntryReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipException;
+
+/*
+   walks the class file entries of a jar that hold some given classes. the
+   central directory is scanned once and only the wanted entries are read;
+   jars the central directory reader rejects are read through JarFile. open
+   jars and read class files are cached across calls.
+ */
+final class ClassEntries {
+    private static final byte[] CLASS_SUFFIX = ".class".getBytes(StandardCharsets.US_ASCII);
+
+    interface Visitor {
+        /**
+         * @param canonicalName the class held by the entry
+         * @param entryCrc the CRC-32 of the entry
+         * @param entrySize the uncompressed size of the entry
+         * @param content reads the entry, only when called
+         */
+        void visit(String canonicalName, int entryCrc, long entrySize, Content content) throws IOException;
+    }
+
+    interface Content {
+        byte[] read() throws IOException;
+    }
+
+    private ClassEntries(){
+        // no instance.
+    }
+
+    /**
+     * Visit the entries of the given classes, at most once per class. The first entry wins when
+     * a multi-release jar holds several versions of a class. {@code jarPath} may name a nested
+     * archive, see {@link NestedArchives}. The archive is taken from {@link
+     * ArchiveHandleCache#shared()} and class files from {@link ClassBytesCache#shared()}.
+     */
+    static void forEach(String jarPath, Collection<String> classNames, Visitor visitor) throws IOException {
+        forEach(jarPath, classNames, true, visitor);
+    }
+
+    /**
+     * @param cacheClassBytes whether to keep the class files read in {@link ClassBytesCache#shared()},
+     *     false for one-off passes over whole jars, which would only evict the classes worth keeping
+     */
+    static void forEach(String jarPath, Collection<String> classNames, boolean cacheClassBytes, Visitor visitor)
+            throws IOException {
+        Set<String> remaining = new HashSet<>(classNames);
+        ClassBytesCache classBytesCache = ClassBytesCache.shared();
+        try(ArchiveHandleCache.Handle handle = ArchiveHandleCache.shared().acquire(jarPath);
+            ZipEntryReader entryReader = handle.newEntryReader()){
+            forEach(jarPath, handle.getCentralDirectory(), entryReader, remaining,
+                    cacheClassBytes ? classBytesCache : null, visitor);
+        }catch (ZipException ze){
+            if(jarPath.contains(NestedArchives.SEPARATOR)){
+                throw ze;
+            }
+            // JarFile takes over from the classes not visited yet.
+            forEachWithJarFile(jarPath, remaining, visitor, ze);
+        }
+    }
+
+    private static void forEach(String jarPath, ZipCentralDirectory centralDirectory, ZipEntryReader entryReader,
+                                Set<String> remaining, ClassBytesCache classBytesCache, Visitor visitor)
+            throws IOException {
+        ZipCentralDirectory.Cursor cursor = centralDirectory.cursor();
+        while(!remaining.isEmpty() && cursor.next()){
+            if(!cursor.nameEndsWith(CLASS_SUFFIX)){
+                continue;
+            }
+            String canonicalName = ClassNames.toCanonicalName(cursor.nameBuffer(), cursor.nameOffset(),
+                    cursor.nameLength(), 0);
+            if(canonicalName != null && remaining.remove(canonicalName)){
+                try{
+                    int entryCrc = cursor.crc();
+                    long entrySize = cursor.size();
+                    visitor.visit(canonicalName, entryCrc, entrySize, classBytesCache == null
+                            ? () -> entryReader.read(cursor)
+                            : () -> read(jarPath, canonicalName, entryCrc, entrySize, entryReader, cursor,
+                                    classBytesCache));
+                }catch (ZipException ze){
+                    remaining.add(canonicalName);
+                    throw ze;
+                }
+            }
+        }
+    }
+
+    private static byte[] read(String jarPath, String canonicalName, int entryCrc, long entrySize,
+                               ZipEntryReader entryReader, ZipCentralDirectory.Cursor cursor,
+                               ClassBytesCache classBytesCache) throws IOException {
+        byte[] classBytes = classBytesCache.get(jarPath, canonicalName, entryCrc, entrySize);
+        if(classBytes == null){
+            classBytes = entryReader.read(cursor);
+            classBytesCache.put(jarPath, canonicalName, entryCrc, entrySize, classBytes);
+        }
+        return classBytes;
+    }
+
+    private static void forEachWithJarFile(String jarPath, Collection<String> classNames, Visitor visitor,
+                                           ZipException cause) throws IOException {
+        Set<String> remaining = new HashSet<>(classNames);
+        try(JarFile jarFile = new JarFile(jarPath, false)){
+            // named like the central directory walk does, so BOOT-INF/classes/, WEB-INF/classes/ and
+            // META-INF/versions/N/ entries are found too, the first entry of a class winning.
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while(!remaining.isEmpty() && entries.hasMoreElements()){
+                JarEntry jarEntry = entries.nextElement();
+                String canonicalName = jarEntry.isDirectory() ? null
+                        : ClassNames.toCanonicalName(jarEntry.getName(), 0);
+                if(canonicalName != null && remaining.remove(canonicalName)){
+                    visitor.visit(canonicalName, (int) jarEntry.getCrc(), jarEntry.getSize(), () -> {
+                        try(InputStream in = jarFile.getInputStream(jarEntry)){
+                            return readFully(in);
+                        }
+                    });
+                }
+            }
+        }catch (IOException ioe){
+            ioe.addSuppressed(cause);
+            throw ioe;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while((read = in.read(buffer)) != -1){
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
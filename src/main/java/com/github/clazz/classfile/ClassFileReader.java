@@ -0,0 +1,440 @@
+package com.github.clazz.classfile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   reads a class file straight from its bytes, without defining or loading
+   the class. the constructor only records where every constant pool entry
+   starts; names and descriptors are decoded on demand, so a class that does
+   not hold what is looked for costs one pass over its constant pool.
+ */
+public final class ClassFileReader {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final byte[] bytes;
+    private final int minorVersion;
+    private final int majorVersion;
+    // cpOffsets[i] is the offset of the tag of constant pool entry i, 0 for unusable slots.
+    private final int[] cpOffsets;
+    // offset of access_flags, right after the constant pool.
+    private final int headerOffset;
+
+    /**
+     * @param bytes the class file content, not copied
+     * @throws ClassFormatException if {@code bytes} is not a class file
+     */
+    public ClassFileReader(byte[] bytes) throws ClassFormatException {
+        this.bytes = checkNotNull(bytes, "bytes");
+        if(bytes.length < 10 || u4(0) != MAGIC){
+            throw new ClassFormatException("not a class file");
+        }
+        minorVersion = u2(4);
+        majorVersion = u2(6);
+
+        int count = u2(8);
+        cpOffsets = new int[count];
+        int pos = 10;
+        try{
+            for (int i = 1; i < count; i++) {
+                cpOffsets[i] = pos;
+                int tag = bytes[pos];
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        pos += 3 + u2(pos + 1);
+                        break;
+                    case CONSTANT_INTEGER:
+                    case CONSTANT_FLOAT:
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        pos += 5;
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        // takes two slots, the second one is unusable.
+                        pos += 9;
+                        i++;
+                        break;
+                    case CONSTANT_CLASS:
+                    case CONSTANT_STRING:
+                    case CONSTANT_METHOD_TYPE:
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        pos += 3;
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        pos += 4;
+                        break;
+                    default:
+                        throw new ClassFormatException("invalid constant pool tag " + tag + " at " + pos);
+                }
+            }
+        }catch (ArrayIndexOutOfBoundsException e){
+            throw new ClassFormatException("truncated constant pool");
+        }
+        if(pos + 8 > bytes.length){
+            throw new ClassFormatException("truncated class file");
+        }
+        headerOffset = pos;
+    }
+
+    public int getMinorVersion(){
+        return minorVersion;
+    }
+
+    /**
+     * @return the class file major version, 52 for Java 8
+     */
+    public int getMajorVersion(){
+        return majorVersion;
+    }
+
+    /**
+     * @return the class access flags, see the {@code ACC_} constants of the class file format
+     */
+    public int getAccessFlags(){
+        return u2(headerOffset);
+    }
+
+    /**
+     * @return the binary name of the class, e.g. {@code java.util.Map$Entry}
+     * @throws ClassFormatException if this_class is not a class constant
+     */
+    public String getClassName() throws ClassFormatException {
+        return className(u2(headerOffset + 2));
+    }
+
+    /**
+     * @return the binary name of the superclass, null for {@code java.lang.Object} and
+     *     {@code module-info}
+     * @throws ClassFormatException if super_class is not a class constant
+     */
+    public String getSuperClassName() throws ClassFormatException {
+        int index = u2(headerOffset + 4);
+        return index == 0 ? null : className(index);
+    }
+
+    /**
+     * @return the binary names of the directly implemented interfaces, in declaration order
+     * @throws ClassFormatException if the interface table is corrupt
+     */
+    public List<String> getInterfaceNames() throws ClassFormatException {
+        int count = u2(headerOffset + 6);
+        if(headerOffset + 8 + 2 * count > bytes.length){
+            throw new ClassFormatException("truncated interface table");
+        }
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(className(u2(headerOffset + 8 + 2 * i)));
+        }
+        return names;
+    }
+
+    /**
+     * @return the declared fields, in declaration order
+     * @throws ClassFormatException if the field table is corrupt
+     */
+    public List<MemberInfo> getFields() throws ClassFormatException {
+        List<MemberInfo> fields = new ArrayList<>();
+        try{
+            readMembers(fieldsOffset(), fields);
+        }catch (ArrayIndexOutOfBoundsException e){
+            throw new ClassFormatException("truncated field table");
+        }
+        return fields;
+    }
+
+    /**
+     * @return the declared methods, constructors and static initializer included, in
+     *     declaration order
+     * @throws ClassFormatException if the field or method tables are corrupt
+     */
+    public List<MemberInfo> getMethods() throws ClassFormatException {
+        List<MemberInfo> methods = new ArrayList<>();
+        try{
+            readMembers(skipMembers(fieldsOffset()), methods);
+        }catch (ArrayIndexOutOfBoundsException e){
+            throw new ClassFormatException("truncated member table");
+        }
+        return methods;
+    }
+
+    /**
+     * @return everything this reader extracts, decoded once
+     * @throws ClassFormatException if the class file is corrupt
+     */
+    public ClassInfo toClassInfo() throws ClassFormatException {
+        return new ClassInfo(getClassName(), getSuperClassName(), getInterfaceNames(), getAccessFlags(),
+                majorVersion, minorVersion, getFields(), getMethods());
+    }
+
+    /**
+     * Hand every class, field and method the constant pool refers to to {@code consumer}: the
+     * class constants as canonical names such as {@code java.util.Map$Entry}, the field, method
+     * and interface method references as the canonical name of their owner, {@code #} and their
+     * name, such as {@code java.util.Map#put}. An array class stands for its element class,
+     * primitive arrays are skipped, and so is the class itself. A symbol may come more than once.
+     *
+     * @param consumer receives the symbols, in constant pool order
+     * @throws ClassFormatException if a reference is corrupt
+     */
+    public void forEachReference(Consumer<String> consumer) throws ClassFormatException {
+        checkNotNull(consumer, "consumer");
+        int thisClass = u2(headerOffset + 2);
+        for (int i = 1; i < cpOffsets.length; i++) {
+            int pos = cpOffsets[i];
+            if(pos == 0){
+                continue;
+            }
+            switch (bytes[pos]) {
+                case CONSTANT_CLASS:
+                    if(i != thisClass){
+                        String referenced = referencedClass(i);
+                        if(referenced != null){
+                            consumer.accept(referenced);
+                        }
+                    }
+                    break;
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                    String owner = referencedClass(u2(pos + 1));
+                    int nameAndType = u2(pos + 3);
+                    if(nameAndType <= 0 || nameAndType >= cpOffsets.length || cpOffsets[nameAndType] == 0
+                            || bytes[cpOffsets[nameAndType]] != CONSTANT_NAME_AND_TYPE){
+                        throw new ClassFormatException("constant pool entry " + nameAndType
+                                + " is not a name and type constant");
+                    }
+                    if(owner != null){
+                        consumer.accept(owner + "#" + utf8(u2(cpOffsets[nameAndType] + 1)));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Cheap check on the constant pool alone: a class declaring or using a member named {@code
+     * value} always holds it as a UTF-8 constant.
+     *
+     * @param value the string to look for
+     * @return whether the constant pool has a UTF-8 constant equal to {@code value}
+     */
+    public boolean containsUtf8(String value){
+        return findUtf8(modifiedUtf8(value)) != 0;
+    }
+
+    /**
+     * Find the methods declared with the given name, e.g. every overload of {@code valueOf}.
+     *
+     * @param name the method name, {@code <init>} for constructors
+     * @return the matching methods, in declaration order
+     * @throws ClassFormatException if the field or method tables are corrupt
+     */
+    public List<MemberInfo> findMethods(String name) throws ClassFormatException {
+        checkNotNull(name, "name");
+        byte[] encoded = modifiedUtf8(name);
+        if(findUtf8(encoded) == 0){
+            return Collections.emptyList();
+        }
+
+        List<MemberInfo> methods = new ArrayList<>();
+        try{
+            int pos = skipMembers(fieldsOffset());
+            int count = u2(pos);
+            pos += 2;
+            for (int i = 0; i < count; i++) {
+                int nameIndex = u2(pos + 2);
+                if(utf8Equals(nameIndex, encoded)){
+                    methods.add(new MemberInfo(u2(pos), name, utf8(u2(pos + 4))));
+                }
+                pos = skipAttributes(pos + 6);
+            }
+        }catch (ArrayIndexOutOfBoundsException e){
+            throw new ClassFormatException("truncated member table");
+        }
+        return methods;
+    }
+
+    private int fieldsOffset(){
+        return headerOffset + 8 + 2 * u2(headerOffset + 6);
+    }
+
+    private int readMembers(int pos, List<MemberInfo> members) throws ClassFormatException {
+        int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            members.add(new MemberInfo(u2(pos), utf8(u2(pos + 2)), utf8(u2(pos + 4))));
+            pos = skipAttributes(pos + 6);
+        }
+        return pos;
+    }
+
+    private int skipMembers(int pos){
+        int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            pos = skipAttributes(pos + 6);
+        }
+        return pos;
+    }
+
+    private int skipAttributes(int pos){
+        int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            pos += 6 + u4(pos + 2);
+        }
+        return pos;
+    }
+
+    private int findUtf8(byte[] encoded){
+        for (int i = 1; i < cpOffsets.length; i++) {
+            if(utf8Equals(i, encoded)){
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private boolean utf8Equals(int index, byte[] encoded){
+        if(index <= 0 || index >= cpOffsets.length){
+            return false;
+        }
+        int pos = cpOffsets[index];
+        if(pos == 0 || bytes[pos] != CONSTANT_UTF8 || u2(pos + 1) != encoded.length){
+            return false;
+        }
+        pos += 3;
+        for (int i = 0; i < encoded.length; i++) {
+            if(bytes[pos + i] != encoded[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String utf8(int index) throws ClassFormatException {
+        if(index <= 0 || index >= cpOffsets.length || cpOffsets[index] == 0
+                || bytes[cpOffsets[index]] != CONSTANT_UTF8){
+            throw new ClassFormatException("constant pool entry " + index + " is not a UTF-8 constant");
+        }
+        int pos = cpOffsets[index];
+        int length = u2(pos + 1);
+        pos += 3;
+        int end = pos + length;
+        char[] chars = new char[length];
+        int count = 0;
+        // modified UTF-8: no 4-byte forms, supplementary characters come as two encoded surrogates.
+        while(pos < end){
+            int b = bytes[pos++] & 0xFF;
+            if(b < 0x80){
+                chars[count++] = (char) b;
+            }else if((b & 0xE0) == 0xC0){
+                if(pos >= end){
+                    throw truncatedUtf8(index);
+                }
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[pos++] & 0x3F));
+            }else{
+                if(pos + 1 >= end){
+                    throw truncatedUtf8(index);
+                }
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((bytes[pos] & 0x3F) << 6) | (bytes[pos + 1] & 0x3F));
+                pos += 2;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static ClassFormatException truncatedUtf8(int index){
+        return new ClassFormatException("constant pool entry " + index + " ends inside a multibyte character");
+    }
+
+    private String className(int index) throws ClassFormatException {
+        if(index <= 0 || index >= cpOffsets.length || cpOffsets[index] == 0
+                || bytes[cpOffsets[index]] != CONSTANT_CLASS){
+            throw new ClassFormatException("constant pool entry " + index + " is not a class constant");
+        }
+        return utf8(u2(cpOffsets[index] + 1)).replace('/', '.');
+    }
+
+    /*
+       the canonical name of a class constant, of the element class for an array, null for an
+       array of primitives.
+     */
+    private String referencedClass(int index) throws ClassFormatException {
+        String name = className(index);
+        if(name.isEmpty() || name.charAt(0) != '['){
+            return name;
+        }
+        int dimensions = 0;
+        while(dimensions < name.length() && name.charAt(dimensions) == '['){
+            dimensions++;
+        }
+        if(name.charAt(name.length() - 1) != ';' || dimensions >= name.length() - 2
+                || name.charAt(dimensions) != 'L'){
+            return null;
+        }
+        return name.substring(dimensions + 1, name.length() - 1);
+    }
+
+    private int u2(int pos){
+        return (bytes[pos] & 0xFF) << 8 | (bytes[pos + 1] & 0xFF);
+    }
+
+    private int u4(int pos){
+        return (bytes[pos] & 0xFF) << 24 | (bytes[pos + 1] & 0xFF) << 16 | (bytes[pos + 2] & 0xFF) << 8 | (bytes[pos + 3] & 0xFF);
+    }
+
+    static byte[] modifiedUtf8(String value){
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        byte[] encoded = new byte[length];
+        int pos = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c != 0 && c < 0x80){
+                encoded[pos++] = (byte) c;
+            }else if(c < 0x800){
+                encoded[pos++] = (byte) (0xC0 | (c >> 6));
+                encoded[pos++] = (byte) (0x80 | (c & 0x3F));
+            }else{
+                encoded[pos++] = (byte) (0xE0 | (c >> 12));
+                encoded[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                encoded[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return encoded;
+    }
+}
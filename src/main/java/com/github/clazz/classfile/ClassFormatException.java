@@ -0,0 +1,14 @@
+package com.github.clazz.classfile;
+
+import java.io.IOException;
+
+/*
+   thrown when bytes do not hold a class file the reader understands.
+ */
+public class ClassFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ClassFormatException(String message){
+        super(message);
+    }
+}
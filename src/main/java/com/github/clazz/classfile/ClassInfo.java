@@ -0,0 +1,126 @@
+package com.github.clazz.classfile;
+
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.List;
+
+/*
+   the metadata of a class file, as ClassFileReader extracts it: what
+   Class.getSuperclass(), getInterfaces(), getModifiers(), getDeclaredFields()
+   and getDeclaredMethods() would tell, without loading the class.
+ */
+public final class ClassInfo {
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ANNOTATION = 0x2000;
+    private static final int ACC_ENUM = 0x4000;
+
+    private final String className;
+    private final String superClassName;
+    private final List<String> interfaceNames;
+    private final int accessFlags;
+    private final int majorVersion;
+    private final int minorVersion;
+    private final List<MemberInfo> fields;
+    private final List<MemberInfo> methods;
+
+    public ClassInfo(String className, String superClassName, List<String> interfaceNames, int accessFlags,
+                     int majorVersion, int minorVersion, List<MemberInfo> fields, List<MemberInfo> methods){
+        this.className = className;
+        this.superClassName = superClassName;
+        this.interfaceNames = Collections.unmodifiableList(interfaceNames);
+        this.accessFlags = accessFlags;
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+        this.fields = Collections.unmodifiableList(fields);
+        this.methods = Collections.unmodifiableList(methods);
+    }
+
+    /**
+     * @return the binary name, e.g. {@code java.util.Map$Entry}
+     */
+    public String getClassName(){
+        return className;
+    }
+
+    /**
+     * @return the binary name of the superclass as recorded, null for {@code java.lang.Object};
+     *     interfaces record {@code java.lang.Object}
+     */
+    public String getSuperClassName(){
+        return superClassName;
+    }
+
+    public List<String> getInterfaceNames(){
+        return interfaceNames;
+    }
+
+    /**
+     * @return the class access flags, see the {@code ACC_} constants of the class file format
+     */
+    public int getAccessFlags(){
+        return accessFlags;
+    }
+
+    /**
+     * @return the class file major version, 52 for Java 8
+     */
+    public int getMajorVersion(){
+        return majorVersion;
+    }
+
+    public int getMinorVersion(){
+        return minorVersion;
+    }
+
+    public List<MemberInfo> getFields(){
+        return fields;
+    }
+
+    /**
+     * @return the declared methods, constructors ({@code <init>}) and static initializer
+     *     ({@code <clinit>}) included
+     */
+    public List<MemberInfo> getMethods(){
+        return methods;
+    }
+
+    public boolean isInterface(){
+        return (accessFlags & ACC_INTERFACE) != 0;
+    }
+
+    public boolean isAnnotation(){
+        return (accessFlags & ACC_ANNOTATION) != 0;
+    }
+
+    public boolean isEnum(){
+        return (accessFlags & ACC_ENUM) != 0;
+    }
+
+    /**
+     * @return e.g. {@code public final class java.lang.String extends java.lang.Object implements
+     *     java.io.Serializable,... (version:52.0,fields:5,methods:94)}
+     */
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        // ACC_SUPER shares its bit with synchronized, which means nothing on a class.
+        // interfaces are implicitly abstract, like Modifier.toString(int) the flag is not shown.
+        int mask = isInterface() ? Modifier.interfaceModifiers() & ~Modifier.ABSTRACT : Modifier.classModifiers();
+        String modifiers = Modifier.toString(accessFlags & mask);
+        if(!modifiers.isEmpty()){
+            sb.append(modifiers).append(' ');
+        }
+        sb.append(isAnnotation() ? "@interface " : isInterface() ? "interface " : isEnum() ? "enum " : "class ");
+        sb.append(className);
+        if(superClassName != null && !isInterface()){
+            sb.append(" extends ").append(superClassName);
+        }
+        if(!interfaceNames.isEmpty()){
+            sb.append(isInterface() ? " extends " : " implements ").append(String.join(",", interfaceNames));
+        }
+        sb.append(" (version:").append(majorVersion).append('.').append(minorVersion)
+                .append(",fields:").append(fields.size())
+                .append(",methods:").append(methods.size()).append(')');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.clazz.classfile;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+   a bounded, least recently used cache of ClassInfo by jar entry. an entry
+   is only returned while the jar entry still has the CRC-32 and size it was
+   read with, so a rebuilt jar never serves stale metadata. thread safe.
+ */
+public final class ClassInfoCache {
+    private final int maxEntries;
+    private final Map<String, Cached> cached;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxEntries the number of classes kept before the least recently used are evicted
+     */
+    public ClassInfoCache(int maxEntries){
+        if(maxEntries < 1){
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.cached = new LinkedHashMap<String, Cached>(16, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest){
+                return size() > ClassInfoCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param jarPath the jar holding the class
+     * @param className the canonical class name
+     * @param entryCrc the CRC-32 the jar entry has now
+     * @param entrySize the size the jar entry has now
+     * @return the cached metadata, or null if absent or read from a different entry content
+     */
+    public synchronized ClassInfo get(String jarPath, String className, int entryCrc, long entrySize){
+        Cached entry = cached.get(key(jarPath, className));
+        if(entry == null || entry.entryCrc != entryCrc || entry.entrySize != entrySize){
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.classInfo;
+    }
+
+    public synchronized void put(String jarPath, String className, int entryCrc, long entrySize, ClassInfo classInfo){
+        cached.put(key(jarPath, className), new Cached(entryCrc, entrySize, classInfo));
+    }
+
+    public synchronized int size(){
+        return cached.size();
+    }
+
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    public synchronized void clear(){
+        cached.clear();
+    }
+
+    private static String key(String jarPath, String className){
+        return jarPath + '!' + className;
+    }
+
+    private static final class Cached {
+        private final int entryCrc;
+        private final long entrySize;
+        private final ClassInfo classInfo;
+
+        private Cached(int entryCrc, long entrySize, ClassInfo classInfo){
+            this.entryCrc = entryCrc;
+            this.entrySize = entrySize;
+            this.classInfo = classInfo;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.clazz.classfile;
+
+import java.io.IOException;
+import java.util.*;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   reads class metadata out of jars without class loading: no class loader is
+   created, no static initializer runs and a missing dependency is no error.
+   results are cached per jar entry, see ClassInfoCache. thread safe as long
+   as the cache is.
+ */
+public final class ClassInfoReader {
+    private static final int DEFAULT_CACHE_ENTRIES = 100_000;
+
+    private final ClassInfoCache cache;
+
+    public ClassInfoReader(){
+        this(new ClassInfoCache(DEFAULT_CACHE_ENTRIES));
+    }
+
+    /**
+     * @param cache the cache to use, possibly shared with other readers
+     */
+    public ClassInfoReader(ClassInfoCache cache){
+        this.cache = checkNotNull(cache, "cache");
+    }
+
+    public ClassInfoCache getCache(){
+        return cache;
+    }
+
+    /**
+     * Read the metadata of one class.
+     *
+     * @param jarPath the jar holding the class
+     * @param className the canonical class name, e.g. {@code java.util.Map$Entry}
+     * @return the class metadata, or null if the jar has no such class
+     * @throws IOException if the jar cannot be read or the class file is corrupt
+     */
+    public ClassInfo read(String jarPath, String className) throws IOException {
+        List<ClassInfo> classInfos = readAll(jarPath, Collections.singleton(className));
+        return classInfos.isEmpty() ? null : classInfos.get(0);
+    }
+
+    /**
+     * Read the metadata of several classes of a jar, in one pass over its central directory.
+     *
+     * @param jarPath the jar holding the classes
+     * @param classNames canonical class names
+     * @return the metadata of the classes found in the jar, in name order
+     * @throws IOException if the jar cannot be read or a class file is corrupt
+     */
+    public List<ClassInfo> readAll(String jarPath, Collection<String> classNames) throws IOException {
+        checkNotNull(jarPath, "jarPath");
+        checkNotNull(classNames, "classNames");
+
+        List<ClassInfo> classInfos = new ArrayList<>();
+        ClassEntries.forEach(jarPath, classNames, (canonicalName, entryCrc, entrySize, content) -> {
+            ClassInfo classInfo = cache.get(jarPath, canonicalName, entryCrc, entrySize);
+            if(classInfo == null){
+                classInfo = read(content.read());
+                cache.put(jarPath, canonicalName, entryCrc, entrySize, classInfo);
+            }
+            classInfos.add(classInfo);
+        });
+        classInfos.sort(Comparator.comparing(ClassInfo::getClassName));
+        return classInfos;
+    }
+
+    /**
+     * @param classBytes a class file content
+     * @return its metadata
+     * @throws ClassFormatException if {@code classBytes} is not a valid class file
+     */
+    public static ClassInfo read(byte[] classBytes) throws ClassFormatException {
+        return new ClassFileReader(classBytes).toClassInfo();
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.clazz.classfile;
+
+import com.github.clazz.utils.ProblemListener;
+
+import java.io.IOException;
+import java.util.*;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * The classes, fields and methods one class refers to through its constant pool, see {@link
+ * ClassFileReader#forEachReference}. Read straight from the jar entries, nothing is loaded.
+ */
+public final class ClassReferences {
+    private final String canonicalName;
+    private final Set<String> symbols;
+
+    private ClassReferences(String canonicalName, Set<String> symbols){
+        this.canonicalName = canonicalName;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Read the references of several classes of a jar, in one pass over its central directory.
+     * A class file that cannot be parsed is reported to {@code listener} and skipped.
+     *
+     * @param jarPath the jar holding the classes, possibly a nested archive
+     * @param classNames canonical class names
+     * @param listener receives the classes skipped
+     * @return the references of the classes found in the jar, in name order
+     * @throws IOException if the jar cannot be read
+     */
+    public static List<ClassReferences> readAll(String jarPath, Collection<String> classNames,
+                                                ProblemListener listener) throws IOException {
+        checkNotNull(jarPath, "jarPath");
+        checkNotNull(classNames, "classNames");
+        checkNotNull(listener, "listener");
+
+        List<ClassReferences> references = new ArrayList<>();
+        // every class of the jar is read once, not worth keeping in the class bytes cache.
+        ClassEntries.forEach(jarPath, classNames, false, (canonicalName, entryCrc, entrySize, content) -> {
+            try{
+                Set<String> symbols = new LinkedHashSet<>();
+                new ClassFileReader(content.read()).forEachReference(symbols::add);
+                references.add(new ClassReferences(canonicalName, symbols));
+            }catch (ClassFormatException cfe){
+                // one broken class does not hide the rest of the jar.
+                listener.problem("class parse failed", jarPath + "!" + canonicalName, cfe);
+            }
+        });
+        references.sort(Comparator.comparing(ClassReferences::getCanonicalName));
+        return references;
+    }
+
+    public String getCanonicalName(){
+        return canonicalName;
+    }
+
+    /**
+     * @return the referenced symbols, each once: canonical class names, and {@code owner#name}
+     *     for fields and methods
+     */
+    public Set<String> getSymbols(){
+        return symbols;
+    }
+}
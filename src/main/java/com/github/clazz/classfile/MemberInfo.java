@@ -0,0 +1,73 @@
+package com.github.clazz.classfile;
+
+import java.lang.reflect.Modifier;
+
+/*
+   a field or method of a class file: its access flags, name and descriptor,
+   exactly as the class file records them.
+ */
+public final class MemberInfo {
+    private final int accessFlags;
+    private final String name;
+    private final String descriptor;
+
+    public MemberInfo(int accessFlags, String name, String descriptor){
+        this.accessFlags = accessFlags;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * @return the access flags, see the {@code ACC_} constants of the class file format
+     */
+    public int getAccessFlags(){
+        return accessFlags;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return the descriptor, e.g. {@code (ILjava/lang/String;)V} for a method
+     */
+    public String getDescriptor(){
+        return descriptor;
+    }
+
+    /**
+     * @return whether this is a method, i.e. has a method descriptor
+     */
+    public boolean isMethod(){
+        return descriptor.startsWith("(");
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof MemberInfo)){
+            return false;
+        }
+        MemberInfo that = (MemberInfo) o;
+        return accessFlags == that.accessFlags && name.equals(that.name) && descriptor.equals(that.descriptor);
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * (31 * accessFlags + name.hashCode()) + descriptor.hashCode();
+    }
+
+    /**
+     * @return the modifiers followed by name and descriptor, e.g. {@code public static valueOf(I)Ljava/lang/String;}
+     */
+    @Override
+    public String toString(){
+        // the low access flag bits share their values with java.lang.reflect.Modifier, except
+        // that a method's ACC_BRIDGE and ACC_VARARGS are a field's volatile and transient.
+        int mask = isMethod() ? Modifier.methodModifiers() : Modifier.fieldModifiers();
+        String modifiers = Modifier.toString(accessFlags & mask);
+        return modifiers.isEmpty() ? name + descriptor : modifiers + " " + name + descriptor;
+    }
+}
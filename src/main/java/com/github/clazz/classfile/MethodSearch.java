@@ -0,0 +1,179 @@
+package com.github.clazz.classfile;
+
+import com.github.clazz.utils.ProblemListener;
+import com.github.clazz.utils.Utils;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   looks up methods by name in classes already found by name, reading the
+   class files straight from the jar entries with ClassFileReader. nothing
+   is loaded, so static initializers never run and missing dependencies do
+   not matter. jars are searched in parallel, each by a single worker.
+ */
+public final class MethodSearch {
+    private MethodSearch(){
+        // no instance.
+    }
+
+    /**
+     * Search the methods named {@code methodName} in the given classes.
+     *
+     * @param classesByJar canonical class names to search, by jar path
+     * @param methodName the method name, {@code <init>} for constructors
+     * @param threads the number of worker threads
+     * @param consumer receives every class declaring at least one matching method, classes of
+     *     one jar in name order
+     * @return the number of jars that could not be read
+     */
+    public static int search(Map<String, ? extends Collection<String>> classesByJar, String methodName,
+                             int threads, Consumer<ClassMethods> consumer){
+        return search(classesByJar, methodName, threads, ProblemListener.IGNORE, consumer);
+    }
+
+    /**
+     * Same as {@link #search(Map, String, int, Consumer)}, reporting the jars that cannot be
+     * read and the class files that cannot be parsed, which are skipped, to {@code listener}.
+     *
+     * @param classesByJar canonical class names to search, by jar path
+     * @param methodName the method name, {@code <init>} for constructors
+     * @param threads the number of worker threads
+     * @param listener receives the jars and classes skipped
+     * @param consumer receives every class declaring at least one matching method, classes of
+     *     one jar in name order
+     * @return the number of jars that could not be read
+     */
+    public static int search(Map<String, ? extends Collection<String>> classesByJar, String methodName,
+                             int threads, ProblemListener listener, Consumer<ClassMethods> consumer){
+        checkNotNull(classesByJar, "classesByJar");
+        checkNotNull(methodName, "methodName");
+        checkNotNull(listener, "listener");
+        checkNotNull(consumer, "consumer");
+
+        List<String> jarPaths = new ArrayList<>(classesByJar.keySet());
+        return Utils.jarFilesProcess(jarPaths, threads,
+                jarPath -> searchJar(jarPath, classesByJar.get(jarPath), methodName, listener),
+                listener, classMethodsList -> classMethodsList.forEach(consumer));
+    }
+
+    /**
+     * Search the methods named {@code methodName} in the given classes of one jar.
+     *
+     * @param jarPath the jar holding the classes
+     * @param classNames canonical class names to search
+     * @param methodName the method name, {@code <init>} for constructors
+     * @return the classes declaring at least one matching method, in name order
+     * @throws IOException if the jar cannot be read
+     */
+    public static List<ClassMethods> searchJar(String jarPath, Collection<String> classNames, String methodName)
+            throws IOException {
+        return searchJar(jarPath, classNames, methodName, ProblemListener.IGNORE);
+    }
+
+    /**
+     * Same as {@link #searchJar(String, Collection, String)}, reporting the class files that
+     * cannot be parsed, which are skipped, to {@code listener}.
+     *
+     * @param jarPath the jar holding the classes
+     * @param classNames canonical class names to search
+     * @param methodName the method name, {@code <init>} for constructors
+     * @param listener receives the classes skipped
+     * @return the classes declaring at least one matching method, in name order
+     * @throws IOException if the jar cannot be read
+     */
+    public static List<ClassMethods> searchJar(String jarPath, Collection<String> classNames, String methodName,
+                                               ProblemListener listener) throws IOException {
+        checkNotNull(listener, "listener");
+        List<ClassMethods> found = new ArrayList<>();
+        ClassEntries.forEach(jarPath, classNames, (canonicalName, entryCrc, entrySize, content) ->
+                addMethods(jarPath, canonicalName, content.read(), methodName, listener, found));
+
+        found.sort(Comparator.comparing(ClassMethods::getCanonicalName));
+        return found;
+    }
+
+    /**
+     * Search several method names at once, e.g. for a batch of queries: every class file is read
+     * once, whatever the number of names asked of it.
+     *
+     * @param methodNamesByJar method names to search, by canonical class name, by jar path
+     * @param threads the number of worker threads
+     * @param listener receives the jars that cannot be read and the classes that cannot be
+     *     parsed, which are skipped
+     * @param consumer receives every class declaring at least one matching method, with the
+     *     methods of all its names, classes of one jar in name order
+     * @return the number of jars that could not be read
+     */
+    public static int searchAll(Map<String, ? extends Map<String, ? extends Collection<String>>> methodNamesByJar,
+                                int threads, ProblemListener listener, Consumer<ClassMethods> consumer){
+        checkNotNull(methodNamesByJar, "methodNamesByJar");
+        checkNotNull(listener, "listener");
+        checkNotNull(consumer, "consumer");
+
+        List<String> jarPaths = new ArrayList<>(methodNamesByJar.keySet());
+        return Utils.jarFilesProcess(jarPaths, threads, jarPath -> {
+            Map<String, ? extends Collection<String>> methodNamesByClass = methodNamesByJar.get(jarPath);
+            List<ClassMethods> found = new ArrayList<>();
+            ClassEntries.forEach(jarPath, methodNamesByClass.keySet(), (canonicalName, entryCrc, entrySize, content) -> {
+                try{
+                    ClassFileReader reader = new ClassFileReader(content.read());
+                    List<MemberInfo> methods = new ArrayList<>();
+                    for (String methodName : methodNamesByClass.get(canonicalName)) {
+                        methods.addAll(reader.findMethods(methodName));
+                    }
+                    if(!methods.isEmpty()){
+                        found.add(new ClassMethods(jarPath, canonicalName, methods));
+                    }
+                }catch (ClassFormatException cfe){
+                    listener.problem("class parse failed", jarPath + "!" + canonicalName, cfe);
+                }
+            });
+            found.sort(Comparator.comparing(ClassMethods::getCanonicalName));
+            return found;
+        }, listener, classMethodsList -> classMethodsList.forEach(consumer));
+    }
+
+    private static void addMethods(String jarPath, String canonicalName, byte[] classBytes, String methodName,
+                                   ProblemListener listener, List<ClassMethods> found){
+        try{
+            List<MemberInfo> methods = new ClassFileReader(classBytes).findMethods(methodName);
+            if(!methods.isEmpty()){
+                found.add(new ClassMethods(jarPath, canonicalName, methods));
+            }
+        }catch (ClassFormatException cfe){
+            // one broken class does not hide the rest of the jar.
+            listener.problem("class parse failed", jarPath + "!" + canonicalName, cfe);
+        }
+    }
+
+    /**
+     * The methods of one class matching a {@link #search}.
+     */
+    public static final class ClassMethods {
+        private final String jarPath;
+        private final String canonicalName;
+        private final List<MemberInfo> methods;
+
+        private ClassMethods(String jarPath, String canonicalName, List<MemberInfo> methods){
+            this.jarPath = jarPath;
+            this.canonicalName = canonicalName;
+            this.methods = methods;
+        }
+
+        public String getJarPath(){
+            return jarPath;
+        }
+
+        public String getCanonicalName(){
+            return canonicalName;
+        }
+
+        public List<MemberInfo> getMethods(){
+            return methods;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.clazz.daemon;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   the thin side of the daemon: sends the command line to the daemon and
+   prints its answer, without loading or scanning anything.
+ */
+public final class DaemonClient {
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+
+    private DaemonClient(){
+        // no instance.
+    }
+
+    /**
+     * Same as {@link #query(int, Path, String[])}, for the daemon recorded in {@link
+     * InspectionDaemon#defaultPortFile()}.
+     *
+     * @param port the loopback port of the daemon, 0 to read it from the port file
+     * @param args the command line arguments of the query
+     * @return the exit status of the query, 1 if the daemon cannot be reached
+     */
+    public static int query(int port, String[] args){
+        return query(port, InspectionDaemon.defaultPortFile(), args);
+    }
+
+    /**
+     * Send {@code args} to the daemon and print its answer on standard output and error.
+     *
+     * @param port the loopback port of the daemon, 0 to read it from {@code portFile}
+     * @param portFile the port file of the daemon, which holds its token either way
+     * @param args the command line arguments of the query
+     * @return the exit status of the query, 1 if the daemon cannot be reached
+     */
+    public static int query(int port, Path portFile, String[] args){
+        checkNotNull(portFile, "portFile");
+        checkNotNull(args, "args");
+        String token;
+        try{
+            String[] portAndToken = readPortFile(portFile);
+            if(port == 0){
+                port = Integer.parseInt(portAndToken[0]);
+            }
+            token = portAndToken[1];
+        }catch (IOException ioe){
+            System.err.println("no daemon running, start one with ---daemon:" + ioe);
+            return 1;
+        }
+
+        try(Socket socket = new Socket()){
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+            Writer request = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            request.write(InspectionDaemon.TOKEN_PREFIX + token);
+            request.write('\n');
+            for (String arg : args) {
+                request.write(arg);
+                request.write('\n');
+            }
+            request.write('\n');
+            request.flush();
+
+            BufferedReader response = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while((line = response.readLine()) != null){
+                if(line.startsWith(InspectionDaemon.OUT_PREFIX)){
+                    System.out.println(line.substring(InspectionDaemon.OUT_PREFIX.length()));
+                }else if(line.startsWith(InspectionDaemon.ERR_PREFIX)){
+                    System.err.println(line.substring(InspectionDaemon.ERR_PREFIX.length()));
+                }else if(line.startsWith(InspectionDaemon.EXIT_PREFIX)){
+                    return Integer.parseInt(line.substring(InspectionDaemon.EXIT_PREFIX.length()));
+                }
+            }
+            System.err.println("daemon closed the connection before answering.");
+            return 1;
+        }catch (IOException ioe){
+            System.err.println("daemon on port " + port + " unreachable:" + ioe);
+            return 1;
+        }
+    }
+
+    /*
+       the port and the token the daemon recorded.
+     */
+    private static String[] readPortFile(Path portFile) throws IOException {
+        try{
+            List<String> lines = Files.readAllLines(portFile, StandardCharsets.US_ASCII);
+            if(lines.size() < 2 || lines.get(1).trim().isEmpty()){
+                throw new IOException("no token in " + portFile);
+            }
+            String port = lines.get(0).trim();
+            Integer.parseInt(port);
+            return new String[]{port, lines.get(1).trim()};
+        }catch (NoSuchFileException | NumberFormatException e){
+            throw new IOException("no port in " + portFile, e);
+        }
+    }
+}
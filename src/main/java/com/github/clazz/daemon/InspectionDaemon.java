@@ -0,0 +1,422 @@
+package com.github.clazz.daemon;
+
+import com.github.clazz.ClassInspector;
+import com.github.clazz.index.JarClassIndex;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   keeps the jars of a ClassInspector parsed and answers queries over a
+   loopback socket, so a lookup costs a connection instead of a JVM start, a
+   scan and a JIT warmup. the directories under every jar path are watched:
+   once a burst of changes has settled, the jar paths that changed are
+   refreshed, which only parses the jars added or modified. the inspector
+   keeps queries from seeing half a refresh.
+
+   the port file holds the port and a random token, readable by its owner
+   only; a request without the token is rejected before anything is read or
+   run, so other local users cannot query, open files or shut down. daemons
+   over different index files record themselves in different port files, and
+   a daemon only deletes its port file while it still holds its own token.
+
+   protocol, UTF-8 lines: the client sends "t:" and the token, its command
+   line arguments, one per line, then an empty line. the daemon answers with "o:" lines for
+   standard output, "e:" lines for standard error, then "x:" and the exit
+   status, and closes the connection.
+ */
+public final class InspectionDaemon implements Closeable {
+    static final String SHUTDOWN = "---shutdown";
+    static final String TOKEN_PREFIX = "t:";
+    static final String OUT_PREFIX = "o:";
+    static final String ERR_PREFIX = "e:";
+    static final String EXIT_PREFIX = "x:";
+
+    // how long the watched directories must stay quiet before a refresh.
+    private static final long SETTLE_MILLIS = 500;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+    private static final int TOKEN_BYTES = 32;
+
+    /**
+     * Answers one query.
+     */
+    public interface QueryHandler {
+        /**
+         * @param args the command line arguments of the client
+         * @param inspector holds the parsed jars, and the search index answering class names
+         * @param out receives the answer
+         */
+        void handle(String[] args, ClassInspector inspector, PrintStream out);
+    }
+
+    private final ClassInspector inspector;
+    private final QueryHandler handler;
+    private final CountDownLatch shutdown = new CountDownLatch(1);
+    // the jar path each watched directory belongs to.
+    private final Map<WatchKey, String> watchedJarPaths = new ConcurrentHashMap<>();
+
+    private ServerSocket serverSocket;
+    private WatchService watchService;
+    private ExecutorService executor;
+    private Path portFile;
+    private byte[] token;
+
+    /**
+     * @param inspector holds the jars to keep parsed, closed with the daemon
+     * @param handler answers the queries
+     */
+    public InspectionDaemon(ClassInspector inspector, QueryHandler handler){
+        checkNotNull(inspector, "inspector");
+        checkNotNull(handler, "handler");
+        this.inspector = inspector;
+        this.handler = handler;
+    }
+
+    /**
+     * @return the file the daemon records its port and token in, one per line
+     */
+    public static Path defaultPortFile(){
+        return JarClassIndex.defaultIndexFile().resolveSibling("daemon.port");
+    }
+
+    /**
+     * @param indexFile the index file of the daemon, null for none
+     * @return {@code <indexFile>.port}, or {@link #defaultPortFile()} for the default index file
+     *     or none
+     */
+    public static Path portFileFor(Path indexFile){
+        if(indexFile == null){
+            return defaultPortFile();
+        }
+        Path absolute = indexFile.toAbsolutePath().normalize();
+        if(absolute.equals(JarClassIndex.defaultIndexFile().toAbsolutePath().normalize())){
+            return defaultPortFile();
+        }
+        return absolute.resolveSibling(absolute.getFileName() + ".port");
+    }
+
+    /**
+     * Same as {@link #start(int, Path)}, recording the port in {@link #defaultPortFile()}.
+     *
+     * @param port the loopback port to listen on, 0 for any free port
+     * @throws IOException if the jar paths cannot be watched or the port cannot be bound
+     */
+    public void start(int port) throws IOException {
+        start(port, defaultPortFile());
+    }
+
+    /**
+     * Index every jar path, start watching them and listen for queries.
+     *
+     * @param port the loopback port to listen on, 0 for any free port
+     * @param portFile the file to record the port and token in, read by {@link DaemonClient}
+     * @throws IOException if the jar paths cannot be watched or the port cannot be bound
+     */
+    public void start(int port, Path portFile) throws IOException {
+        checkNotNull(portFile, "portFile");
+        watchService = FileSystems.getDefault().newWatchService();
+        // watched before the first refresh, so no change is missed in between.
+        for (String jarPath : inspector.getJarPaths()) {
+            watch(jarPath);
+        }
+        refresh(inspector.getJarPaths());
+
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        String tokenText = Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+        token = tokenText.getBytes(StandardCharsets.US_ASCII);
+
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "inspection-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::watchLoop);
+        executor.execute(this::acceptLoop);
+
+        this.portFile = portFile.toAbsolutePath();
+        Files.createDirectories(this.portFile.getParent());
+        writeOwnerOnly(this.portFile, (serverSocket.getLocalPort() + "\n" + tokenText + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+       written to a new file created readable by its owner only, then moved over the previous
+       one, so the token is never readable by others, not even for a moment.
+     */
+    private static void writeOwnerOnly(Path file, byte[] content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        try{
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }catch (UnsupportedOperationException uoe){
+            // not a POSIX file system, the file inherits the access of the user directory.
+            Files.createFile(temp);
+        }
+        try{
+            Files.write(temp, content);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch (IOException ioe){
+            Files.deleteIfExists(temp);
+            throw ioe;
+        }
+    }
+
+    /**
+     * @return the address the daemon listens on
+     */
+    public InetSocketAddress getAddress(){
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Wait until a client asks the daemon to shut down.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitShutdown() throws InterruptedException {
+        shutdown.await();
+    }
+
+    @Override
+    public void close() throws IOException {
+        shutdown.countDown();
+        if(executor != null){
+            executor.shutdownNow();
+        }
+        try{
+            if(serverSocket != null){
+                serverSocket.close();
+            }
+            if(watchService != null){
+                watchService.close();
+            }
+        }finally {
+            try{
+                deletePortFile();
+            }finally {
+                inspector.close();
+            }
+        }
+    }
+
+    /*
+       only while it holds this daemon's token: a daemon started since with the same port file
+       keeps its own.
+     */
+    private void deletePortFile() throws IOException {
+        if(portFile == null){
+            return;
+        }
+        List<String> lines;
+        try{
+            lines = Files.readAllLines(portFile, StandardCharsets.US_ASCII);
+        }catch (NoSuchFileException nsfe){
+            return;
+        }
+        if(lines.size() >= 2 && MessageDigest.isEqual(token, lines.get(1).trim().getBytes(StandardCharsets.US_ASCII))){
+            Files.deleteIfExists(portFile);
+        }
+    }
+
+    /*
+       registers every directory under jarPath, or the directory holding it when it is a file.
+       registering a directory again is harmless, so it is also done after every refresh to pick
+       up new subdirectories.
+     */
+    private void watch(String jarPath) throws IOException {
+        Path root = Paths.get(jarPath).toAbsolutePath();
+        if(!Files.isDirectory(root)){
+            register(root.getParent(), jarPath);
+            return;
+        }
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>(){
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        register(dir, jarPath);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc){
+                        // an unreadable directory or a link cycle.
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+    }
+
+    private void register(Path dir, String jarPath) throws IOException {
+        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedJarPaths.putIfAbsent(key, jarPath);
+    }
+
+    private void watchLoop(){
+        try{
+            while(true){
+                Set<String> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                // a jar is usually written in several steps, wait for the burst to settle.
+                while(key != null){
+                    String jarPath = watchedJarPaths.get(key);
+                    if(jarPath != null){
+                        changed.add(jarPath);
+                    }
+                    // OVERFLOW included, every event means the same: refresh the jar path.
+                    key.pollEvents();
+                    if(!key.reset()){
+                        watchedJarPaths.remove(key);
+                    }
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                refresh(changed);
+                for (String jarPath : changed) {
+                    try{
+                        watch(jarPath);
+                    }catch (IOException ioe){
+                        System.err.println("jar path:" + jarPath + ",watch failed:" + ioe);
+                    }
+                }
+            }
+        }catch (InterruptedException | ClosedWatchServiceException e){
+            // closing.
+        }
+    }
+
+    private void refresh(Collection<String> changed){
+        try{
+            inspector.refresh(changed).join().forEach((jarPath, result) ->
+                    System.out.println("jar path:" + jarPath + ",index refresh " + result));
+        }catch (CompletionException ce){
+            System.err.println("index refresh failed:" + ce.getCause());
+        }
+    }
+
+    private void acceptLoop(){
+        try{
+            while(true){
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            }
+        }catch (SocketException se){
+            // closing.
+        }catch (IOException | RejectedExecutionException e){
+            System.err.println("daemon accept failed:" + e);
+        }
+    }
+
+    private void serve(Socket socket){
+        try(Socket client = socket){
+            client.setSoTimeout(READ_TIMEOUT_MILLIS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream response = new BufferedOutputStream(client.getOutputStream(), 1 << 16);
+            String line = in.readLine();
+            if(!authorized(line)){
+                // nothing of the request is read or echoed.
+                writeLine(response, ERR_PREFIX + "daemon token missing or wrong, read it from " + portFile);
+                writeLine(response, EXIT_PREFIX + 1);
+                response.flush();
+                return;
+            }
+
+            List<String> args = new ArrayList<>();
+            while((line = in.readLine()) != null && !line.isEmpty()){
+                args.add(line);
+            }
+
+            int status = 0;
+            boolean shuttingDown = args.contains(SHUTDOWN);
+            if(shuttingDown){
+                writeLine(response, OUT_PREFIX + "daemon shutting down.");
+            }else{
+                try(PrintStream out = new PrintStream(new PrefixedLines(response, OUT_PREFIX), false, "UTF-8")){
+                    handler.handle(args.toArray(new String[0]), inspector, out);
+                }catch (RuntimeException e){
+                    // a bad query only fails its own client.
+                    String error = e.getMessage() != null ? e.getMessage() : e.toString();
+                    for (String message : error.split("\\R")) {
+                        writeLine(response, ERR_PREFIX + message);
+                    }
+                    status = 1;
+                }
+            }
+            writeLine(response, EXIT_PREFIX + status);
+            response.flush();
+            if(shuttingDown){
+                // once the answer is out, the daemon may exit.
+                shutdown.countDown();
+            }
+        }catch (IOException ioe){
+            System.err.println("daemon query failed:" + ioe);
+        }
+    }
+
+    private boolean authorized(String line){
+        if(line == null || !line.startsWith(TOKEN_PREFIX)){
+            return false;
+        }
+        // compared in constant time, a timing does not tell how much of a guess was right.
+        return MessageDigest.isEqual(token, line.substring(TOKEN_PREFIX.length()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    /*
+       writes every line it is given to the response, after a prefix. closing it flushes the last
+       incomplete line but leaves the response open.
+     */
+    private static final class PrefixedLines extends OutputStream {
+        private final OutputStream response;
+        private final byte[] prefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+        private PrefixedLines(OutputStream response, String prefix){
+            this.response = response;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(b == '\n'){
+                endLine();
+            }else if(b != '\r'){
+                line.write(b);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(line.size() > 0){
+                endLine();
+            }
+        }
+
+        private void endLine() throws IOException {
+            response.write(prefix);
+            line.writeTo(response);
+            response.write('\n');
+            line.reset();
+        }
+    }
+}
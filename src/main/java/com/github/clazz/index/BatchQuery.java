@@ -0,0 +1,285 @@
+package com.github.clazz.index;
+
+import com.github.clazz.classfile.MemberInfo;
+import com.github.clazz.classfile.MethodSearch;
+import com.github.clazz.model.ClassMatch;
+import com.github.clazz.model.JarClass;
+import com.github.clazz.utils.ProblemListener;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.regex.PatternSyntaxException;
+
+import static com.github.clazz.utils.Utils.appendJsonString;
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * Any number of class and method queries answered by a single scan, e.g. the thousands of
+ * lookups of a dependency audit. A query is a class name, or a glob or regex, see {@link
+ * MultiPatternQuery}, optionally followed by {@code #} and a method name. The distinct class
+ * patterns of all queries are compiled into one {@link MultiPatternQuery}, so every class name is
+ * matched once whatever the number of queries, and the methods of all queries are looked up with
+ * one read of every matched class file. Answers are written as JSON lines, one per query.
+ */
+public final class BatchQuery {
+    private final List<Query> queries;
+    // null when no query is valid.
+    private final MultiPatternQuery classPatterns;
+    // the queries of every class pattern.
+    private final int[][] patternQueries;
+    private long matchCount;
+
+    private BatchQuery(List<Query> queries, MultiPatternQuery classPatterns, int[][] patternQueries){
+        this.queries = queries;
+        this.classPatterns = classPatterns;
+        this.patternQueries = patternQueries;
+    }
+
+    /**
+     * Read queries, one per line. Blank lines and lines starting with {@code #} are skipped, the
+     * others are trimmed.
+     *
+     * @param reader the queries
+     * @return the queries, in order
+     * @throws IOException if the queries cannot be read
+     */
+    public static List<String> readQueries(BufferedReader reader) throws IOException {
+        checkNotNull(reader, "reader");
+        List<String> lines = new ArrayList<>();
+        String line;
+        while((line = reader.readLine()) != null){
+            line = line.trim();
+            if(!line.isEmpty() && !line.startsWith("#")){
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Compile a batch. A query that is not valid, such as a broken regex, is answered with an
+     * error and does not stop the others.
+     *
+     * @param matchType how to match the class names that are not globs or regexes
+     * @param lines the queries
+     * @param limit the number of classes reported per query
+     * @return the batch
+     */
+    public static BatchQuery of(ClassSearchIndex.MatchType matchType, List<String> lines, long limit){
+        checkNotNull(matchType, "matchType");
+        checkNotNull(lines, "lines");
+        if(limit < 1){
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+
+        List<Query> queries = new ArrayList<>(lines.size());
+        Map<String, List<Integer>> queriesByPattern = new LinkedHashMap<>();
+        for (String line : lines) {
+            Query query = new Query(checkNotNull(line, "line"), limit);
+            queries.add(query);
+            if(query.error != null){
+                continue;
+            }
+            try{
+                // compiled alone first, so one broken regex does not fail the whole batch.
+                MultiPatternQuery.of(matchType, Collections.singletonList(query.classPattern));
+                queriesByPattern.computeIfAbsent(query.classPattern, k -> new ArrayList<>()).add(queries.size() - 1);
+            }catch (PatternSyntaxException pse){
+                query.error = "invalid pattern: " + pse.getDescription();
+            }
+        }
+
+        List<String> patterns = new ArrayList<>(queriesByPattern.keySet());
+        int[][] patternQueries = new int[patterns.size()][];
+        for (int p = 0; p < patterns.size(); p++) {
+            List<Integer> ids = queriesByPattern.get(patterns.get(p));
+            patternQueries[p] = new int[ids.size()];
+            for (int i = 0; i < ids.size(); i++) {
+                patternQueries[p][i] = ids.get(i);
+            }
+        }
+        MultiPatternQuery classPatterns = patterns.isEmpty() ? null : MultiPatternQuery.of(matchType, patterns);
+        return new BatchQuery(queries, classPatterns, patternQueries);
+    }
+
+    /**
+     * Match every class of {@code jarClass} against every query. Not thread safe, feed it from a
+     * single thread such as the consumer of {@link com.github.clazz.utils.JarPipeline#run}.
+     *
+     * @param jarClass a parsed jar
+     */
+    public void add(JarClass jarClass){
+        checkNotNull(jarClass, "jarClass");
+        if(classPatterns == null){
+            return;
+        }
+        classPatterns.forEachPatternMatch(jarClass, (pattern, classMatch) -> {
+            for (int q : patternQueries[pattern]) {
+                Query query = queries.get(q);
+                if(query.matches.size() < query.limit){
+                    query.matches.add(classMatch);
+                    matchCount++;
+                }else{
+                    query.truncated = true;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Look up the methods of the queries that name one, in the classes they matched. Call once,
+     * after the last {@link #add}.
+     *
+     * @param threads the number of worker threads
+     * @param listener receives the jars that cannot be read and the classes that cannot be parsed
+     * @return the number of jars that could not be read
+     */
+    public int searchMethods(int threads, ProblemListener listener){
+        // method names by class by jar, over all queries.
+        Map<String, Map<String, Set<String>>> methodNamesByJar = new LinkedHashMap<>();
+        for (Query query : queries) {
+            if(query.methodName == null){
+                continue;
+            }
+            query.methods = new HashMap<>();
+            for (ClassMatch classMatch : query.matches) {
+                methodNamesByJar.computeIfAbsent(classMatch.getJarPath(), k -> new HashMap<>())
+                        .computeIfAbsent(classMatch.getCanonicalName(), k -> new LinkedHashSet<>())
+                        .add(query.methodName);
+            }
+        }
+        if(methodNamesByJar.isEmpty()){
+            return 0;
+        }
+
+        Map<ClassMatch, List<MemberInfo>> found = new HashMap<>();
+        int failed = MethodSearch.searchAll(methodNamesByJar, threads, listener, classMethods ->
+                found.put(new ClassMatch(classMethods.getJarPath(), classMethods.getCanonicalName()),
+                        classMethods.getMethods()));
+        for (Query query : queries) {
+            if(query.methodName == null){
+                continue;
+            }
+            for (ClassMatch classMatch : query.matches) {
+                List<MemberInfo> methods = found.get(classMatch);
+                if(methods == null){
+                    continue;
+                }
+                List<MemberInfo> named = new ArrayList<>(1);
+                for (MemberInfo method : methods) {
+                    if(method.getName().equals(query.methodName)){
+                        named.add(method);
+                    }
+                }
+                if(!named.isEmpty()){
+                    query.methods.put(classMatch, named);
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Write one JSON line per query, in query order, e.g.
+     * <pre>{"query":"java.util.HashMap#put","matches":[{"jar":"/lib/rt.jar","class":"java.util.HashMap",
+     * "methods":["public put(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;"]}],"count":1,"truncated":false}</pre>
+     * Classes are sorted by jar path and name. A query with a method only lists the classes
+     * declaring it; a query that is not valid gets an {@code "error"} instead of matches.
+     *
+     * @param out receives the lines
+     * @throws IOException if {@code out} fails
+     */
+    public void writeJsonLines(Writer out) throws IOException {
+        checkNotNull(out, "out");
+        Comparator<ClassMatch> order = Comparator.comparing(ClassMatch::getJarPath)
+                .thenComparing(ClassMatch::getCanonicalName);
+        for (Query query : queries) {
+            out.write("{\"query\":");
+            appendJsonString(out, query.text);
+            if(query.error != null){
+                out.write(",\"error\":");
+                appendJsonString(out, query.error);
+                out.write("}\n");
+                continue;
+            }
+
+            query.matches.sort(order);
+            out.write(",\"matches\":[");
+            int count = 0;
+            for (ClassMatch classMatch : query.matches) {
+                List<MemberInfo> methods = query.methods != null ? query.methods.get(classMatch) : null;
+                if(query.methods != null && methods == null){
+                    continue;
+                }
+                if(count++ > 0){
+                    out.write(',');
+                }
+                out.write("{\"jar\":");
+                appendJsonString(out, classMatch.getJarPath());
+                out.write(",\"class\":");
+                appendJsonString(out, classMatch.getCanonicalName());
+                if(methods != null){
+                    out.write(",\"methods\":[");
+                    for (int i = 0; i < methods.size(); i++) {
+                        if(i > 0){
+                            out.write(',');
+                        }
+                        appendJsonString(out, methods.get(i).toString());
+                    }
+                    out.write(']');
+                }
+                out.write('}');
+            }
+            out.write("],\"count\":" + count + ",\"truncated\":" + query.truncated + "}\n");
+        }
+    }
+
+    /**
+     * @return the number of queries, valid or not
+     */
+    public int size(){
+        return queries.size();
+    }
+
+    /**
+     * @return the number of classes matched, over all queries
+     */
+    public long getMatchCount(){
+        return matchCount;
+    }
+
+    /*
+       one line of the batch: the class pattern, the method name after the last '#' if any, and
+       the classes matched so far.
+     */
+    private static final class Query {
+        private final String text;
+        private final long limit;
+        private final String classPattern;
+        private final String methodName;
+        private final List<ClassMatch> matches = new ArrayList<>(1);
+        private boolean truncated;
+        // the methods found in every matched class, null unless the query names a method.
+        private Map<ClassMatch, List<MemberInfo>> methods;
+        private String error;
+
+        private Query(String text, long limit){
+            this.text = text;
+            this.limit = limit;
+            int hash = text.lastIndexOf('#');
+            if(hash < 0){
+                classPattern = text;
+                methodName = null;
+            }else{
+                classPattern = text.substring(0, hash).trim();
+                methodName = text.substring(hash + 1).trim();
+                if(classPattern.isEmpty() || methodName.isEmpty()){
+                    error = "expected class or class#method";
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassMatch;
+import com.github.clazz.model.JarClass;
+
+import java.util.function.Predicate;
+
+/**
+ * A class name query evaluated against one parsed jar at a time, as the jars stream out of the
+ * parser: a single {@link ClassQuery} or a {@link MultiPatternQuery}.
+ */
+public interface ClassMatcher {
+    /**
+     * Hand every class of {@code jarClass} matching the query to {@code visitor}, in table order.
+     *
+     * @param jarClass a parsed jar
+     * @param visitor receives the matches, returns false to stop
+     * @return false if {@code visitor} asked to stop
+     */
+    boolean forEachMatch(JarClass jarClass, Predicate<ClassMatch> visitor);
+}
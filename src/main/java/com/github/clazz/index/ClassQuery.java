@@ -0,0 +1,96 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassMatch;
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+
+import java.util.function.Predicate;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * A single class name query evaluated directly against one jar's {@link ClassNameTable}, with
+ * the same semantics as {@link ClassSearchIndex#find}. This is the cheaper choice when a query
+ * runs once over jars as they stream out of the parser; build a {@link ClassSearchIndex} to run
+ * many queries over the same jars.
+ */
+public final class ClassQuery implements ClassMatcher {
+    private final ClassSearchIndex.MatchType matchType;
+    private final String query;
+    private final byte[] queryBytes;
+    private final int lastDot;
+
+    public ClassQuery(ClassSearchIndex.MatchType matchType, String query){
+        this.matchType = checkNotNull(matchType, "matchType");
+        this.query = checkNotNull(query, "query");
+        this.queryBytes = ClassNameTable.utf8(query);
+        int dot = -1;
+        for (int i = 0; i < queryBytes.length; i++) {
+            if(queryBytes[i] == '.'){
+                dot = i;
+            }
+        }
+        this.lastDot = dot;
+    }
+
+    public ClassSearchIndex.MatchType getMatchType(){
+        return matchType;
+    }
+
+    public String getQuery(){
+        return query;
+    }
+
+    /**
+     * @param table a class name table
+     * @param index a class index in {@code table}
+     * @return whether the class matches the query
+     */
+    public boolean matches(ClassNameTable table, int index){
+        switch (matchType) {
+            case EXACT:
+                return table.canonicalNameLength(index) == queryBytes.length && startsWith(table, index, queryBytes);
+            case SIMPLE_NAME:
+                return lastDot < 0 && table.simpleNameLength(index) == queryBytes.length
+                        && startsWith(table, index, table.canonicalNameLength(index) - queryBytes.length, queryBytes);
+            case PREFIX:
+                return startsWith(table, index, queryBytes);
+            case SUBSTRING:
+                return table.canonicalNameContains(index, queryBytes);
+            default:
+                throw new IllegalArgumentException("unknown match type: " + matchType);
+        }
+    }
+
+    @Override
+    public boolean forEachMatch(JarClass jarClass, Predicate<ClassMatch> visitor){
+        ClassNameTable table = jarClass.getClassNames();
+        if(matchType == ClassSearchIndex.MatchType.EXACT){
+            int index = table.indexOf(query);
+            return index < 0 || visitor.test(new ClassMatch(jarClass.getJarPath(), table.getCanonicalName(index)));
+        }
+
+        for (int i = 0; i < table.size(); i++) {
+            if(matches(table, i) && !visitor.test(new ClassMatch(jarClass.getJarPath(), table.getCanonicalName(i)))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(ClassNameTable table, int index, byte[] prefix){
+        return startsWith(table, index, 0, prefix);
+    }
+
+    private static boolean startsWith(ClassNameTable table, int index, int offset, byte[] prefix){
+        if(offset < 0 || table.canonicalNameLength(index) - offset < prefix.length){
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if(table.canonicalNameByteAt(index, offset + i) != prefix[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+}
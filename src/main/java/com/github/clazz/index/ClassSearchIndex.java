@@ -0,0 +1,584 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * An immutable search index over the classes of a set of parsed jars. It answers exact,
+ * simple name, package prefix and substring queries without scanning every class name:
+ * <ul>
+ *     <li>exact and simple name queries go through primitive hash tables,</li>
+ *     <li>package prefix queries binary search the sorted distinct packages,</li>
+ *     <li>substring queries use trigram indexes over simple names and packages.</li>
+ * </ul>
+ * Every class gets an id in {@code [0, size())}, queries return ids in ascending order and
+ * {@link #getJarPath(int)} / {@link #getCanonicalName(int)} resolve them. Once built, the index
+ * can be queried from any number of threads.
+ */
+public final class ClassSearchIndex {
+
+    public enum MatchType {
+        /** the canonical name equals the query. */
+        EXACT,
+        /** the simple name, i.e. the canonical name after the last '.', equals the query. */
+        SIMPLE_NAME,
+        /** the canonical name starts with the query. */
+        PREFIX,
+        /** the canonical name contains the query. */
+        SUBSTRING
+    }
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final JarClass[] jars;
+    // classes of jar j have the ids [jarStarts[j], jarStarts[j + 1]).
+    private final int[] jarStarts;
+
+    // distinct package names, sorted.
+    private final byte[] packageArena;
+    private final int[] packageOffsets;
+    // package p appears in jars packageRefJars[i] as local package packageRefIds[i],
+    // for i in [packageRefStarts[p], packageRefStarts[p + 1]).
+    private final int[] packageRefStarts;
+    private final int[] packageRefJars;
+    private final int[] packageRefIds;
+
+    private final int[] exactHeads;
+    private final int[] exactNext;
+    private final int[] simpleHeads;
+    private final int[] simpleNext;
+
+    private final TrigramIndex simpleNameTrigrams;
+    private final TrigramIndex packageTrigrams;
+
+    private ClassSearchIndex(Builder builder){
+        this.jars = builder.jars.toArray(new JarClass[0]);
+        this.jarStarts = new int[jars.length + 1];
+        for (int j = 0; j < jars.length; j++) {
+            long end = (long) jarStarts[j] + jars[j].getClassNames().size();
+            if(end > Integer.MAX_VALUE){
+                throw new IllegalStateException("too many classes for one index: " + end);
+            }
+            jarStarts[j + 1] = (int) end;
+        }
+        int size = jarStarts[jars.length];
+
+        // distinct packages.
+        Map<String, List<int[]>> packageRefs = new HashMap<>();
+        byte[] scratch = new byte[256];
+        for (int j = 0; j < jars.length; j++) {
+            ClassNameTable table = jars[j].getClassNames();
+            for (int p = 0; p < table.packageCount(); p++) {
+                scratch = ensure(scratch, table.packageNameLength(p));
+                int length = table.writePackageName(p, scratch, 0);
+                String packageName = new String(scratch, 0, length, StandardCharsets.UTF_8);
+                packageRefs.computeIfAbsent(packageName, k -> new ArrayList<>(1)).add(new int[]{j, p});
+            }
+        }
+        byte[][] packages = new byte[packageRefs.size()][];
+        int packageCount = 0;
+        for (String packageName : packageRefs.keySet()) {
+            packages[packageCount++] = packageName.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(packages, ClassSearchIndex::compare);
+
+        int arenaLength = 0;
+        int refCount = 0;
+        for (byte[] packageName : packages) {
+            arenaLength += packageName.length;
+            refCount += packageRefs.get(new String(packageName, StandardCharsets.UTF_8)).size();
+        }
+        this.packageArena = new byte[arenaLength];
+        this.packageOffsets = new int[packageCount + 1];
+        this.packageRefStarts = new int[packageCount + 1];
+        this.packageRefJars = new int[refCount];
+        this.packageRefIds = new int[refCount];
+        int pos = 0;
+        int ref = 0;
+        for (int p = 0; p < packageCount; p++) {
+            packageOffsets[p] = pos;
+            System.arraycopy(packages[p], 0, packageArena, pos, packages[p].length);
+            pos += packages[p].length;
+            packageRefStarts[p] = ref;
+            for (int[] jarPackage : packageRefs.get(new String(packages[p], StandardCharsets.UTF_8))) {
+                packageRefJars[ref] = jarPackage[0];
+                packageRefIds[ref] = jarPackage[1];
+                ref++;
+            }
+        }
+        packageOffsets[packageCount] = pos;
+        packageRefStarts[packageCount] = ref;
+
+        // exact and simple name hash tables, chained through the next arrays.
+        int buckets = Integer.highestOneBit(Math.max(16, size) * 2 - 1);
+        this.exactHeads = new int[buckets];
+        this.simpleHeads = new int[buckets];
+        this.exactNext = new int[size];
+        this.simpleNext = new int[size];
+        Arrays.fill(exactHeads, -1);
+        Arrays.fill(simpleHeads, -1);
+        for (int j = 0; j < jars.length; j++) {
+            ClassNameTable table = jars[j].getClassNames();
+            for (int i = 0; i < table.size(); i++) {
+                int id = jarStarts[j] + i;
+                scratch = ensure(scratch, table.canonicalNameLength(i));
+                int length = table.writeCanonicalName(i, scratch, 0);
+                int bucket = hash(scratch, 0, length) & (buckets - 1);
+                exactNext[id] = exactHeads[bucket];
+                exactHeads[bucket] = id;
+
+                int simpleLength = table.simpleNameLength(i);
+                bucket = hash(scratch, length - simpleLength, simpleLength) & (buckets - 1);
+                simpleNext[id] = simpleHeads[bucket];
+                simpleHeads[bucket] = id;
+            }
+        }
+
+        this.simpleNameTrigrams = TrigramIndex.build(new TrigramIndex.Source() {
+            @Override
+            public int size() {
+                return jarStarts[jars.length];
+            }
+
+            @Override
+            public int length(int id) {
+                int j = jarOf(id);
+                return jars[j].getClassNames().simpleNameLength(id - jarStarts[j]);
+            }
+
+            @Override
+            public void write(int id, byte[] dst) {
+                int j = jarOf(id);
+                jars[j].getClassNames().writeSimpleName(id - jarStarts[j], dst, 0);
+            }
+        });
+        this.packageTrigrams = TrigramIndex.build(new TrigramIndex.Source() {
+            @Override
+            public int size() {
+                return packageOffsets.length - 1;
+            }
+
+            @Override
+            public int length(int id) {
+                return packageOffsets[id + 1] - packageOffsets[id];
+            }
+
+            @Override
+            public void write(int id, byte[] dst) {
+                System.arraycopy(packageArena, packageOffsets[id], dst, 0, length(id));
+            }
+        });
+    }
+
+    /**
+     * Build an index over {@code jarClasses}.
+     *
+     * @param jarClasses parsed jars
+     * @return the index
+     */
+    public static ClassSearchIndex build(Collection<JarClass> jarClasses){
+        Builder builder = new Builder();
+        for (JarClass jarClass : jarClasses) {
+            builder.add(jarClass);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of indexed classes
+     */
+    public int size(){
+        return jarStarts[jars.length];
+    }
+
+    /**
+     * @return the number of distinct packages
+     */
+    public int packageCount(){
+        return packageOffsets.length - 1;
+    }
+
+    /**
+     * @return the indexed jars
+     */
+    public List<JarClass> getJarClasses(){
+        return Collections.unmodifiableList(Arrays.asList(jars));
+    }
+
+    public JarClass getJarClass(int id){
+        return jars[jarOf(id)];
+    }
+
+    public String getJarPath(int id){
+        return jars[jarOf(id)].getJarPath();
+    }
+
+    public String getCanonicalName(int id){
+        int j = jarOf(id);
+        return jars[j].getClassNames().getCanonicalName(id - jarStarts[j]);
+    }
+
+    /**
+     * @return an estimate of the heap used by the index on top of the jar class tables
+     */
+    public long estimatedBytes(){
+        return packageArena.length
+                + 4L * (jarStarts.length + packageOffsets.length + packageRefStarts.length
+                + packageRefJars.length + packageRefIds.length
+                + exactHeads.length + exactNext.length + simpleHeads.length + simpleNext.length)
+                + simpleNameTrigrams.estimatedBytes() + packageTrigrams.estimatedBytes();
+    }
+
+    /**
+     * Find the classes matching {@code query}.
+     *
+     * @param matchType how to match the query
+     * @param query the query
+     * @return matching class ids, in ascending order
+     */
+    public int[] find(MatchType matchType, String query){
+        checkNotNull(matchType, "matchType");
+        checkNotNull(query, "query");
+        switch (matchType) {
+            case EXACT:
+                return findExact(query);
+            case SIMPLE_NAME:
+                return findBySimpleName(query);
+            case PREFIX:
+                return findByPrefix(query);
+            case SUBSTRING:
+                return findBySubstring(query);
+            default:
+                throw new IllegalArgumentException("unknown match type: " + matchType);
+        }
+    }
+
+    /**
+     * @param canonicalName a canonical class name
+     * @return the ids of the classes with exactly that name, one per jar holding it
+     */
+    public int[] findExact(String canonicalName){
+        byte[] query = canonicalName.getBytes(StandardCharsets.UTF_8);
+        IntList ids = new IntList();
+        byte[] scratch = new byte[Math.max(query.length, 16)];
+        for (int id = exactHeads[hash(query, 0, query.length) & (exactHeads.length - 1)]; id != -1; id = exactNext[id]) {
+            int j = jarOf(id);
+            ClassNameTable table = jars[j].getClassNames();
+            int i = id - jarStarts[j];
+            if(table.canonicalNameLength(i) == query.length){
+                table.writeCanonicalName(i, scratch, 0);
+                if(regionEquals(scratch, 0, query, 0, query.length)){
+                    ids.add(id);
+                }
+            }
+        }
+        return ids.toSortedArray();
+    }
+
+    /**
+     * @param simpleName a simple class name, nested classes keep their {@code Outer$} prefix
+     * @return the ids of the classes with that simple name
+     */
+    public int[] findBySimpleName(String simpleName){
+        byte[] query = simpleName.getBytes(StandardCharsets.UTF_8);
+        IntList ids = new IntList();
+        byte[] scratch = new byte[Math.max(query.length, 16)];
+        for (int id = simpleHeads[hash(query, 0, query.length) & (simpleHeads.length - 1)]; id != -1; id = simpleNext[id]) {
+            int j = jarOf(id);
+            ClassNameTable table = jars[j].getClassNames();
+            int i = id - jarStarts[j];
+            if(table.simpleNameLength(i) == query.length){
+                table.writeSimpleName(i, scratch, 0);
+                if(regionEquals(scratch, 0, query, 0, query.length)){
+                    ids.add(id);
+                }
+            }
+        }
+        return ids.toSortedArray();
+    }
+
+    /**
+     * @param prefix the start of a canonical name, typically a package
+     * @return the ids of the classes whose canonical name starts with {@code prefix}
+     */
+    public int[] findByPrefix(String prefix){
+        byte[] query = prefix.getBytes(StandardCharsets.UTF_8);
+        IntList ids = new IntList();
+
+        // the prefix ends inside a package name: every class of the packages starting with it.
+        int from = lowerBound(query);
+        for (int p = from; p < packageCount() && packageStartsWith(p, query); p++) {
+            addPackageClasses(p, null, ids::add);
+        }
+
+        // the prefix reaches into the simple name: the package is the part before a dot.
+        for (int dot = 0; dot < query.length; dot++) {
+            if(query[dot] == '.'){
+                int p = packageIndexOf(query, 0, dot);
+                if(p >= 0){
+                    addPackageClasses(p, Arrays.copyOfRange(query, dot + 1, query.length), ids::add);
+                }
+            }
+        }
+        // classes of the default package.
+        int defaultPackage = packageIndexOf(query, 0, 0);
+        if(defaultPackage >= 0 && query.length > 0){
+            addPackageClasses(defaultPackage, query, ids::add);
+        }
+
+        return ids.toSortedArray();
+    }
+
+    /**
+     * @param substring any part of a canonical name
+     * @return the ids of the classes whose canonical name contains {@code substring}
+     */
+    public int[] findBySubstring(String substring){
+        byte[] query = substring.getBytes(StandardCharsets.UTF_8);
+        if(query.length == 0){
+            int[] all = new int[size()];
+            for (int id = 0; id < all.length; id++) {
+                all[id] = id;
+            }
+            return all;
+        }
+
+        BitSet matches = new BitSet(size());
+        byte[] scratch = new byte[256];
+
+        // 1. the query lies inside a package name.
+        int[] packages = packageTrigrams.candidates(query);
+        int packageCandidates = packages == null ? packageCount() : packages.length;
+        for (int k = 0; k < packageCandidates; k++) {
+            int p = packages == null ? k : packages[k];
+            if(indexOf(packageArena, packageOffsets[p], packageOffsets[p + 1], query, 0, query.length) >= 0){
+                addPackageClasses(p, null, matches::set);
+            }
+        }
+
+        int lastDot = lastIndexOf(query, (byte) '.');
+        if(lastDot < 0){
+            // 2. the query lies inside a simple name, which never holds a dot.
+            int[] candidates = simpleNameTrigrams.candidates(query);
+            int count = candidates == null ? size() : candidates.length;
+            for (int k = 0; k < count; k++) {
+                int id = candidates == null ? k : candidates[k];
+                int j = jarOf(id);
+                ClassNameTable table = jars[j].getClassNames();
+                int i = id - jarStarts[j];
+                int length = table.simpleNameLength(i);
+                scratch = ensure(scratch, length);
+                table.writeSimpleName(i, scratch, 0);
+                if(indexOf(scratch, 0, length, query, 0, query.length) >= 0){
+                    matches.set(id);
+                }
+            }
+        }else{
+            // 3. the query spans the package / simple name boundary, which must be its last dot:
+            // the package ends with the part before it, the simple name starts with the rest.
+            byte[] packageSuffix = Arrays.copyOfRange(query, 0, lastDot);
+            byte[] namePrefix = Arrays.copyOfRange(query, lastDot + 1, query.length);
+            int[] candidates = packageTrigrams.candidates(packageSuffix);
+            int count = candidates == null ? packageCount() : candidates.length;
+            for (int k = 0; k < count; k++) {
+                int p = candidates == null ? k : candidates[k];
+                int end = packageOffsets[p + 1];
+                int start = end - packageSuffix.length;
+                if(end > packageOffsets[p] && start >= packageOffsets[p]
+                        && regionEquals(packageArena, start, packageSuffix, 0, packageSuffix.length)){
+                    addPackageClasses(p, namePrefix, matches::set);
+                }
+            }
+        }
+
+        int[] ids = new int[matches.cardinality()];
+        int n = 0;
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            ids[n++] = id;
+        }
+        return ids;
+    }
+
+    private void addPackageClasses(int p, byte[] simpleNamePrefix, IntConsumer sink){
+        byte[] scratch = simpleNamePrefix == null ? null : new byte[256];
+        for (int ref = packageRefStarts[p]; ref < packageRefStarts[p + 1]; ref++) {
+            int j = packageRefJars[ref];
+            int localPackage = packageRefIds[ref];
+            ClassNameTable table = jars[j].getClassNames();
+            int from = table.firstClassOfPackage(localPackage);
+            int to = table.firstClassOfPackage(localPackage + 1);
+            for (int i = from; i < to; i++) {
+                if(simpleNamePrefix != null){
+                    int length = table.simpleNameLength(i);
+                    if(length < simpleNamePrefix.length){
+                        continue;
+                    }
+                    scratch = ensure(scratch, length);
+                    table.writeSimpleName(i, scratch, 0);
+                    if(!regionEquals(scratch, 0, simpleNamePrefix, 0, simpleNamePrefix.length)){
+                        continue;
+                    }
+                }
+                sink.accept(jarStarts[j] + i);
+            }
+        }
+    }
+
+    private int jarOf(int id){
+        int low = 0;
+        int high = jars.length - 1;
+        while(low < high){
+            int mid = (low + high + 1) >>> 1;
+            if(jarStarts[mid] <= id){
+                low = mid;
+            }else{
+                high = mid - 1;
+            }
+        }
+        // skip jars without classes, which share their start with the next jar.
+        while(jarStarts[low + 1] <= id){
+            low++;
+        }
+        return low;
+    }
+
+    private boolean packageStartsWith(int p, byte[] prefix){
+        int start = packageOffsets[p];
+        return packageOffsets[p + 1] - start >= prefix.length
+                && regionEquals(packageArena, start, prefix, 0, prefix.length);
+    }
+
+    /* the first package not sorting before key. */
+    private int lowerBound(byte[] key){
+        int low = 0;
+        int high = packageCount();
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            int start = packageOffsets[mid];
+            if(compare(packageArena, start, packageOffsets[mid + 1] - start, key, 0, key.length) < 0){
+                low = mid + 1;
+            }else{
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int packageIndexOf(byte[] key, int offset, int length){
+        int low = 0;
+        int high = packageCount() - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            int start = packageOffsets[mid];
+            int cmp = compare(packageArena, start, packageOffsets[mid + 1] - start, key, offset, length);
+            if(cmp < 0){
+                low = mid + 1;
+            }else if(cmp > 0){
+                high = mid - 1;
+            }else{
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length){
+        // FNV-1a, then spread the high bits since callers mask the low ones.
+        int h = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i] & 0xFF;
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int compare(byte[] a, byte[] b){
+        return compare(a, 0, a.length, b, 0, b.length);
+    }
+
+    private static int compare(byte[] a, int aStart, int aLength, byte[] b, int bStart, int bLength){
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[aStart + i] & 0xFF) - (b[bStart + i] & 0xFF);
+            if(cmp != 0){
+                return cmp;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private static boolean regionEquals(byte[] a, int aStart, byte[] b, int bStart, int length){
+        for (int i = 0; i < length; i++) {
+            if(a[aStart + i] != b[bStart + i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] haystack, int from, int to, byte[] needle, int needleStart, int needleLength){
+        int last = to - needleLength;
+        for (int start = from; start <= last; start++) {
+            if(regionEquals(haystack, start, needle, needleStart, needleLength)){
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte b){
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if(bytes[i] == b){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] ensure(byte[] scratch, int length){
+        return scratch.length >= length ? scratch : new byte[Math.max(length, scratch.length * 2)];
+    }
+
+    /**
+     * Collects parsed jars, for example as they stream out of the parser, and builds the index.
+     */
+    public static final class Builder {
+        private final List<JarClass> jars = new ArrayList<>();
+
+        public Builder add(JarClass jarClass){
+            jars.add(checkNotNull(jarClass, "jarClass"));
+            return this;
+        }
+
+        public ClassSearchIndex build(){
+            return new ClassSearchIndex(this);
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value){
+            if(size == values.length){
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toSortedArray(){
+            if(size == 0){
+                return NO_IDS;
+            }
+            int[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
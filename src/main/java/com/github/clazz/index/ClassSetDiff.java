@@ -0,0 +1,179 @@
+package com.github.clazz.index;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * Compares two class sets, e.g. the lib directories of two deploys, by a sorted merge of two
+ * {@link ExternalClassSorter}s: only the copies of the current class name are held on the heap,
+ * whatever the number of classes. A class is matched by its canonical name, wherever its jar
+ * is, and its copies are compared by the CRC-32 and size the central directory records for the
+ * class file entry, without decompressing anything.
+ */
+public final class ClassSetDiff {
+    private ClassSetDiff(){
+        // no instance.
+    }
+
+    /**
+     * Hand every added, removed or changed class to {@code consumer}, sorted by name. A class is
+     * changed when the distinct contents of its copies differ between the two sets. Drains both
+     * sorters, see {@link ExternalClassSorter#sorted}.
+     *
+     * @param before the old classes
+     * @param after the new classes
+     * @param consumer receives the differences
+     * @return how many classes were added, removed, changed and unchanged
+     * @throws IOException if a spilled run cannot be read back
+     */
+    public static Summary diff(ExternalClassSorter before, ExternalClassSorter after, Consumer<Change> consumer)
+            throws IOException {
+        checkNotNull(before, "before");
+        checkNotNull(after, "after");
+        checkNotNull(consumer, "consumer");
+
+        Summary summary = new Summary();
+        Group oldGroup = new Group(before.sorted());
+        Group newGroup = new Group(after.sorted());
+        oldGroup.advance();
+        newGroup.advance();
+        while(oldGroup.canonicalName != null || newGroup.canonicalName != null){
+            int order = oldGroup.canonicalName == null ? 1 : newGroup.canonicalName == null ? -1
+                    : oldGroup.canonicalName.compareTo(newGroup.canonicalName);
+            if(order < 0){
+                summary.removed++;
+                consumer.accept(new Change(Kind.REMOVED, oldGroup.canonicalName, oldGroup.jarPaths,
+                        Collections.emptyList()));
+                oldGroup.advance();
+            }else if(order > 0){
+                summary.added++;
+                consumer.accept(new Change(Kind.ADDED, newGroup.canonicalName, Collections.emptyList(),
+                        newGroup.jarPaths));
+                newGroup.advance();
+            }else{
+                if(oldGroup.contents.equals(newGroup.contents)){
+                    summary.unchanged++;
+                }else{
+                    summary.changed++;
+                    consumer.accept(new Change(Kind.CHANGED, oldGroup.canonicalName, oldGroup.jarPaths,
+                            newGroup.jarPaths));
+                }
+                oldGroup.advance();
+                newGroup.advance();
+            }
+        }
+        return summary;
+    }
+
+    public enum Kind {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * A class that differs between the two sets.
+     */
+    public static final class Change {
+        private final Kind kind;
+        private final String canonicalName;
+        private final List<String> beforeJarPaths;
+        private final List<String> afterJarPaths;
+
+        private Change(Kind kind, String canonicalName, List<String> beforeJarPaths, List<String> afterJarPaths){
+            this.kind = kind;
+            this.canonicalName = canonicalName;
+            this.beforeJarPaths = beforeJarPaths;
+            this.afterJarPaths = afterJarPaths;
+        }
+
+        public Kind getKind(){
+            return kind;
+        }
+
+        public String getCanonicalName(){
+            return canonicalName;
+        }
+
+        /**
+         * @return the jars holding the class in the old set, in path order, empty if added
+         */
+        public List<String> getBeforeJarPaths(){
+            return beforeJarPaths;
+        }
+
+        /**
+         * @return the jars holding the class in the new set, in path order, empty if removed
+         */
+        public List<String> getAfterJarPaths(){
+            return afterJarPaths;
+        }
+    }
+
+    /**
+     * Counters of a {@link #diff}.
+     */
+    public static final class Summary {
+        private long added;
+        private long removed;
+        private long changed;
+        private long unchanged;
+
+        public long getAdded(){
+            return added;
+        }
+
+        public long getRemoved(){
+            return removed;
+        }
+
+        public long getChanged(){
+            return changed;
+        }
+
+        public long getUnchanged(){
+            return unchanged;
+        }
+
+        @Override
+        public String toString(){
+            return "added:" + added + ",removed:" + removed + ",changed:" + changed + ",unchanged:" + unchanged;
+        }
+    }
+
+    /*
+       the copies of one class name, read from a sorted side: the classes of a name are adjacent.
+       contents holds the distinct CRC-32 and size pairs of the copies.
+     */
+    private static final class Group {
+        private final ExternalClassSorter.Sorted sorted;
+        private ExternalClassSorter.ClassEntry pending;
+        private String canonicalName;
+        private List<String> jarPaths;
+        private Set<Long> contents;
+
+        private Group(ExternalClassSorter.Sorted sorted){
+            this.sorted = sorted;
+        }
+
+        private void advance() throws IOException {
+            ExternalClassSorter.ClassEntry entry = pending != null ? pending : sorted.next();
+            pending = null;
+            if(entry == null){
+                canonicalName = null;
+                return;
+            }
+            canonicalName = entry.getCanonicalName();
+            // not cleared, a Change may still hold the previous ones.
+            jarPaths = new ArrayList<>(1);
+            contents = new HashSet<>(2);
+            while(entry != null && entry.getCanonicalName().equals(canonicalName)){
+                jarPaths.add(entry.getJarPath());
+                contents.add((long) entry.getEntryCrc() << 32 | entry.getEntrySize() & 0xFFFFFFFFL);
+                entry = sorted.next();
+            }
+            pending = entry;
+        }
+    }
+}
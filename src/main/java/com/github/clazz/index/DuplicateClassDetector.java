@@ -0,0 +1,273 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * Finds classes present in more than one jar. Jars are added as they are parsed; every class is
+ * recorded in a primitive open addressing table keyed by a 64-bit hash of its canonical name, so
+ * millions of classes cost a few ints each rather than a {@code HashMap<String, List<String>>}.
+ * Copies are compared by the CRC-32 and size the jar's central directory records for the class
+ * file entry, which tells identical copies from diverging ones without decompressing anything.
+ */
+public final class DuplicateClassDetector {
+    private static final int NO_RECORD = -1;
+
+    private final List<JarClass> jars = new ArrayList<>();
+
+    // slots[i] holds the first record of a class name, nameHashes[i] that name's hash.
+    private long[] nameHashes = new long[1024];
+    private int[] slots = newSlots(1024);
+    private int usedSlots;
+
+    // record r is class recordClasses[r] of jar recordJars[r], recordNext[r] chains the
+    // records of the same class name.
+    private int[] recordJars = new int[1024];
+    private int[] recordClasses = new int[1024];
+    private int[] recordNext = new int[1024];
+    private int recordCount;
+
+    private int duplicateNames;
+    private byte[] scratch = new byte[256];
+    private byte[] otherScratch = new byte[256];
+
+    /**
+     * Record every class of {@code jarClass}. Not thread safe, feed it from a single thread such
+     * as the consumer of {@link com.github.clazz.utils.Utils#jarFileClassesParse}.
+     *
+     * @param jarClass a parsed jar
+     */
+    public void add(JarClass jarClass){
+        checkNotNull(jarClass, "jarClass");
+        int jar = jars.size();
+        jars.add(jarClass);
+
+        ClassNameTable table = jarClass.getClassNames();
+        for (int i = 0; i < table.size(); i++) {
+            scratch = ensure(scratch, table.canonicalNameLength(i));
+            int length = table.writeCanonicalName(i, scratch, 0);
+            long hash = hash(scratch, length);
+
+            int record = newRecord(jar, i);
+            int slot = (int) (hash ^ (hash >>> 32)) & (slots.length - 1);
+            while(true){
+                int head = slots[slot];
+                if(head == NO_RECORD){
+                    slots[slot] = record;
+                    nameHashes[slot] = hash;
+                    if(++usedSlots * 2 > slots.length){
+                        rehash();
+                    }
+                    break;
+                }
+                if(nameHashes[slot] == hash && sameName(head, scratch, length)){
+                    if(recordNext[head] == NO_RECORD){
+                        duplicateNames++;
+                    }
+                    recordNext[record] = recordNext[head];
+                    recordNext[head] = record;
+                    break;
+                }
+                slot = (slot + 1) & (slots.length - 1);
+            }
+        }
+    }
+
+    /**
+     * @return the number of classes recorded, counting every copy
+     */
+    public int getClassCount(){
+        return recordCount;
+    }
+
+    /**
+     * @return the number of class names found in more than one jar
+     */
+    public int getDuplicateCount(){
+        return duplicateNames;
+    }
+
+    /**
+     * Hand every class name found in more than one jar to {@code consumer}, sorted by name, with
+     * its copies sorted by jar path.
+     *
+     * @param consumer receives the duplicates
+     */
+    public void forEachDuplicate(Consumer<Duplicate> consumer){
+        int[] heads = new int[duplicateNames];
+        String[] names = new String[duplicateNames];
+        int count = 0;
+        for (int slot = 0; slot < slots.length; slot++) {
+            int head = slots[slot];
+            if(head != NO_RECORD && recordNext[head] != NO_RECORD){
+                heads[count] = head;
+                names[count] = jars.get(recordJars[head]).getClassNames().getCanonicalName(recordClasses[head]);
+                count++;
+            }
+        }
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> names[i]));
+
+        List<Integer> records = new ArrayList<>();
+        for (Integer i : order) {
+            records.clear();
+            for (int record = heads[i]; record != NO_RECORD; record = recordNext[record]) {
+                records.add(record);
+            }
+            // jars arrive in parse completion order, list the copies in a stable one.
+            records.sort(Comparator.comparing(record -> jars.get(recordJars[record]).getJarPath()));
+
+            List<String> holders = new ArrayList<>(records.size());
+            List<Integer> crcs = new ArrayList<>(records.size());
+            List<Integer> sizes = new ArrayList<>(records.size());
+            for (int record : records) {
+                JarClass jarClass = jars.get(recordJars[record]);
+                holders.add(jarClass.getJarPath());
+                crcs.add(jarClass.getClassNames().entryCrcOf(recordClasses[record]));
+                sizes.add(jarClass.getClassNames().entrySizeOf(recordClasses[record]));
+            }
+            consumer.accept(new Duplicate(names[i], holders, crcs, sizes));
+        }
+    }
+
+    private boolean sameName(int record, byte[] name, int length){
+        ClassNameTable table = jars.get(recordJars[record]).getClassNames();
+        int classIndex = recordClasses[record];
+        if(table.canonicalNameLength(classIndex) != length){
+            return false;
+        }
+        otherScratch = ensure(otherScratch, length);
+        table.writeCanonicalName(classIndex, otherScratch, 0);
+        for (int i = 0; i < length; i++) {
+            if(otherScratch[i] != name[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int newRecord(int jar, int classIndex){
+        if(recordCount == recordJars.length){
+            int newLength = recordJars.length * 2;
+            recordJars = Arrays.copyOf(recordJars, newLength);
+            recordClasses = Arrays.copyOf(recordClasses, newLength);
+            recordNext = Arrays.copyOf(recordNext, newLength);
+        }
+        recordJars[recordCount] = jar;
+        recordClasses[recordCount] = classIndex;
+        recordNext[recordCount] = NO_RECORD;
+        return recordCount++;
+    }
+
+    private void rehash(){
+        long[] oldHashes = nameHashes;
+        int[] oldSlots = slots;
+        nameHashes = new long[oldSlots.length * 2];
+        slots = newSlots(oldSlots.length * 2);
+        for (int i = 0; i < oldSlots.length; i++) {
+            if(oldSlots[i] != NO_RECORD){
+                long hash = oldHashes[i];
+                int slot = (int) (hash ^ (hash >>> 32)) & (slots.length - 1);
+                while(slots[slot] != NO_RECORD){
+                    slot = (slot + 1) & (slots.length - 1);
+                }
+                slots[slot] = oldSlots[i];
+                nameHashes[slot] = hash;
+            }
+        }
+    }
+
+    private static int[] newSlots(int length){
+        int[] slots = new int[length];
+        Arrays.fill(slots, NO_RECORD);
+        return slots;
+    }
+
+    private static long hash(byte[] bytes, int length){
+        // 64-bit FNV-1a, mixed so the low bits used for slots depend on every byte.
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < length; i++) {
+            h ^= bytes[i] & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static byte[] ensure(byte[] scratch, int length){
+        return scratch.length >= length ? scratch : new byte[Math.max(length, scratch.length * 2)];
+    }
+
+    /**
+     * A class name found in several jars, with the CRC-32 and size of each copy.
+     */
+    public static final class Duplicate {
+        private final String canonicalName;
+        private final List<String> jarPaths;
+        private final List<Integer> entryCrcs;
+        private final List<Integer> entrySizes;
+
+        Duplicate(String canonicalName, List<String> jarPaths,
+                  List<Integer> entryCrcs, List<Integer> entrySizes){
+            this.canonicalName = canonicalName;
+            this.jarPaths = jarPaths;
+            this.entryCrcs = entryCrcs;
+            this.entrySizes = entrySizes;
+        }
+
+        public String getCanonicalName(){
+            return canonicalName;
+        }
+
+        /**
+         * @return the number of copies
+         */
+        public int size(){
+            return jarPaths.size();
+        }
+
+        public String getJarPath(int copy){
+            return jarPaths.get(copy);
+        }
+
+        public int getEntryCrc(int copy){
+            return entryCrcs.get(copy);
+        }
+
+        /**
+         * @return the uncompressed size of the copy, or -1 if unknown
+         */
+        public int getEntrySize(int copy){
+            return entrySizes.get(copy);
+        }
+
+        /**
+         * @return the number of distinct (CRC-32, size) pairs among the copies
+         */
+        public int getVariantCount(){
+            Set<Long> variants = new HashSet<>();
+            for (int i = 0; i < size(); i++) {
+                variants.add(((long) entryCrcs.get(i) << 32) ^ (entrySizes.get(i) & 0xFFFFFFFFL));
+            }
+            return variants.size();
+        }
+
+        /**
+         * @return whether every copy has the same CRC-32 and size
+         */
+        public boolean isIdentical(){
+            return getVariantCount() == 1;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+import com.github.clazz.utils.ListWithDiskBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * Sorts the classes of any number of jars by name within a fixed heap budget. Classes are
+ * buffered up to {@code maxHeapEntries}, then sorted and spilled as a run to a {@link
+ * ListWithDiskBuffer}; {@link #merge} k-way merges the runs into one listing sorted by class name
+ * and jar path, and reports the classes found in several jars on the way. Only the jar paths and
+ * one buffered batch are kept on the heap, whatever the number of classes.
+ */
+public final class ExternalClassSorter implements AutoCloseable {
+    // runs merged at once: that many runs of a tier are merged into one run of the next tier.
+    private static final int MAX_FAN_IN = 32;
+
+    private final long maxHeapEntries;
+    private final List<String> jarPaths = new ArrayList<>();
+    private final Comparator<ClassEntry> order;
+    private final List<ClassEntry> batch = new ArrayList<>();
+    private final List<ListWithDiskBuffer<ClassEntry>> runs = new ArrayList<>();
+    // the tier of each run, 0 when spilled, one more per merge; never increasing along runs.
+    private final List<Integer> runTiers = new ArrayList<>();
+    private long classCount;
+    private int spilledRuns;
+    private boolean merged;
+
+    /**
+     * @param maxHeapEntries how many classes to buffer on the heap before spilling a run
+     */
+    public ExternalClassSorter(long maxHeapEntries){
+        if(maxHeapEntries < 1){
+            throw new IllegalArgumentException("maxHeapEntries must be positive: " + maxHeapEntries);
+        }
+        this.maxHeapEntries = maxHeapEntries;
+        this.order = Comparator.comparing(ClassEntry::getCanonicalName).thenComparing(ClassEntry::getJarPath);
+    }
+
+    /**
+     * Record every class of {@code jarClass}. Not thread safe, feed it from a single thread such
+     * as the consumer of {@link com.github.clazz.utils.JarPipeline#run}.
+     *
+     * @param jarClass a parsed jar
+     * @throws IOException if a run cannot be spilled
+     */
+    public void add(JarClass jarClass) throws IOException {
+        checkNotNull(jarClass, "jarClass");
+        if(merged){
+            throw new IllegalStateException("already merged");
+        }
+        int jar = jarPaths.size();
+        jarPaths.add(jarClass.getJarPath());
+
+        ClassNameTable table = jarClass.getClassNames();
+        for (int i = 0; i < table.size(); i++) {
+            batch.add(new ClassEntry(table.getCanonicalName(i), jar, table.entryCrcOf(i), table.entrySizeOf(i)));
+            classCount++;
+            if(batch.size() >= maxHeapEntries){
+                spill();
+            }
+        }
+    }
+
+    /**
+     * @return the number of classes recorded, counting every copy
+     */
+    public long getClassCount(){
+        return classCount;
+    }
+
+    /**
+     * @return the number of sorted runs spilled to disk so far
+     */
+    public int getRunCount(){
+        return spilledRuns;
+    }
+
+    /**
+     * Hand every class to {@code consumer} sorted by name and jar path, and every class name
+     * found in more than one jar to {@code duplicateConsumer}, sorted by name. Can only be
+     * called once.
+     *
+     * @param consumer receives every class
+     * @param duplicateConsumer receives the duplicates
+     * @throws IOException if a run cannot be read back
+     */
+    public void merge(Consumer<ClassEntry> consumer, Consumer<DuplicateClassDetector.Duplicate> duplicateConsumer)
+            throws IOException {
+        checkNotNull(consumer, "consumer");
+        checkNotNull(duplicateConsumer, "duplicateConsumer");
+        if(merged){
+            throw new IllegalStateException("already merged");
+        }
+        merged = true;
+
+        DuplicateGrouper grouper = new DuplicateGrouper(duplicateConsumer);
+        if(runs.isEmpty()){
+            // everything fit in the budget, nothing to read back.
+            batch.sort(order);
+            for (ClassEntry entry : batch) {
+                consumer.accept(entry);
+                grouper.accept(entry);
+            }
+            batch.clear();
+        }else{
+            spill();
+            reduceRuns();
+            mergeRuns(runs, entry -> {
+                consumer.accept(entry);
+                grouper.accept(entry);
+            });
+        }
+        grouper.finish();
+    }
+
+    /**
+     * Same as {@link #merge}, for a caller that pulls the classes one at a time, e.g. to merge
+     * two sorters side by side. Can only be called once, instead of {@link #merge}.
+     *
+     * @return every class sorted by name and jar path
+     * @throws IOException if a run cannot be read back
+     */
+    public Sorted sorted() throws IOException {
+        if(merged){
+            throw new IllegalStateException("already merged");
+        }
+        merged = true;
+
+        if(runs.isEmpty()){
+            batch.sort(order);
+            Iterator<ClassEntry> iterator = batch.iterator();
+            return () -> iterator.hasNext() ? iterator.next() : null;
+        }
+        spill();
+        reduceRuns();
+        // the runs stay registered, so close() deletes the ones a caller did not drain.
+        return new RunMerger(new ArrayList<>(runs));
+    }
+
+    /**
+     * Classes pulled in sorted order, see {@link #sorted}.
+     */
+    public interface Sorted {
+        /**
+         * @return the next class, or null when there are no more
+         * @throws IOException if a run cannot be read back
+         */
+        ClassEntry next() throws IOException;
+    }
+
+    /**
+     * Delete the runs still on disk.
+     *
+     * @throws IOException if a run cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        batch.clear();
+        IOException failure = null;
+        for (ListWithDiskBuffer<ClassEntry> run : runs) {
+            try{
+                run.close();
+            }catch (IOException ioe){
+                failure = ioe;
+            }
+        }
+        runs.clear();
+        runTiers.clear();
+        if(failure != null){
+            throw failure;
+        }
+    }
+
+    private void spill() throws IOException {
+        if(batch.isEmpty()){
+            return;
+        }
+        batch.sort(order);
+        ListWithDiskBuffer<ClassEntry> run = newRun();
+        for (ClassEntry entry : batch) {
+            run.add(entry);
+        }
+        run.flushToDisk();
+        batch.clear();
+        runs.add(run);
+        runTiers.add(0);
+        spilledRuns++;
+
+        // MAX_FAN_IN runs of a tier are merged into one of the next tier, which may complete that
+        // tier in turn. runs are only merged with runs of similar size, so a class is rewritten
+        // once per tier, a logarithmic number of times, and at most MAX_FAN_IN - 1 runs per tier
+        // stay open with their write buffers.
+        while(runs.size() >= MAX_FAN_IN){
+            int tier = runTiers.get(runs.size() - 1);
+            if(runTiers.get(runs.size() - MAX_FAN_IN) != tier){
+                break;
+            }
+            mergeLastRuns(MAX_FAN_IN, tier + 1);
+        }
+    }
+
+    /*
+       leaves at most MAX_FAN_IN runs for the final merge by first merging the smallest, the last
+       ones, into one.
+     */
+    private void reduceRuns() throws IOException {
+        if(runs.size() > MAX_FAN_IN){
+            int count = runs.size() - MAX_FAN_IN + 1;
+            mergeLastRuns(count, runTiers.get(runs.size() - count));
+        }
+    }
+
+    private void mergeLastRuns(int count, int tier) throws IOException {
+        List<ListWithDiskBuffer<ClassEntry>> last = runs.subList(runs.size() - count, runs.size());
+        List<ListWithDiskBuffer<ClassEntry>> sources = new ArrayList<>(last);
+        last.clear();
+        runTiers.subList(runTiers.size() - count, runTiers.size()).clear();
+        ListWithDiskBuffer<ClassEntry> mergedRun = newRun();
+        runs.add(mergedRun);
+        runTiers.add(tier);
+        mergeRuns(sources, entry -> {
+            try{
+                mergedRun.add(entry);
+            }catch (IOException ioe){
+                throw new RunIOException(ioe);
+            }
+        });
+        mergedRun.flushToDisk();
+    }
+
+    private ListWithDiskBuffer<ClassEntry> newRun(){
+        // nothing is kept in memory, every entry goes to the run file.
+        return new ListWithDiskBuffer<>(0, new ClassEntryCodec());
+    }
+
+    private void mergeRuns(List<ListWithDiskBuffer<ClassEntry>> sources, Consumer<ClassEntry> consumer)
+            throws IOException {
+        try{
+            RunMerger merger = new RunMerger(sources);
+            for (ClassEntry entry = merger.next(); entry != null; entry = merger.next()) {
+                consumer.accept(entry);
+            }
+        }catch (RunIOException rioe){
+            throw rioe.getCause();
+        }finally {
+            for (ListWithDiskBuffer<ClassEntry> run : sources) {
+                run.close();
+            }
+        }
+    }
+
+    /*
+       k-way merge: a heap holds the head of every run, ordered like the runs. the runs are
+       closed, and their files deleted, as they are drained.
+     */
+    private final class RunMerger implements Sorted {
+        private final List<ListWithDiskBuffer<ClassEntry>> sources;
+        private PriorityQueue<RunHead> heads;
+
+        private RunMerger(List<ListWithDiskBuffer<ClassEntry>> sources){
+            this.sources = sources;
+        }
+
+        @Override
+        public ClassEntry next() throws IOException {
+            try{
+                if(heads == null){
+                    heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> order.compare(a.entry, b.entry));
+                    for (ListWithDiskBuffer<ClassEntry> run : sources) {
+                        if(!run.isEmpty()){
+                            heads.add(new RunHead(run, run.removeFirst()));
+                        }else{
+                            run.close();
+                        }
+                    }
+                }
+                RunHead head = heads.poll();
+                if(head == null){
+                    return null;
+                }
+                ClassEntry entry = head.entry;
+                if(!head.run.isEmpty()){
+                    head.entry = head.run.removeFirst();
+                    heads.add(head);
+                }else{
+                    head.run.close();
+                }
+                return entry;
+            }catch (IOException | RuntimeException e){
+                for (ListWithDiskBuffer<ClassEntry> run : sources) {
+                    run.close();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * A class of one jar, as listed by {@link #merge}.
+     */
+    public final class ClassEntry {
+        private final String canonicalName;
+        private final int jar;
+        private final int entryCrc;
+        private final int entrySize;
+
+        private ClassEntry(String canonicalName, int jar, int entryCrc, int entrySize){
+            this.canonicalName = canonicalName;
+            this.jar = jar;
+            this.entryCrc = entryCrc;
+            this.entrySize = entrySize;
+        }
+
+        public String getCanonicalName(){
+            return canonicalName;
+        }
+
+        public String getJarPath(){
+            return jarPaths.get(jar);
+        }
+
+        public int getEntryCrc(){
+            return entryCrc;
+        }
+
+        /**
+         * @return the uncompressed size of the class file, or -1 if unknown
+         */
+        public int getEntrySize(){
+            return entrySize;
+        }
+    }
+
+    /*
+       a run record is the jar index, the entry CRC-32 and size, then the UTF-8 class name up to
+       the end of the record.
+     */
+    private final class ClassEntryCodec implements ListWithDiskBuffer.Codec<ClassEntry> {
+        @Override
+        public void encode(ClassEntry element, ByteBuffer out){
+            byte[] name = element.canonicalName.getBytes(StandardCharsets.UTF_8);
+            out.putInt(element.jar).putInt(element.entryCrc).putInt(element.entrySize).put(name);
+        }
+
+        @Override
+        public ClassEntry decode(ByteBuffer in){
+            int jar = in.getInt();
+            int entryCrc = in.getInt();
+            int entrySize = in.getInt();
+            byte[] name = new byte[in.remaining()];
+            in.get(name);
+            return new ClassEntry(new String(name, StandardCharsets.UTF_8), jar, entryCrc, entrySize);
+        }
+    }
+
+    /*
+       entries arrive sorted by name, so the copies of a class are adjacent and a single group is
+       held at a time.
+     */
+    private static final class DuplicateGrouper {
+        private final Consumer<DuplicateClassDetector.Duplicate> consumer;
+        private final List<ClassEntry> group = new ArrayList<>();
+
+        private DuplicateGrouper(Consumer<DuplicateClassDetector.Duplicate> consumer){
+            this.consumer = consumer;
+        }
+
+        private void accept(ClassEntry entry){
+            if(!group.isEmpty() && !group.get(0).canonicalName.equals(entry.canonicalName)){
+                finish();
+            }
+            group.add(entry);
+        }
+
+        private void finish(){
+            if(group.size() > 1){
+                List<String> jarPaths = new ArrayList<>(group.size());
+                List<Integer> crcs = new ArrayList<>(group.size());
+                List<Integer> sizes = new ArrayList<>(group.size());
+                for (ClassEntry entry : group) {
+                    jarPaths.add(entry.getJarPath());
+                    crcs.add(entry.entryCrc);
+                    sizes.add(entry.entrySize);
+                }
+                consumer.accept(new DuplicateClassDetector.Duplicate(group.get(0).canonicalName, jarPaths, crcs, sizes));
+            }
+            group.clear();
+        }
+    }
+
+    private static final class RunHead {
+        private final ListWithDiskBuffer<ClassEntry> run;
+        private ClassEntry entry;
+
+        private RunHead(ListWithDiskBuffer<ClassEntry> run, ClassEntry entry){
+            this.run = run;
+            this.entry = entry;
+        }
+    }
+
+    private static final class RunIOException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private RunIOException(IOException cause){
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause(){
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.github.clazz.index;
+
+import com.github.clazz.metrics.ScanMetrics;
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+import com.github.clazz.utils.ArchiveDedupe;
+import com.github.clazz.utils.JarPipeline;
+import com.github.clazz.utils.NestedArchives;
+import com.github.clazz.utils.ProblemListener;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * A persistent index of parsed jars, keyed by absolute jar path and validated by the jar's size
+ * and last modified time. A refresh only re-parses jars that were added or changed since the
+ * index was saved, and drops jars that disappeared from the scanned root. The archives nested in
+ * a jar are stored along with it.
+ */
+public class JarClassIndex {
+    private static final int MAGIC = 0x4A434958; // "JCIX"
+    private static final int VERSION = 6;
+
+    private final Path indexFile;
+    private final int nameFlags;
+    private final int maxDepth;
+    // read by the refresh workers while the calling thread updates it.
+    private final Map<String, Entry> entries;
+    // byte-identical jars under several paths are parsed once.
+    private final ArchiveDedupe dedupe = new ArchiveDedupe();
+    private final ProblemListener listener;
+    private volatile boolean dirty;
+
+    private JarClassIndex(Path indexFile, int nameFlags, int maxDepth, Map<String, Entry> entries,
+                          ProblemListener listener){
+        this.indexFile = indexFile;
+        this.nameFlags = nameFlags;
+        this.maxDepth = maxDepth;
+        this.entries = entries;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the default index file, {@code ~/.class-inspections/jar-class.idx}.
+     *
+     * @return the default index file path
+     */
+    public static Path defaultIndexFile(){
+        return Paths.get(System.getProperty("user.home"), ".class-inspections", "jar-class.idx");
+    }
+
+    /**
+     * Create an empty index that is never saved, e.g. for a daemon run without index file.
+     *
+     * @param nameFlags {@link com.github.clazz.utils.ClassNames} flags used to parse jars
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @return the empty index
+     */
+    public static JarClassIndex inMemory(int nameFlags, int maxDepth){
+        return inMemory(nameFlags, maxDepth, ProblemListener.IGNORE);
+    }
+
+    /**
+     * Same as {@link #inMemory(int, int)}, reporting the jars its refreshes skip to {@code
+     * listener}.
+     *
+     * @param nameFlags {@link com.github.clazz.utils.ClassNames} flags used to parse jars
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @param listener receives the jars and nested archives that cannot be parsed
+     * @return the empty index
+     */
+    public static JarClassIndex inMemory(int nameFlags, int maxDepth, ProblemListener listener){
+        checkNotNull(listener, "listener");
+        return new JarClassIndex(null, nameFlags, maxDepth, new ConcurrentHashMap<>(), listener);
+    }
+
+    /**
+     * Load the index stored in {@code indexFile}, opening nested archives down to the default
+     * depth.
+     *
+     * @param indexFile the index file
+     * @param nameFlags {@link com.github.clazz.utils.ClassNames} flags used to parse jars
+     * @return the loaded index
+     */
+    public static JarClassIndex load(Path indexFile, int nameFlags){
+        return load(indexFile, nameFlags, NestedArchives.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Load the index stored in {@code indexFile}. A missing, unreadable or incompatible index
+     * file, or one built with other {@code nameFlags} or {@code maxDepth}, yields an empty
+     * index, which is rebuilt by the next refresh.
+     *
+     * @param indexFile the index file
+     * @param nameFlags {@link com.github.clazz.utils.ClassNames} flags used to parse jars
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @return the loaded index
+     */
+    public static JarClassIndex load(Path indexFile, int nameFlags, int maxDepth){
+        return load(indexFile, nameFlags, maxDepth, ProblemListener.IGNORE);
+    }
+
+    /**
+     * Same as {@link #load(Path, int, int)}, reporting an index file that cannot be used, and
+     * the jars the refreshes of the index skip, to {@code listener}.
+     *
+     * @param indexFile the index file
+     * @param nameFlags {@link com.github.clazz.utils.ClassNames} flags used to parse jars
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @param listener receives the problems of the index file and of the jars
+     * @return the loaded index
+     */
+    public static JarClassIndex load(Path indexFile, int nameFlags, int maxDepth, ProblemListener listener){
+        checkNotNull(indexFile, "indexFile");
+        checkNotNull(listener, "listener");
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+        if(Files.isRegularFile(indexFile)){
+            try(DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16))){
+                if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                    listener.problem("index file incompatible, rebuilding", indexFile.toString(), null);
+                }else if(in.readInt() != nameFlags || in.readInt() != maxDepth){
+                    listener.problem("index file built with other parse options, rebuilding", indexFile.toString(), null);
+                }else{
+                    int jarCount = in.readInt();
+                    List<ClassNameTable> tables = new ArrayList<>();
+                    for (int i = 0; i < jarCount; i++) {
+                        Entry entry = Entry.read(in, tables);
+                        entries.put(entry.getJarPath(), entry);
+                    }
+                }
+            }catch (IOException ioe){
+                listener.problem("index file unreadable, rebuilding", indexFile.toString(), ioe);
+                entries.clear();
+            }
+        }
+
+        return new JarClassIndex(indexFile, nameFlags, maxDepth, entries, listener);
+    }
+
+    /**
+     * Bring the index up to date with the jars found under {@code root}. Unchanged jars are
+     * served from the index straight away, added or changed jars are parsed on {@code threads}
+     * workers, and indexed jars under {@code root} that are no longer in {@code jarFiles} are
+     * removed. Every live jar, and every archive nested in it, is handed to {@code consumer} on
+     * the calling thread.
+     *
+     * @param root the scanned jar file or directory
+     * @param jarFiles the jar files currently found under {@code root}
+     * @param threads the number of parser threads
+     * @param consumer receives every cached or freshly parsed jar
+     * @return what the refresh did
+     */
+    public RefreshResult refresh(String root, List<File> jarFiles, int threads, Consumer<JarClass> consumer){
+        return refresh(root, JarPipeline.files(jarFiles), threads, consumer);
+    }
+
+    /**
+     * Same as {@link #refresh(String, List, int, Consumer)}, checking and parsing the jars while
+     * {@code source} is still looking for them.
+     *
+     * @param root the scanned jar file or directory
+     * @param source finds the jar files currently under {@code root}
+     * @param threads the number of parser threads
+     * @param consumer receives every cached or freshly parsed jar
+     * @return what the refresh did
+     */
+    public RefreshResult refresh(String root, JarPipeline.Source source, int threads, Consumer<JarClass> consumer){
+        return refresh(root, source, threads, null, consumer);
+    }
+
+    /**
+     * Same as {@link #refresh(String, JarPipeline.Source, int, Consumer)}, recording the walk of
+     * {@code source} and the parse of every added or changed jar into {@code metrics}.
+     *
+     * @param root the scanned jar file or directory
+     * @param source finds the jar files currently under {@code root}
+     * @param threads the number of parser threads
+     * @param metrics receives the timings and counters, null for none
+     * @param consumer receives every cached or freshly parsed jar
+     * @return what the refresh did
+     */
+    public RefreshResult refresh(String root, JarPipeline.Source source, int threads, ScanMetrics metrics,
+                                 Consumer<JarClass> consumer){
+        return refresh(root, source, threads, dedupe, metrics, consumer);
+    }
+
+    /**
+     * Same as {@link #refresh(String, JarPipeline.Source, int, ScanMetrics, Consumer)}, parsing
+     * jars through {@code dedupe}, e.g. one shared by the refreshes of several roots at once.
+     *
+     * @param root the scanned jar file or directory
+     * @param source finds the jar files currently under {@code root}
+     * @param threads the number of parser threads
+     * @param dedupe parses byte-identical jars once
+     * @param metrics receives the timings and counters, null for none
+     * @param consumer receives every cached or freshly parsed jar
+     * @return what the refresh did
+     */
+    public RefreshResult refresh(String root, JarPipeline.Source source, int threads, ArchiveDedupe dedupe,
+                                 ScanMetrics metrics, Consumer<JarClass> consumer){
+        checkNotNull(root, "root");
+        checkNotNull(source, "source");
+        checkNotNull(dedupe, "dedupe");
+        checkNotNull(consumer, "consumer");
+
+        RefreshResult result = new RefreshResult();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+
+        // workers look jars up and parse the changed ones, the calling thread applies the results.
+        JarPipeline.Stats stats = JarPipeline.run(source, threads, (jarFile, attrs) -> {
+            String jarPath = jarFile.getAbsolutePath();
+            seen.add(jarPath);
+            long size = attrs != null ? attrs.size() : jarFile.length();
+            long lastModified = attrs != null ? attrs.lastModifiedTime().toMillis() : jarFile.lastModified();
+
+            Entry entry = entries.get(jarPath);
+            if(entry != null && entry.size == size && entry.lastModified == lastModified){
+                return new Refreshed(entry, true);
+            }
+            // dropped until it parses again, so a jar that fails is retried on the next run.
+            if(entries.remove(jarPath) != null){
+                dirty = true;
+            }
+            List<JarClass> jarClasses = dedupe.parse(jarPath, attrs, nameFlags, maxDepth, metrics, listener);
+            return new Refreshed(new Entry(size, lastModified, jarClasses), false);
+        }, listener, refreshed -> {
+            if(refreshed.reused){
+                result.reused++;
+            }else{
+                entries.put(refreshed.entry.getJarPath(), refreshed.entry);
+                result.parsed++;
+            }
+            refreshed.entry.jarClasses.forEach(consumer);
+        });
+        result.failed = stats.getFailed();
+        result.walkNanos = stats.getWalkNanos();
+        if(metrics != null){
+            metrics.record(ScanMetrics.Stage.WALK, result.walkNanos);
+        }
+
+        String rootPath = new File(root).getAbsolutePath();
+        String rootPrefix = rootPath.endsWith(File.separator) ? rootPath : rootPath + File.separator;
+        Predicate<String> gone = jarPath -> (jarPath.equals(rootPath) || jarPath.startsWith(rootPrefix))
+                && !seen.contains(jarPath);
+        Iterator<String> iterator = entries.keySet().iterator();
+        while(iterator.hasNext()){
+            if(gone.test(iterator.next())){
+                iterator.remove();
+                result.removed++;
+            }
+        }
+        // the jars that failed to parse are not entries, but may have been seen before.
+        dedupe.forgetIf(gone);
+
+        if(result.parsed > 0 || result.removed > 0){
+            dirty = true;
+        }
+
+        return result;
+    }
+
+    /**
+     * Write the index back to its file if a refresh changed it. The file is replaced atomically,
+     * so a concurrent run never sees a half written index. Does nothing for an in-memory index.
+     *
+     * @throws IOException if the index file cannot be written
+     */
+    public void save() throws IOException {
+        if(!dirty || indexFile == null){
+            return;
+        }
+
+        Path parent = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try{
+            try(DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))){
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(nameFlags);
+                out.writeInt(maxDepth);
+                out.writeInt(entries.size());
+                Map<ClassNameTable, Integer> tables = new IdentityHashMap<>();
+                for (Entry entry : entries.values()) {
+                    entry.write(out, tables);
+                }
+            }
+
+            try{
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }catch (AtomicMoveNotSupportedException amnse){
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        }finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Hand every indexed jar, and every archive nested in it, to {@code consumer} in jar path
+     * order. Must not run concurrently with {@link #refresh}.
+     *
+     * @param consumer receives the jars
+     */
+    public void forEachJarClass(Consumer<JarClass> consumer){
+        checkNotNull(consumer, "consumer");
+        List<String> jarPaths = new ArrayList<>(entries.keySet());
+        Collections.sort(jarPaths);
+        for (String jarPath : jarPaths) {
+            Entry entry = entries.get(jarPath);
+            if(entry != null){
+                entry.jarClasses.forEach(consumer);
+            }
+        }
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    /**
+     * @return the index file, null for an in-memory index
+     */
+    public Path getIndexFile(){
+        return indexFile;
+    }
+
+    /**
+     * Counters of what a single {@link #refresh} did.
+     */
+    public static final class RefreshResult {
+        private int reused;
+        private int parsed;
+        private int removed;
+        private int failed;
+        private long walkNanos;
+
+        public int getReused(){
+            return reused;
+        }
+
+        public int getParsed(){
+            return parsed;
+        }
+
+        public int getRemoved(){
+            return removed;
+        }
+
+        public int getFailed(){
+            return failed;
+        }
+
+        /**
+         * @return the time it took to find the jars, overlapped with parsing them, in milliseconds
+         */
+        public long getWalkMillis(){
+            return TimeUnit.NANOSECONDS.toMillis(walkNanos);
+        }
+
+        /**
+         * @return the time it took to find the jars, overlapped with parsing them, in nanoseconds
+         */
+        public long getWalkNanos(){
+            return walkNanos;
+        }
+
+        @Override
+        public String toString(){
+            return "reused:" + reused + ",parsed:" + parsed + ",removed:" + removed + ",failed:" + failed;
+        }
+    }
+
+    private static final class Refreshed {
+        private final Entry entry;
+        private final boolean reused;
+
+        private Refreshed(Entry entry, boolean reused){
+            this.entry = entry;
+            this.reused = reused;
+        }
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        // the jar first, then the archives nested in it.
+        private final List<JarClass> jarClasses;
+
+        private Entry(long size, long lastModified, List<JarClass> jarClasses){
+            this.size = size;
+            this.lastModified = lastModified;
+            this.jarClasses = jarClasses;
+        }
+
+        private String getJarPath(){
+            return jarClasses.get(0).getJarPath();
+        }
+
+        /*
+           a table already written, shared by a byte-identical jar, is written as its number.
+         */
+        private void write(DataOutputStream out, Map<ClassNameTable, Integer> tables) throws IOException {
+            out.writeUTF(getJarPath());
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeInt(jarClasses.size());
+            for (JarClass jarClass : jarClasses) {
+                // nested archives are named after the jar, only the part below it is stored.
+                out.writeUTF(jarClass == jarClasses.get(0) ? "" : jarClass.getJarPath().substring(getJarPath().length()));
+                Integer table = tables.get(jarClass.getClassNames());
+                if(table != null){
+                    out.writeInt(table);
+                }else{
+                    out.writeInt(-1);
+                    jarClass.getClassNames().writeTo(out);
+                    tables.put(jarClass.getClassNames(), tables.size());
+                }
+            }
+        }
+
+        private static Entry read(DataInputStream in, List<ClassNameTable> tables) throws IOException {
+            String jarPath = in.readUTF();
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            int count = in.readInt();
+            List<JarClass> jarClasses = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String nestedPath = in.readUTF();
+                int table = in.readInt();
+                ClassNameTable classNames;
+                if(table == -1){
+                    classNames = ClassNameTable.readFrom(in);
+                    tables.add(classNames);
+                }else if(table >= 0 && table < tables.size()){
+                    classNames = tables.get(table);
+                }else{
+                    throw new IOException("index entry with unknown class table " + table + ": " + jarPath);
+                }
+
+                JarClass jarClass = new JarClass();
+                jarClass.setJarPath(jarPath + nestedPath);
+                jarClass.setClassNames(classNames);
+                jarClasses.add(jarClass);
+            }
+            if(jarClasses.isEmpty()){
+                throw new IOException("index entry without jar: " + jarPath);
+            }
+            return new Entry(size, lastModified, jarClasses);
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassMatch;
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * Any number of class name patterns matched against every class name in a single pass, e.g. a
+ * list of known vulnerable classes checked in one scan. A pattern is
+ * <ul>
+ *     <li>{@code regex:} and a {@link Pattern} found anywhere in the canonical name,</li>
+ *     <li>a glob matching the whole canonical name when it holds {@code *}, any run of
+ *     characters dots included, or {@code ?}, any single character; {@code glob:} forces it,</li>
+ *     <li>otherwise a class name, or part of it, matched like a {@link ClassQuery} of the match
+ *     type of the query.</li>
+ * </ul>
+ * The class names, and the longest literal run of every glob and regex, are compiled into one
+ * Aho-Corasick automaton over the UTF-8 bytes of the names. A name is scanned once whatever the
+ * number of patterns, and a glob or regex only runs on the names holding its literal run; the
+ * few without one, such as {@code regex:^a.b$}, run on every name. Once built, a query can be
+ * used from any number of threads.
+ */
+public final class MultiPatternQuery implements ClassMatcher {
+    private static final String REGEX_PREFIX = "regex:";
+    private static final String GLOB_PREFIX = "glob:";
+    private static final int[] NO_PATTERNS = new int[0];
+
+    private final ClassSearchIndex.MatchType matchType;
+    private final List<Entry> patterns;
+    // bytes found in no keyword share class 0.
+    private final int[] byteClasses = new int[256];
+    private final int classCount;
+    // the automaton moves from state s on byte class c to transitions[s * classCount + c].
+    private final int[] transitions;
+    // the patterns whose keyword ends at each state, keywords ending at its suffixes included.
+    private final int[][] outputs;
+    // the patterns without keyword, tried on every name.
+    private final int[] unfiltered;
+
+    private MultiPatternQuery(ClassSearchIndex.MatchType matchType, List<Entry> patterns){
+        this.matchType = matchType;
+        this.patterns = patterns;
+
+        int keywordBytes = 0;
+        int classes = 1;
+        List<Integer> unfilteredPatterns = new ArrayList<>();
+        for (int p = 0; p < patterns.size(); p++) {
+            byte[] keyword = patterns.get(p).keyword;
+            if(keyword.length == 0){
+                unfilteredPatterns.add(p);
+                continue;
+            }
+            keywordBytes += keyword.length;
+            for (byte b : keyword) {
+                if(byteClasses[b & 0xFF] == 0){
+                    byteClasses[b & 0xFF] = classes++;
+                }
+            }
+        }
+        this.classCount = classes;
+        this.unfiltered = toArray(unfilteredPatterns);
+
+        // the trie of the keywords, -1 where it has no edge.
+        int[] trie = new int[(keywordBytes + 1) * classCount];
+        Arrays.fill(trie, -1);
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        stateOutputs.add(new ArrayList<>());
+        for (int p = 0; p < patterns.size(); p++) {
+            int state = 0;
+            for (byte b : patterns.get(p).keyword) {
+                int edge = state * classCount + byteClasses[b & 0xFF];
+                if(trie[edge] == -1){
+                    trie[edge] = stateOutputs.size();
+                    stateOutputs.add(new ArrayList<>());
+                }
+                state = trie[edge];
+            }
+            if(state != 0){
+                stateOutputs.get(state).add(p);
+            }
+        }
+        int stateCount = stateOutputs.size();
+
+        // breadth first, every missing edge is replaced by the edge of the failure state, which
+        // is shallower and so already complete: the trie becomes a deterministic automaton.
+        int[] failures = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < classCount; c++) {
+            int next = trie[c];
+            if(next == -1){
+                trie[c] = 0;
+            }else{
+                failures[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        while(head < tail){
+            int state = queue[head++];
+            for (int c = 0; c < classCount; c++) {
+                int edge = state * classCount + c;
+                int fallback = trie[failures[state] * classCount + c];
+                if(trie[edge] == -1){
+                    trie[edge] = fallback;
+                }else{
+                    int next = trie[edge];
+                    failures[next] = fallback;
+                    stateOutputs.get(next).addAll(stateOutputs.get(fallback));
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        this.transitions = Arrays.copyOf(trie, stateCount * classCount);
+        this.outputs = new int[stateCount][];
+        for (int s = 0; s < stateCount; s++) {
+            outputs[s] = toArray(stateOutputs.get(s));
+        }
+    }
+
+    /**
+     * @param matchType how to match the patterns that are class names
+     * @param patterns the patterns, see the class documentation
+     * @return the compiled query
+     * @throws IllegalArgumentException if there is no pattern or a regex is invalid
+     */
+    public static MultiPatternQuery of(ClassSearchIndex.MatchType matchType, Collection<String> patterns){
+        checkNotNull(matchType, "matchType");
+        checkNotNull(patterns, "patterns");
+        if(patterns.isEmpty()){
+            throw new IllegalArgumentException("no pattern");
+        }
+        List<Entry> entries = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) {
+            entries.add(Entry.compile(checkNotNull(pattern, "pattern"), matchType));
+        }
+        return new MultiPatternQuery(matchType, entries);
+    }
+
+    /**
+     * Read the patterns of a file, one per line. Blank lines and lines starting with {@code #}
+     * are skipped, the others are trimmed.
+     *
+     * @param patternFile the UTF-8 file of patterns
+     * @return the patterns, in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static List<String> readPatterns(Path patternFile) throws IOException {
+        checkNotNull(patternFile, "patternFile");
+        List<String> patterns = new ArrayList<>();
+        try(BufferedReader reader = Files.newBufferedReader(patternFile, StandardCharsets.UTF_8)){
+            String line;
+            while((line = reader.readLine()) != null){
+                line = line.trim();
+                if(!line.isEmpty() && !line.startsWith("#")){
+                    patterns.add(line);
+                }
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * @param query a class name query
+     * @return whether {@code query} is a glob or a regex, which a {@link ClassQuery} would take
+     *     as a plain class name
+     */
+    public static boolean isPattern(String query){
+        return query.startsWith(REGEX_PREFIX) || query.startsWith(GLOB_PREFIX)
+                || query.indexOf('*') >= 0 || query.indexOf('?') >= 0;
+    }
+
+    public ClassSearchIndex.MatchType getMatchType(){
+        return matchType;
+    }
+
+    public int size(){
+        return patterns.size();
+    }
+
+    /**
+     * @return the patterns, in the order they were given
+     */
+    public List<String> getPatterns(){
+        List<String> texts = new ArrayList<>(patterns.size());
+        for (Entry entry : patterns) {
+            texts.add(entry.text);
+        }
+        return texts;
+    }
+
+    @Override
+    public boolean forEachMatch(JarClass jarClass, Predicate<ClassMatch> visitor){
+        ClassNameTable table = jarClass.getClassNames();
+        byte[] name = new byte[256];
+        // candidates[p] == i + 1 once pattern p is a candidate for class i.
+        int[] candidates = new int[patterns.size()];
+        int[] candidateList = new int[patterns.size()];
+
+        for (int i = 0; i < table.size(); i++) {
+            int length = table.canonicalNameLength(i);
+            if(name.length < length){
+                name = new byte[Math.max(length, name.length * 2)];
+            }
+            table.writeCanonicalName(i, name, 0);
+
+            boolean matched = false;
+            int candidateCount = 0;
+            int state = 0;
+            for (int pos = 0; pos < length && !matched; pos++) {
+                state = transitions[state * classCount + byteClasses[name[pos] & 0xFF]];
+                for (int p : outputs[state]) {
+                    Entry entry = patterns.get(p);
+                    if(entry.regex == null){
+                        if(entry.literalMatches(name, pos, length)){
+                            matched = true;
+                            break;
+                        }
+                    }else if(candidates[p] != i + 1){
+                        candidates[p] = i + 1;
+                        candidateList[candidateCount++] = p;
+                    }
+                }
+            }
+
+            String canonicalName = null;
+            if(!matched && (candidateCount > 0 || unfiltered.length > 0)){
+                canonicalName = table.getCanonicalName(i);
+                matched = anyMatches(candidateList, candidateCount, canonicalName)
+                        || anyMatches(unfiltered, unfiltered.length, canonicalName);
+            }
+            if(matched){
+                if(canonicalName == null){
+                    canonicalName = table.getCanonicalName(i);
+                }
+                if(!visitor.test(new ClassMatch(jarClass.getJarPath(), canonicalName))){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #forEachMatch}, telling every pattern each class matches rather than
+     * stopping at the first, e.g. to answer a batch of queries in one pass.
+     *
+     * @param jarClass a parsed jar
+     * @param visitor receives every class and pattern matching it, as long as it returns true
+     * @return false if {@code visitor} stopped the visit
+     */
+    public boolean forEachPatternMatch(JarClass jarClass, PatternVisitor visitor){
+        ClassNameTable table = jarClass.getClassNames();
+        byte[] name = new byte[256];
+        // marks[p] == i + 1 once pattern p is a candidate or a match for class i.
+        int[] candidates = new int[patterns.size()];
+        int[] candidateList = new int[patterns.size()];
+        int[] matches = new int[patterns.size()];
+        int[] matchList = new int[patterns.size()];
+
+        for (int i = 0; i < table.size(); i++) {
+            int length = table.canonicalNameLength(i);
+            if(name.length < length){
+                name = new byte[Math.max(length, name.length * 2)];
+            }
+            table.writeCanonicalName(i, name, 0);
+
+            int matchCount = 0;
+            int candidateCount = 0;
+            int state = 0;
+            for (int pos = 0; pos < length; pos++) {
+                state = transitions[state * classCount + byteClasses[name[pos] & 0xFF]];
+                for (int p : outputs[state]) {
+                    Entry entry = patterns.get(p);
+                    if(entry.regex == null){
+                        if(matches[p] != i + 1 && entry.literalMatches(name, pos, length)){
+                            matches[p] = i + 1;
+                            matchList[matchCount++] = p;
+                        }
+                    }else if(candidates[p] != i + 1){
+                        candidates[p] = i + 1;
+                        candidateList[candidateCount++] = p;
+                    }
+                }
+            }
+
+            String canonicalName = null;
+            if(candidateCount > 0 || unfiltered.length > 0){
+                canonicalName = table.getCanonicalName(i);
+                for (int c = 0; c < candidateCount; c++) {
+                    if(patterns.get(candidateList[c]).matches(canonicalName)){
+                        matchList[matchCount++] = candidateList[c];
+                    }
+                }
+                for (int p : unfiltered) {
+                    if(patterns.get(p).matches(canonicalName)){
+                        matchList[matchCount++] = p;
+                    }
+                }
+            }
+            if(matchCount > 0){
+                ClassMatch classMatch = new ClassMatch(jarClass.getJarPath(),
+                        canonicalName != null ? canonicalName : table.getCanonicalName(i));
+                Arrays.sort(matchList, 0, matchCount);
+                for (int m = 0; m < matchCount; m++) {
+                    if(!visitor.visit(matchList[m], classMatch)){
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Receives the matches of {@link #forEachPatternMatch}.
+     */
+    public interface PatternVisitor {
+        /**
+         * @param pattern the position of the matching pattern in the patterns given
+         * @param classMatch the matching class
+         * @return whether to go on
+         */
+        boolean visit(int pattern, ClassMatch classMatch);
+    }
+
+    /**
+     * @param canonicalName a canonical class name
+     * @return the patterns matching it, in the order they were given, e.g. to tell which entries
+     *     of a list a match comes from
+     */
+    public List<String> matchingPatterns(String canonicalName){
+        checkNotNull(canonicalName, "canonicalName");
+        List<String> matching = new ArrayList<>(1);
+        for (Entry entry : patterns) {
+            if(entry.matches(canonicalName)){
+                matching.add(entry.text);
+            }
+        }
+        return matching;
+    }
+
+    private boolean anyMatches(int[] patternIds, int count, String canonicalName){
+        for (int i = 0; i < count; i++) {
+            if(patterns.get(patternIds[i]).matches(canonicalName)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] toArray(List<Integer> values){
+        if(values.isEmpty()){
+            return NO_PATTERNS;
+        }
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /*
+       a compiled pattern: a class name matched by its keyword alone, or a glob or regex the
+       keyword only makes a candidate. the keyword of a glob or regex is a run of characters
+       every match holds, empty when none could be found.
+     */
+    private static final class Entry {
+        private final String text;
+        private final ClassSearchIndex.MatchType matchType;
+        private final String literal;
+        private final byte[] keyword;
+        private final Pattern regex;
+        private final boolean find;
+
+        private Entry(String text, ClassSearchIndex.MatchType matchType, String literal, String keyword,
+                      Pattern regex, boolean find){
+            this.text = text;
+            this.matchType = matchType;
+            this.literal = literal;
+            this.keyword = ClassNameTable.utf8(keyword);
+            this.regex = regex;
+            this.find = find;
+        }
+
+        private static Entry compile(String text, ClassSearchIndex.MatchType matchType){
+            if(text.startsWith(REGEX_PREFIX)){
+                String regex = text.substring(REGEX_PREFIX.length());
+                return new Entry(text, matchType, null, requiredLiteral(regex), Pattern.compile(regex), true);
+            }
+            if(text.startsWith(GLOB_PREFIX) || isPattern(text)){
+                String glob = text.startsWith(GLOB_PREFIX) ? text.substring(GLOB_PREFIX.length()) : text;
+                StringBuilder regex = new StringBuilder();
+                String longest = "";
+                int start = 0;
+                for (int i = 0; i <= glob.length(); i++) {
+                    if(i == glob.length() || glob.charAt(i) == '*' || glob.charAt(i) == '?'){
+                        String run = glob.substring(start, i);
+                        if(run.length() > longest.length()){
+                            longest = run;
+                        }
+                        if(!run.isEmpty()){
+                            regex.append(Pattern.quote(run));
+                        }
+                        if(i < glob.length()){
+                            regex.append(glob.charAt(i) == '*' ? ".*" : ".");
+                        }
+                        start = i + 1;
+                    }
+                }
+                return new Entry(text, matchType, null, longest, Pattern.compile(regex.toString()), false);
+            }
+            // the simple name of a class never holds a dot.
+            boolean possible = matchType != ClassSearchIndex.MatchType.SIMPLE_NAME || text.indexOf('.') < 0;
+            return new Entry(text, matchType, text, possible ? text : "", null, false);
+        }
+
+        /*
+           whether a class name matches, knowing the keyword ends at pos of name.
+         */
+        private boolean literalMatches(byte[] name, int pos, int length){
+            int start = pos - keyword.length + 1;
+            switch (matchType) {
+                case EXACT:
+                    return start == 0 && pos == length - 1;
+                case SIMPLE_NAME:
+                    return pos == length - 1 && (start == 0 || name[start - 1] == '.');
+                case PREFIX:
+                    return start == 0;
+                case SUBSTRING:
+                    return true;
+                default:
+                    throw new IllegalArgumentException("unknown match type: " + matchType);
+            }
+        }
+
+        private boolean matches(String canonicalName){
+            if(regex != null){
+                return find ? regex.matcher(canonicalName).find() : regex.matcher(canonicalName).matches();
+            }
+            switch (matchType) {
+                case EXACT:
+                    return canonicalName.equals(literal);
+                case SIMPLE_NAME:
+                    return literal.indexOf('.') < 0
+                            && (canonicalName.equals(literal) || canonicalName.endsWith("." + literal));
+                case PREFIX:
+                    return canonicalName.startsWith(literal);
+                case SUBSTRING:
+                    return canonicalName.contains(literal);
+                default:
+                    throw new IllegalArgumentException("unknown match type: " + matchType);
+            }
+        }
+
+        /*
+           the longest run of plain characters every match of regex holds, found conservatively:
+           only outside groups and character classes, and not at all when the regex has
+           alternatives, flags or quoting, which could make any run optional.
+         */
+        private static String requiredLiteral(String regex){
+            if(regex.indexOf('|') >= 0 || regex.contains("(?") || regex.contains("\\Q")){
+                return "";
+            }
+            String longest = "";
+            StringBuilder run = new StringBuilder();
+            int depth = 0;
+            boolean inClass = false;
+            for (int i = 0; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if(inClass){
+                    if(c == '\\'){
+                        i++;
+                    }else if(c == ']'){
+                        inClass = false;
+                    }
+                    continue;
+                }
+
+                char literal = 0;
+                if(c == '\\'){
+                    char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+                    i++;
+                    // \. or \$ stand for themselves, \d or \x24 for a character not spelled out.
+                    if(next != 0 && !Character.isLetterOrDigit(next)){
+                        literal = next;
+                    }else if(next != 0){
+                        i = escapeEnd(regex, i);
+                    }
+                }else if(c == '*' || c == '?' || c == '{'){
+                    // the character before may be absent.
+                    if(run.length() > 0){
+                        run.setLength(run.length() - 1);
+                    }
+                    if(c == '{'){
+                        int close = regex.indexOf('}', i);
+                        i = close < 0 ? regex.length() : close;
+                    }
+                }else if(c == '['){
+                    inClass = true;
+                }else if(c == '('){
+                    depth++;
+                }else if(c == ')'){
+                    depth--;
+                }else if(c != '.' && c != '^' && c != '$' && c != '+'){
+                    literal = c;
+                }
+
+                if(literal != 0 && depth == 0){
+                    run.append(literal);
+                }else{
+                    if(run.length() > longest.length()){
+                        longest = run.toString();
+                    }
+                    run.setLength(0);
+                }
+            }
+            return run.length() > longest.length() ? run.toString() : longest;
+        }
+
+        /*
+           the index of the last character of the escape whose letter or digit is at, so that
+           the hex, octal, control or property characters of \x24, \0101, \cX or \p{Lu} are
+           not taken for literals.
+         */
+        private static int escapeEnd(String regex, int at){
+            int end = at;
+            switch (regex.charAt(at)) {
+                case 'x':
+                    end = at + 1 < regex.length() && regex.charAt(at + 1) == '{'
+                            ? regex.indexOf('}', at) : at + 2;
+                    break;
+                case 'u':
+                    end = at + 4;
+                    break;
+                case '0':
+                    while(end + 1 < regex.length() && end - at < 3 && regex.charAt(end + 1) >= '0'
+                            && regex.charAt(end + 1) <= '7'){
+                        end++;
+                    }
+                    break;
+                case 'c':
+                    end = at + 1;
+                    break;
+                case 'p':
+                case 'P':
+                case 'N':
+                    end = at + 1 < regex.length() && regex.charAt(at + 1) == '{'
+                            ? regex.indexOf('}', at) : at + 1;
+                    break;
+                case 'k':
+                    end = regex.indexOf('>', at);
+                    break;
+                default:
+                    // a back reference takes every digit that follows.
+                    while(Character.isDigit(regex.charAt(at)) && end + 1 < regex.length()
+                            && Character.isDigit(regex.charAt(end + 1))){
+                        end++;
+                    }
+            }
+            return end < 0 ? regex.length() : Math.min(end, regex.length() - 1);
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassMatch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/**
+ * A reverse reference index: for every class, field and method referred to by the constant pool
+ * of an indexed class, the classes referring to it, see {@link
+ * com.github.clazz.classfile.ClassFileReader#forEachReference}. Symbols are canonical class names
+ * such as {@code java.util.HashMap} and {@code owner#name} for fields and methods, such as {@code
+ * java.util.HashMap#put}; a class referring to a member of another class always refers to that
+ * class too.
+ *
+ * <p>The index is built once by a {@link Builder} and written to a file laid out to be memory
+ * mapped: jar paths, referring classes and symbols sorted by their UTF-8 bytes, each as an offset
+ * table and an arena, then for every symbol the ascending ids of the classes referring to it.
+ * {@link #open} maps the file and a lookup binary searches the symbols in place, so only the
+ * pages a query touches are read, whatever the size of the index. An open index can be queried
+ * from any number of threads.
+ */
+public final class ReferenceIndex implements Closeable {
+    private static final int MAGIC = 0x4A524958; // "JRIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 6 * Integer.BYTES;
+
+    private final Path indexFile;
+    private volatile ByteBuffer buffer;
+    private final int jarCount;
+    private final int classCount;
+    private final int symbolCount;
+    private final int jarOffsetsPos;
+    private final int jarArenaPos;
+    private final int classJarsPos;
+    private final int classNameOffsetsPos;
+    private final int classNameArenaPos;
+    private final int symbolOffsetsPos;
+    private final int symbolArenaPos;
+    private final int postingStartsPos;
+    private final int postingsPos;
+
+    private ReferenceIndex(Path indexFile, ByteBuffer buffer) throws IOException {
+        this.indexFile = indexFile;
+        this.buffer = buffer;
+        if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC){
+            throw new IOException("not a reference index: " + indexFile);
+        }
+        if(buffer.getInt(4) != VERSION){
+            throw new IOException("reference index " + indexFile + " has version " + buffer.getInt(4)
+                    + ", expected " + VERSION + ", rebuild it");
+        }
+        jarCount = buffer.getInt(8);
+        classCount = buffer.getInt(12);
+        symbolCount = buffer.getInt(16);
+        int postingCount = buffer.getInt(20);
+        if(jarCount < 0 || classCount < 0 || symbolCount < 0 || postingCount < 0){
+            throw new IOException("corrupt reference index: " + indexFile);
+        }
+
+        long pos = HEADER_SIZE;
+        jarOffsetsPos = section(pos);
+        pos += (long) Integer.BYTES * (jarCount + 1);
+        jarArenaPos = section(pos);
+        pos += arenaLength(jarOffsetsPos, jarCount);
+        classJarsPos = section(pos);
+        pos += (long) Integer.BYTES * classCount;
+        classNameOffsetsPos = section(pos);
+        pos += (long) Integer.BYTES * (classCount + 1);
+        classNameArenaPos = section(pos);
+        pos += arenaLength(classNameOffsetsPos, classCount);
+        symbolOffsetsPos = section(pos);
+        pos += (long) Integer.BYTES * (symbolCount + 1);
+        symbolArenaPos = section(pos);
+        pos += arenaLength(symbolOffsetsPos, symbolCount);
+        postingStartsPos = section(pos);
+        pos += (long) Integer.BYTES * (symbolCount + 1);
+        postingsPos = section(pos);
+        pos += (long) Integer.BYTES * postingCount;
+        if(pos != buffer.limit()){
+            throw new IOException("corrupt reference index: " + indexFile);
+        }
+    }
+
+    /**
+     * Returns the default reference index file, {@code ~/.class-inspections/references.idx}.
+     *
+     * @return the default reference index file path
+     */
+    public static Path defaultIndexFile(){
+        return JarClassIndex.defaultIndexFile().resolveSibling("references.idx");
+    }
+
+    /**
+     * Map a reference index file written by {@link Builder#write}.
+     *
+     * @param indexFile the index file
+     * @return the open index
+     * @throws IOException if the file cannot be mapped or is not a reference index
+     */
+    public static ReferenceIndex open(Path indexFile) throws IOException {
+        checkNotNull(indexFile, "indexFile");
+        try(FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE){
+                throw new IOException("reference index " + indexFile + " is too large to map: " + size);
+            }
+            // the mapping outlives the channel.
+            return new ReferenceIndex(indexFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    public static Builder builder(){
+        return new Builder();
+    }
+
+    public Path getIndexFile(){
+        return indexFile;
+    }
+
+    public int getJarCount(){
+        return jarCount;
+    }
+
+    /**
+     * @return the number of indexed classes, counting a class once per jar holding it
+     */
+    public int getClassCount(){
+        return classCount;
+    }
+
+    public int getSymbolCount(){
+        return symbolCount;
+    }
+
+    /**
+     * Hand every class referring to {@code symbol} to {@code visitor}, grouped by jar in jar path
+     * order, then in class name order.
+     *
+     * @param symbol a canonical class name, or {@code owner#name} for a field or method
+     * @param visitor receives the referring classes, returns false to stop
+     * @return the number of referring classes handed to {@code visitor}
+     */
+    public long forEachReferrer(String symbol, Predicate<ClassMatch> visitor){
+        checkNotNull(symbol, "symbol");
+        checkNotNull(visitor, "visitor");
+        int id = findSymbol(symbol.getBytes(StandardCharsets.UTF_8));
+        if(id < 0){
+            return 0;
+        }
+
+        ByteBuffer view = buffer();
+        int start = view.getInt(postingStartsPos + Integer.BYTES * id);
+        int end = view.getInt(postingStartsPos + Integer.BYTES * (id + 1));
+        long count = 0;
+        for (int i = start; i < end; i++) {
+            int classId = view.getInt(postingsPos + Integer.BYTES * i);
+            int jar = view.getInt(classJarsPos + Integer.BYTES * classId);
+            count++;
+            if(!visitor.test(new ClassMatch(string(view, jarOffsetsPos, jarArenaPos, jar),
+                    string(view, classNameOffsetsPos, classNameArenaPos, classId)))){
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param symbol a canonical class name, or {@code owner#name} for a field or method
+     * @return the number of classes referring to {@code symbol}
+     */
+    public int getReferrerCount(String symbol){
+        checkNotNull(symbol, "symbol");
+        int id = findSymbol(symbol.getBytes(StandardCharsets.UTF_8));
+        if(id < 0){
+            return 0;
+        }
+        ByteBuffer view = buffer();
+        return view.getInt(postingStartsPos + Integer.BYTES * (id + 1)) - view.getInt(postingStartsPos + Integer.BYTES * id);
+    }
+
+    /**
+     * Unmap the index. The mapping is released once garbage collected.
+     */
+    @Override
+    public void close(){
+        buffer = null;
+    }
+
+    private ByteBuffer buffer(){
+        ByteBuffer view = buffer;
+        if(view == null){
+            throw new IllegalStateException("reference index closed: " + indexFile);
+        }
+        return view;
+    }
+
+    private int findSymbol(byte[] symbol){
+        ByteBuffer view = buffer();
+        int low = 0;
+        int high = symbolCount - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            int cmp = compare(view, mid, symbol);
+            if(cmp < 0){
+                low = mid + 1;
+            }else if(cmp > 0){
+                high = mid - 1;
+            }else{
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // the symbol with the given id compared to key, both as unsigned UTF-8 bytes.
+    private int compare(ByteBuffer view, int id, byte[] key){
+        int start = view.getInt(symbolOffsetsPos + Integer.BYTES * id);
+        int length = view.getInt(symbolOffsetsPos + Integer.BYTES * (id + 1)) - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (view.get(symbolArenaPos + start + i) & 0xFF) - (key[i] & 0xFF);
+            if(cmp != 0){
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private static String string(ByteBuffer view, int offsetsPos, int arenaPos, int index){
+        int start = view.getInt(offsetsPos + Integer.BYTES * index);
+        int end = view.getInt(offsetsPos + Integer.BYTES * (index + 1));
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = view.get(arenaPos + start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int section(long pos) throws IOException {
+        if(pos > buffer.limit()){
+            throw new IOException("corrupt reference index: " + indexFile);
+        }
+        return (int) pos;
+    }
+
+    private long arenaLength(int offsetsPos, int count) throws IOException {
+        if(offsetsPos + (long) Integer.BYTES * (count + 1) > buffer.limit()){
+            throw new IOException("corrupt reference index: " + indexFile);
+        }
+        return buffer.getInt(offsetsPos + Integer.BYTES * count);
+    }
+
+    /**
+     * Collects the references of classes, then writes them as a reference index file. Not
+     * thread safe, feed it from a single thread such as the consumer of {@link
+     * com.github.clazz.utils.JarPipeline#run}. Symbols are interned as they come, each
+     * reference then takes an int on the heap.
+     */
+    public static final class Builder {
+        private final Map<String, Integer> jarIds = new HashMap<>();
+        private final List<String> jarPaths = new ArrayList<>();
+        private final Map<String, Integer> symbolIds = new HashMap<>();
+        private final List<String> symbols = new ArrayList<>();
+        private final List<String> classNames = new ArrayList<>();
+        private int[] classJars = new int[1024];
+        // the symbols of class c are refs[refStarts[c], refStarts[c + 1]).
+        private int[] refStarts = new int[1025];
+        private int[] refs = new int[16 * 1024];
+        private int refCount;
+
+        private Builder(){
+        }
+
+        /**
+         * @param jarPath the jar holding the class
+         * @param canonicalName the class
+         * @param referencedSymbols the symbols the class refers to, each once
+         * @return this builder
+         */
+        public Builder add(String jarPath, String canonicalName, Collection<String> referencedSymbols){
+            checkNotNull(jarPath, "jarPath");
+            checkNotNull(canonicalName, "canonicalName");
+            checkNotNull(referencedSymbols, "referencedSymbols");
+
+            Integer jar = jarIds.get(jarPath);
+            if(jar == null){
+                jar = jarPaths.size();
+                jarIds.put(jarPath, jar);
+                jarPaths.add(jarPath);
+            }
+            int classId = classNames.size();
+            if(classId == classJars.length){
+                classJars = Arrays.copyOf(classJars, classJars.length * 2);
+                refStarts = Arrays.copyOf(refStarts, classJars.length + 1);
+            }
+            classNames.add(canonicalName);
+            classJars[classId] = jar;
+
+            if((long) refCount + referencedSymbols.size() > Integer.MAX_VALUE - 8){
+                throw new IllegalStateException("too many references for one index");
+            }
+            if(refCount + referencedSymbols.size() > refs.length){
+                refs = Arrays.copyOf(refs, (int) Math.min(Integer.MAX_VALUE - 8,
+                        Math.max((long) refs.length * 2, refCount + referencedSymbols.size())));
+            }
+            for (String symbol : referencedSymbols) {
+                Integer symbolId = symbolIds.get(symbol);
+                if(symbolId == null){
+                    symbolId = symbols.size();
+                    symbolIds.put(symbol, symbolId);
+                    symbols.add(symbol);
+                }
+                refs[refCount++] = symbolId;
+            }
+            refStarts[classId + 1] = refCount;
+            return this;
+        }
+
+        public int getClassCount(){
+            return classNames.size();
+        }
+
+        public int getSymbolCount(){
+            return symbols.size();
+        }
+
+        public long getReferenceCount(){
+            return refCount;
+        }
+
+        /**
+         * Write the index. The file is replaced atomically, so a concurrent query never maps a
+         * half written index.
+         *
+         * @param indexFile the index file
+         * @throws IOException if the index file cannot be written
+         */
+        public void write(Path indexFile) throws IOException {
+            checkNotNull(indexFile, "indexFile");
+            int classCount = classNames.size();
+            int symbolCount = symbols.size();
+
+            // jars by path, classes by jar then name, symbols by their UTF-8 bytes.
+            Integer[] jarOrder = order(jarPaths.size(), Comparator.comparing(jarPaths::get));
+            int[] jarRanks = ranks(jarOrder);
+            Integer[] classOrder = order(classCount, (a, b) -> {
+                int cmp = Integer.compare(jarRanks[classJars[a]], jarRanks[classJars[b]]);
+                return cmp != 0 ? cmp : classNames.get(a).compareTo(classNames.get(b));
+            });
+            byte[][] encodedSymbols = new byte[symbolCount][];
+            for (int s = 0; s < symbolCount; s++) {
+                encodedSymbols[s] = symbols.get(s).getBytes(StandardCharsets.UTF_8);
+            }
+            Integer[] symbolOrder = order(symbolCount, (a, b) -> compare(encodedSymbols[a], encodedSymbols[b]));
+            int[] symbolRanks = ranks(symbolOrder);
+
+            // postings: referring classes of every symbol, filled in class order so they ascend.
+            int[] postingStarts = new int[symbolCount + 1];
+            for (int r = 0; r < refCount; r++) {
+                postingStarts[symbolRanks[refs[r]] + 1]++;
+            }
+            for (int s = 0; s < symbolCount; s++) {
+                postingStarts[s + 1] += postingStarts[s];
+            }
+            int[] fill = Arrays.copyOf(postingStarts, symbolCount);
+            int[] postings = new int[refCount];
+            for (int c = 0; c < classCount; c++) {
+                int classId = classOrder[c];
+                for (int r = refStarts[classId]; r < refStarts[classId + 1]; r++) {
+                    postings[fill[symbolRanks[refs[r]]]++] = c;
+                }
+            }
+
+            Path parent = indexFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tempFile = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+            try{
+                try(DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))){
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(jarPaths.size());
+                    out.writeInt(classCount);
+                    out.writeInt(symbolCount);
+                    out.writeInt(refCount);
+
+                    byte[][] jars = new byte[jarOrder.length][];
+                    for (int j = 0; j < jars.length; j++) {
+                        jars[j] = jarPaths.get(jarOrder[j]).getBytes(StandardCharsets.UTF_8);
+                    }
+                    writeStrings(out, jars);
+
+                    byte[][] names = new byte[classCount][];
+                    for (int c = 0; c < classCount; c++) {
+                        out.writeInt(jarRanks[classJars[classOrder[c]]]);
+                        names[c] = classNames.get(classOrder[c]).getBytes(StandardCharsets.UTF_8);
+                    }
+                    writeStrings(out, names);
+
+                    byte[][] sortedSymbols = new byte[symbolCount][];
+                    for (int s = 0; s < symbolCount; s++) {
+                        sortedSymbols[s] = encodedSymbols[symbolOrder[s]];
+                    }
+                    writeStrings(out, sortedSymbols);
+
+                    for (int start : postingStarts) {
+                        out.writeInt(start);
+                    }
+                    for (int posting : postings) {
+                        out.writeInt(posting);
+                    }
+                    if(out.size() == Integer.MAX_VALUE){
+                        // the counter stops there: past 2 GiB, the file could not be mapped.
+                        throw new IOException("reference index too large to map: " + indexFile);
+                    }
+                }
+
+                try{
+                    Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }catch (AtomicMoveNotSupportedException amnse){
+                    Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        private static void writeStrings(DataOutputStream out, byte[][] strings) throws IOException {
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] string : strings) {
+                offset += string.length;
+                out.writeInt(offset);
+            }
+            for (byte[] string : strings) {
+                out.write(string);
+            }
+        }
+
+        private static Integer[] order(int count, Comparator<Integer> comparator){
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, comparator);
+            return order;
+        }
+
+        private static int[] ranks(Integer[] order){
+            int[] ranks = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                ranks[order[i]] = i;
+            }
+            return ranks;
+        }
+
+        private static int compare(byte[] a, byte[] b){
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; i++) {
+                int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if(cmp != 0){
+                    return cmp;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.clazz.index;
+
+import java.util.Arrays;
+
+/*
+   an inverted index from byte trigrams to the ids of the strings holding them.
+   trigrams are hashed into a fixed number of buckets and the posting list of
+   every bucket is stored as delta-encoded varints in one byte array, so the
+   index stays small. bucket collisions only add candidates: callers must
+   verify every candidate against the query.
+ */
+final class TrigramIndex {
+    private static final int MIN_BUCKET_BITS = 10;
+    private static final int MAX_BUCKET_BITS = 20;
+
+    interface Source {
+        int size();
+
+        /* the length of string id, in bytes. */
+        int length(int id);
+
+        /* copy the bytes of string id into dst, which has room for length(id) bytes. */
+        void write(int id, byte[] dst);
+    }
+
+    private final int bucketBits;
+    private final int[] offsets;
+    private final byte[] postings;
+
+    private TrigramIndex(int bucketBits, int[] offsets, byte[] postings){
+        this.bucketBits = bucketBits;
+        this.offsets = offsets;
+        this.postings = postings;
+    }
+
+    static TrigramIndex build(Source source){
+        int size = source.size();
+        int bucketBits = MIN_BUCKET_BITS;
+        while(bucketBits < MAX_BUCKET_BITS && (1 << bucketBits) < size * 2){
+            bucketBits++;
+        }
+        int buckets = 1 << bucketBits;
+
+        // pass 1 sizes every posting list, pass 2 writes them.
+        long[] sizes = new long[buckets];
+        int[] last = new int[buckets];
+        Arrays.fill(last, -1);
+        byte[] scratch = new byte[256];
+        for (int id = 0; id < size; id++) {
+            scratch = load(source, id, scratch);
+            int length = source.length(id);
+            for (int i = 0; i + 3 <= length; i++) {
+                int bucket = bucket(scratch, i, bucketBits);
+                if(last[bucket] != id){
+                    sizes[bucket] += varintLength(id - last[bucket]);
+                    last[bucket] = id;
+                }
+            }
+        }
+
+        int[] offsets = new int[buckets + 1];
+        long total = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            offsets[bucket] = (int) total;
+            total += sizes[bucket];
+            if(total > Integer.MAX_VALUE){
+                throw new IllegalStateException("trigram index too large: " + total + " bytes");
+            }
+        }
+        offsets[buckets] = (int) total;
+
+        byte[] postings = new byte[(int) total];
+        int[] positions = Arrays.copyOf(offsets, buckets);
+        Arrays.fill(last, -1);
+        for (int id = 0; id < size; id++) {
+            scratch = load(source, id, scratch);
+            int length = source.length(id);
+            for (int i = 0; i + 3 <= length; i++) {
+                int bucket = bucket(scratch, i, bucketBits);
+                if(last[bucket] != id){
+                    positions[bucket] = writeVarint(postings, positions[bucket], id - last[bucket]);
+                    last[bucket] = id;
+                }
+            }
+        }
+
+        return new TrigramIndex(bucketBits, offsets, postings);
+    }
+
+    /**
+     * Returns the ids of the strings that may contain {@code query}, in ascending order.
+     *
+     * @param query the bytes to look for
+     * @return candidate ids, or null when the query is shorter than a trigram and every string
+     *     is a candidate
+     */
+    int[] candidates(byte[] query){
+        if(query.length < 3){
+            return null;
+        }
+
+        // the rarest trigram of the query gives the shortest candidate list.
+        int best = -1;
+        int bestSize = Integer.MAX_VALUE;
+        for (int i = 0; i + 3 <= query.length; i++) {
+            int bucket = bucket(query, i, bucketBits);
+            int size = offsets[bucket + 1] - offsets[bucket];
+            if(size < bestSize){
+                best = bucket;
+                bestSize = size;
+            }
+        }
+
+        // every posting takes at least a byte.
+        int[] ids = new int[bestSize];
+        int count = 0;
+        int pos = offsets[best];
+        int end = offsets[best + 1];
+        int id = -1;
+        while(pos < end){
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do{
+                b = postings[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            }while(b < 0);
+            id += delta;
+            ids[count++] = id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    long estimatedBytes(){
+        return postings.length + 4L * offsets.length;
+    }
+
+    private static byte[] load(Source source, int id, byte[] scratch){
+        int length = source.length(id);
+        if(scratch.length < length){
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        source.write(id, scratch);
+        return scratch;
+    }
+
+    private static int bucket(byte[] bytes, int offset, int bucketBits){
+        int trigram = (bytes[offset] & 0xFF) << 16 | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF);
+        return (trigram * 0x9E3779B1) >>> (32 - bucketBits);
+    }
+
+    private static int varintLength(int value){
+        int length = 1;
+        while((value >>>= 7) != 0){
+            length++;
+        }
+        return length;
+    }
+
+    private static int writeVarint(byte[] dst, int pos, int value){
+        while((value & ~0x7F) != 0){
+            dst[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+}
@@ -0,0 +1,379 @@
+package com.github.clazz.metrics;
+
+import com.github.clazz.utils.Utils;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers of the scan stages, shared by every thread of a scan. Times are {@link
+ * System#nanoTime()} deltas. Every parsed jar file also feeds a histogram of parse latencies,
+ * with power of two microsecond buckets, and a report of the slowest jars, so the jars that
+ * dominate a scan can be found. The metrics are written as JSON lines by {@link
+ * #writeJsonLines} and read through JMX once {@link #registerMBean()} was called.
+ */
+public final class ScanMetrics implements ScanMetricsMXBean {
+    /** the JMX name of the registered metrics. */
+    public static final String OBJECT_NAME = "com.github.clazz:type=ScanMetrics";
+    /** how many of the slowest jars are kept by default. */
+    public static final int DEFAULT_SLOWEST_JARS = 10;
+
+    // bucket i holds the latencies of [2^(i-1), 2^i) microseconds, bucket 0 those under 1.
+    private static final int BUCKETS = 64;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    /**
+     * The stages of a scan.
+     */
+    public enum Stage {
+        /** listing the jar files of a directory. */
+        WALK,
+        /** opening a jar file and reading its central directory. */
+        OPEN,
+        /** reading the class names of a jar file and of the archives nested in it. */
+        PARSE,
+        /** matching the class names of a jar against a query. */
+        MATCH
+    }
+
+    private final int slowestCapacity;
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final LongAdder[] stageCounts = new LongAdder[Stage.values().length];
+    private final LongAdder jarsParsed = new LongAdder();
+    private final LongAdder jarsFailed = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder entriesVisited = new LongAdder();
+    private final LongAdder classesFound = new LongAdder();
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+    // the fastest of the slowest jars first, so it is the one dropped.
+    private final PriorityQueue<JarTiming> slowest;
+
+    public ScanMetrics(){
+        this(DEFAULT_SLOWEST_JARS);
+    }
+
+    /**
+     * @param slowestCapacity how many of the slowest jars to keep
+     */
+    public ScanMetrics(int slowestCapacity){
+        if(slowestCapacity < 0){
+            throw new IllegalArgumentException("slowestCapacity must not be negative: " + slowestCapacity);
+        }
+        this.slowestCapacity = slowestCapacity;
+        this.slowest = new PriorityQueue<>(Math.max(1, slowestCapacity),
+                Comparator.comparingLong(JarTiming::getParseNanos));
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+            stageCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Add one run of {@code stage}.
+     *
+     * @param stage the stage
+     * @param nanos how long it took
+     */
+    public void record(Stage stage, long nanos){
+        stageNanos[stage.ordinal()].add(nanos);
+        stageCounts[stage.ordinal()].increment();
+    }
+
+    /**
+     * Add a parsed jar file.
+     *
+     * @param jarPath the jar file
+     * @param parseNanos how long it took to open and parse, nested archives included
+     * @param bytes the bytes read from it
+     * @param entries the entries visited, nested archives included
+     * @param classes the class names found, nested archives included
+     */
+    public void recordJar(String jarPath, long parseNanos, long bytes, long entries, long classes){
+        jarsParsed.increment();
+        bytesRead.add(bytes);
+        entriesVisited.add(entries);
+        classesFound.add(classes);
+
+        long micros = parseNanos / 1000;
+        latencyBuckets.incrementAndGet(micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros));
+        maxLatencyNanos.accumulate(parseNanos);
+
+        if(slowestCapacity == 0){
+            return;
+        }
+        synchronized (slowest){
+            if(slowest.size() < slowestCapacity){
+                slowest.add(new JarTiming(jarPath, parseNanos, bytes, entries, classes));
+            }else if(slowest.peek().parseNanos < parseNanos){
+                slowest.poll();
+                slowest.add(new JarTiming(jarPath, parseNanos, bytes, entries, classes));
+            }
+        }
+    }
+
+    /**
+     * Add a jar file that failed to parse.
+     */
+    public void recordFailedJar(){
+        jarsFailed.increment();
+    }
+
+    public long getStageNanos(Stage stage){
+        return stageNanos[stage.ordinal()].sum();
+    }
+
+    public long getStageCount(Stage stage){
+        return stageCounts[stage.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getStageNanos(){
+        Map<String, Long> nanos = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            nanos.put(stageName(stage), getStageNanos(stage));
+        }
+        return nanos;
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts(){
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            counts.put(stageName(stage), getStageCount(stage));
+        }
+        return counts;
+    }
+
+    @Override
+    public long getJarsParsed(){
+        return jarsParsed.sum();
+    }
+
+    @Override
+    public long getJarsFailed(){
+        return jarsFailed.sum();
+    }
+
+    @Override
+    public long getBytesRead(){
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getEntriesVisited(){
+        return entriesVisited.sum();
+    }
+
+    @Override
+    public long getClassesFound(){
+        return classesFound.sum();
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return an upper bound of that percentile of the per-jar parse latency, in microseconds,
+     *     within a factor of two; 0 when no jar was parsed
+     */
+    public long getParseLatencyMicros(double percentile){
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = latencyBuckets.get(i);
+            total += buckets[i];
+        }
+        if(total == 0){
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        long maxMicros = maxLatencyNanos.get() / 1000;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if(seen >= rank && seen > 0){
+                // the top of the bucket, never above the slowest jar seen.
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    @Override
+    public Map<String, Long> getParseLatencyMicros(){
+        Map<String, Long> latencies = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            latencies.put(percentileName(percentile), getParseLatencyMicros(percentile));
+        }
+        latencies.put("max", maxLatencyNanos.get() / 1000);
+        return latencies;
+    }
+
+    /**
+     * @return the slowest jars to parse, slowest first
+     */
+    public List<JarTiming> getSlowest(){
+        List<JarTiming> timings;
+        synchronized (slowest){
+            timings = new ArrayList<>(slowest);
+        }
+        timings.sort(Comparator.comparingLong(JarTiming::getParseNanos).reversed());
+        return timings;
+    }
+
+    @Override
+    public String[] getSlowestJars(){
+        List<JarTiming> timings = getSlowest();
+        String[] jars = new String[timings.size()];
+        for (int i = 0; i < jars.length; i++) {
+            jars[i] = timings.get(i).jarPath + ":" + timings.get(i).parseNanos / 1000;
+        }
+        return jars;
+    }
+
+    @Override
+    public void reset(){
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i].reset();
+            stageCounts[i].reset();
+        }
+        jarsParsed.reset();
+        jarsFailed.reset();
+        bytesRead.reset();
+        entriesVisited.reset();
+        classesFound.reset();
+        for (int i = 0; i < BUCKETS; i++) {
+            latencyBuckets.set(i, 0);
+        }
+        maxLatencyNanos.reset();
+        synchronized (slowest){
+            slowest.clear();
+        }
+    }
+
+    /**
+     * Write the metrics as JSON lines, one object per line: a "stage" line per stage, a
+     * "counters" line, a "parse_latency" line with the percentiles and the non-empty buckets of
+     * the histogram, then a "slow_jar" line per slowest jar, slowest first. Every line carries
+     * the wall clock time it was written at, so appending several runs to a file keeps them
+     * apart.
+     *
+     * @param out where to write
+     * @throws IOException if {@code out} fails
+     */
+    public void writeJsonLines(Appendable out) throws IOException {
+        String timestamp = "{\"timestamp\":" + System.currentTimeMillis() + ",\"type\":";
+
+        for (Stage stage : Stage.values()) {
+            out.append(timestamp).append("\"stage\",\"stage\":");
+            Utils.appendJsonString(out, stageName(stage));
+            out.append(",\"nanos\":").append(String.valueOf(getStageNanos(stage)))
+                    .append(",\"count\":").append(String.valueOf(getStageCount(stage))).append("}\n");
+        }
+
+        out.append(timestamp).append("\"counters\"")
+                .append(",\"jars_parsed\":").append(String.valueOf(getJarsParsed()))
+                .append(",\"jars_failed\":").append(String.valueOf(getJarsFailed()))
+                .append(",\"bytes_read\":").append(String.valueOf(getBytesRead()))
+                .append(",\"entries_visited\":").append(String.valueOf(getEntriesVisited()))
+                .append(",\"classes_found\":").append(String.valueOf(getClassesFound())).append("}\n");
+
+        out.append(timestamp).append("\"parse_latency\"");
+        for (Map.Entry<String, Long> latency : getParseLatencyMicros().entrySet()) {
+            out.append(",\"").append(latency.getKey()).append("_micros\":").append(String.valueOf(latency.getValue()));
+        }
+        // upper bound in microseconds of every non-empty bucket, with its jar count.
+        out.append(",\"buckets\":{");
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = latencyBuckets.get(i);
+            if(count > 0){
+                out.append(first ? "\"" : ",\"").append(String.valueOf(i == 0 ? 0 : (1L << i) - 1))
+                        .append("\":").append(String.valueOf(count));
+                first = false;
+            }
+        }
+        out.append("}}\n");
+
+        for (JarTiming timing : getSlowest()) {
+            out.append(timestamp).append("\"slow_jar\",\"jar\":");
+            Utils.appendJsonString(out, timing.jarPath);
+            out.append(",\"parse_nanos\":").append(String.valueOf(timing.parseNanos))
+                    .append(",\"bytes\":").append(String.valueOf(timing.bytes))
+                    .append(",\"entries\":").append(String.valueOf(timing.entries))
+                    .append(",\"classes\":").append(String.valueOf(timing.classes)).append("}\n");
+        }
+    }
+
+    /**
+     * Register these metrics with the platform MBean server as {@value #OBJECT_NAME}, replacing
+     * metrics registered before.
+     *
+     * @throws JMException if they cannot be registered
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        try{
+            server.registerMBean(this, name);
+        }catch (InstanceAlreadyExistsException iaee){
+            server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        }
+    }
+
+    private static String stageName(Stage stage){
+        return stage.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String percentileName(double percentile){
+        return "p" + Math.round(percentile * 100);
+    }
+
+    /**
+     * How long a jar file took to parse.
+     */
+    public static final class JarTiming {
+        private final String jarPath;
+        private final long parseNanos;
+        private final long bytes;
+        private final long entries;
+        private final long classes;
+
+        private JarTiming(String jarPath, long parseNanos, long bytes, long entries, long classes){
+            this.jarPath = jarPath;
+            this.parseNanos = parseNanos;
+            this.bytes = bytes;
+            this.entries = entries;
+            this.classes = classes;
+        }
+
+        public String getJarPath(){
+            return jarPath;
+        }
+
+        public long getParseNanos(){
+            return parseNanos;
+        }
+
+        public long getBytes(){
+            return bytes;
+        }
+
+        public long getEntries(){
+            return entries;
+        }
+
+        public long getClasses(){
+            return classes;
+        }
+    }
+}
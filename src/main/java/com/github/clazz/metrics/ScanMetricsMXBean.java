@@ -0,0 +1,41 @@
+package com.github.clazz.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link ScanMetrics}, registered as {@value ScanMetrics#OBJECT_NAME}.
+ */
+public interface ScanMetricsMXBean {
+    /**
+     * @return the total time spent in each stage, in nanoseconds, by stage name
+     */
+    Map<String, Long> getStageNanos();
+
+    /**
+     * @return how many times each stage ran, by stage name
+     */
+    Map<String, Long> getStageCounts();
+
+    long getJarsParsed();
+
+    long getJarsFailed();
+
+    long getBytesRead();
+
+    long getEntriesVisited();
+
+    long getClassesFound();
+
+    /**
+     * @return the 50th, 90th, 99th percentiles and the maximum of the per-jar parse latency, in
+     *     microseconds, by name
+     */
+    Map<String, Long> getParseLatencyMicros();
+
+    /**
+     * @return the slowest jars to parse, slowest first, as "path:micros"
+     */
+    String[] getSlowestJars();
+
+    void reset();
+}
@@ -0,0 +1,44 @@
+package com.github.clazz.model;
+
+/**
+ * A class found by a query: the jar holding it and its canonical name.
+ */
+public final class ClassMatch {
+    private final String jarPath;
+    private final String canonicalName;
+
+    public ClassMatch(String jarPath, String canonicalName){
+        this.jarPath = jarPath;
+        this.canonicalName = canonicalName;
+    }
+
+    public String getJarPath(){
+        return this.jarPath;
+    }
+
+    public String getCanonicalName(){
+        return this.canonicalName;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof ClassMatch)){
+            return false;
+        }
+        ClassMatch that = (ClassMatch) o;
+        return jarPath.equals(that.jarPath) && canonicalName.equals(that.canonicalName);
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * jarPath.hashCode() + canonicalName.hashCode();
+    }
+
+    @Override
+    public String toString(){
+        return jarPath + "!" + canonicalName;
+    }
+}
@@ -0,0 +1,662 @@
+package com.github.clazz.model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+   a compact, immutable set of canonical class names. every package is stored
+   once, simple names live in a single UTF-8 byte arena addressed by offsets,
+   and classes are sorted by (package, simple name) so lookups can binary
+   search. no String is kept per class: names are only materialized on demand.
+ */
+public final class ClassNameTable {
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final int[] EMPTY_OFFSETS = new int[]{0};
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+    public static final ClassNameTable EMPTY =
+            new ClassNameTable(EMPTY_BYTES, EMPTY_OFFSETS, EMPTY_BYTES, EMPTY_OFFSETS, new int[0], new int[0], new int[0]);
+
+    // package i is packageArena[packageOffsets[i], packageOffsets[i + 1]).
+    private final byte[] packageArena;
+    private final int[] packageOffsets;
+    // simple name of class i is nameArena[nameOffsets[i], nameOffsets[i + 1]).
+    private final byte[] nameArena;
+    private final int[] nameOffsets;
+    private final int[] classPackages;
+    // CRC-32 and uncompressed size of the class file entry, as recorded in the jar.
+    private final int[] entryCrcs;
+    private final int[] entrySizes;
+
+    private ClassNameTable(byte[] packageArena, int[] packageOffsets,
+                           byte[] nameArena, int[] nameOffsets, int[] classPackages,
+                           int[] entryCrcs, int[] entrySizes){
+        this.packageArena = packageArena;
+        this.packageOffsets = packageOffsets;
+        this.nameArena = nameArena;
+        this.nameOffsets = nameOffsets;
+        this.classPackages = classPackages;
+        this.entryCrcs = entryCrcs;
+        this.entrySizes = entrySizes;
+    }
+
+    /**
+     * @return the number of classes
+     */
+    public int size(){
+        return classPackages.length;
+    }
+
+    /**
+     * @return the number of distinct packages
+     */
+    public int packageCount(){
+        return packageOffsets.length - 1;
+    }
+
+    /**
+     * @param index a class index
+     * @return the canonical name of the class, materialized as a new String
+     */
+    public String getCanonicalName(int index){
+        byte[] bytes = new byte[canonicalNameLength(index)];
+        writeCanonicalName(index, bytes, 0);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index a class index
+     * @return the simple name of the class, materialized as a new String
+     */
+    public String getSimpleName(int index){
+        int start = nameOffsets[index];
+        return new String(nameArena, start, nameOffsets[index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index a class index
+     * @return the package name of the class, materialized as a new String
+     */
+    public String getPackageName(int index){
+        int packageId = classPackages[index];
+        int start = packageOffsets[packageId];
+        return new String(packageArena, start, packageOffsets[packageId + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param index a class index
+     * @return the length in UTF-8 bytes of the canonical name of the class
+     */
+    public int canonicalNameLength(int index){
+        int packageLength = packageLength(classPackages[index]);
+        int nameLength = nameOffsets[index + 1] - nameOffsets[index];
+        return packageLength == 0 ? nameLength : packageLength + 1 + nameLength;
+    }
+
+    /**
+     * Copy the UTF-8 bytes of a canonical name into {@code dst}.
+     *
+     * @param index a class index
+     * @param dst the destination array, with room for {@link #canonicalNameLength(int)} bytes
+     * @param offset where to start writing in {@code dst}
+     * @return the number of bytes written
+     */
+    public int writeCanonicalName(int index, byte[] dst, int offset){
+        int packageId = classPackages[index];
+        int packageLength = packageLength(packageId);
+        int pos = offset;
+        if(packageLength > 0){
+            System.arraycopy(packageArena, packageOffsets[packageId], dst, pos, packageLength);
+            pos += packageLength;
+            dst[pos++] = '.';
+        }
+        int nameStart = nameOffsets[index];
+        int nameLength = nameOffsets[index + 1] - nameStart;
+        System.arraycopy(nameArena, nameStart, dst, pos, nameLength);
+        return pos + nameLength - offset;
+    }
+
+    /**
+     * @param index a class index
+     * @return the CRC-32 of the class file entry, as recorded in the jar
+     */
+    public int entryCrcOf(int index){
+        return entryCrcs[index];
+    }
+
+    /**
+     * @param index a class index
+     * @return the uncompressed size of the class file entry, or -1 if unknown
+     */
+    public int entrySizeOf(int index){
+        return entrySizes[index];
+    }
+
+    /**
+     * @param index a class index
+     * @return the package id of the class, package ids follow the sort order of package names
+     */
+    public int packageIdOf(int index){
+        return classPackages[index];
+    }
+
+    /**
+     * @param packageId a package id
+     * @return the length in UTF-8 bytes of the package name, 0 for the default package
+     */
+    public int packageNameLength(int packageId){
+        return packageLength(packageId);
+    }
+
+    /**
+     * Copy the UTF-8 bytes of a package name into {@code dst}.
+     *
+     * @param packageId a package id
+     * @param dst the destination array
+     * @param offset where to start writing in {@code dst}
+     * @return the number of bytes written
+     */
+    public int writePackageName(int packageId, byte[] dst, int offset){
+        int length = packageLength(packageId);
+        System.arraycopy(packageArena, packageOffsets[packageId], dst, offset, length);
+        return length;
+    }
+
+    /**
+     * @param index a class index
+     * @return the length in UTF-8 bytes of the simple name of the class
+     */
+    public int simpleNameLength(int index){
+        return nameOffsets[index + 1] - nameOffsets[index];
+    }
+
+    /**
+     * Copy the UTF-8 bytes of a simple name into {@code dst}.
+     *
+     * @param index a class index
+     * @param dst the destination array
+     * @param offset where to start writing in {@code dst}
+     * @return the number of bytes written
+     */
+    public int writeSimpleName(int index, byte[] dst, int offset){
+        int start = nameOffsets[index];
+        int length = nameOffsets[index + 1] - start;
+        System.arraycopy(nameArena, start, dst, offset, length);
+        return length;
+    }
+
+    /**
+     * Classes are sorted by package, so the classes of a package form the range
+     * {@code [firstClassOfPackage(p), firstClassOfPackage(p + 1))}.
+     *
+     * @param packageId a package id, or {@link #packageCount()} for the end of the table
+     * @return the index of the first class of the package
+     */
+    public int firstClassOfPackage(int packageId){
+        int low = 0;
+        int high = classPackages.length;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(classPackages[mid] < packageId){
+                low = mid + 1;
+            }else{
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns whether the canonical name of a class contains {@code needle}, without
+     * materializing the name.
+     *
+     * @param index a class index
+     * @param needle UTF-8 bytes to look for, see {@link #utf8(String)}
+     * @return whether the canonical name contains {@code needle}
+     */
+    public boolean canonicalNameContains(int index, byte[] needle){
+        int length = canonicalNameLength(index);
+        if(needle.length == 0){
+            return true;
+        }
+        if(needle.length > length){
+            return false;
+        }
+
+        byte[] name = SCRATCH.get();
+        if(name.length < length){
+            name = new byte[Math.max(length, name.length * 2)];
+            SCRATCH.set(name);
+        }
+        writeCanonicalName(index, name, 0);
+
+        byte first = needle[0];
+        int last = length - needle.length;
+        for (int start = 0; start <= last; start++) {
+            if(name[start] != first){
+                continue;
+            }
+            int i = 1;
+            while(i < needle.length && name[start + i] == needle[i]){
+                i++;
+            }
+            if(i == needle.length){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param index a class index
+     * @param pos a position in the canonical name, in UTF-8 bytes
+     * @return the byte of the canonical name at {@code pos}
+     */
+    public byte canonicalNameByteAt(int index, int pos){
+        int packageId = classPackages[index];
+        int packageLength = packageLength(packageId);
+        if(packageLength > 0){
+            if(pos < packageLength){
+                return packageArena[packageOffsets[packageId] + pos];
+            }
+            if(pos == packageLength){
+                return '.';
+            }
+            pos -= packageLength + 1;
+        }
+        return nameArena[nameOffsets[index] + pos];
+    }
+
+    /**
+     * Binary search a canonical name.
+     *
+     * @param canonicalName the canonical name to look up
+     * @return the class index, or -1 if the table does not hold the name
+     */
+    public int indexOf(String canonicalName){
+        byte[] bytes = utf8(canonicalName);
+        int dot = lastIndexOf(bytes, (byte) '.');
+        int packageLength = Math.max(dot, 0);
+        int nameStart = dot + 1;
+
+        int low = 0;
+        int high = size() - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            int packageId = classPackages[mid];
+            int cmp = compare(packageArena, packageOffsets[packageId], packageLength(packageId),
+                    bytes, 0, packageLength);
+            if(cmp == 0){
+                int start = nameOffsets[mid];
+                cmp = compare(nameArena, start, nameOffsets[mid + 1] - start,
+                        bytes, nameStart, bytes.length - nameStart);
+            }
+
+            if(cmp < 0){
+                low = mid + 1;
+            }else if(cmp > 0){
+                high = mid - 1;
+            }else{
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param canonicalName the canonical name to look up
+     * @return whether the table holds {@code canonicalName}
+     */
+    public boolean containsClass(String canonicalName){
+        return indexOf(canonicalName) >= 0;
+    }
+
+    /**
+     * @return an estimate of the heap used by the table, in bytes
+     */
+    public long estimatedBytes(){
+        return packageArena.length + nameArena.length
+                + 4L * (packageOffsets.length + nameOffsets.length + classPackages.length
+                + entryCrcs.length + entrySizes.length);
+    }
+
+    /**
+     * @param s a string
+     * @return the UTF-8 bytes of {@code s}, the form used by the byte based lookups
+     */
+    public static byte[] utf8(String s){
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int packageLength(int packageId){
+        return packageOffsets[packageId + 1] - packageOffsets[packageId];
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte b){
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if(bytes[i] == b){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(byte[] a, int aStart, int aLength, byte[] b, int bStart, int bLength){
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[aStart + i] & 0xFF) - (b[bStart + i] & 0xFF);
+            if(cmp != 0){
+                return cmp;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        writeInts(out, packageOffsets);
+        out.write(packageArena);
+        writeInts(out, nameOffsets);
+        out.write(nameArena);
+        writeInts(out, classPackages);
+        writeInts(out, entryCrcs);
+        writeInts(out, entrySizes);
+    }
+
+    public static ClassNameTable readFrom(DataInputStream in) throws IOException {
+        int[] packageOffsets = readInts(in);
+        byte[] packageArena = new byte[packageOffsets[packageOffsets.length - 1]];
+        in.readFully(packageArena);
+        int[] nameOffsets = readInts(in);
+        byte[] nameArena = new byte[nameOffsets[nameOffsets.length - 1]];
+        in.readFully(nameArena);
+        int[] classPackages = readInts(in);
+        int[] entryCrcs = readInts(in);
+        int[] entrySizes = readInts(in);
+        if(classPackages.length != nameOffsets.length - 1
+                || entryCrcs.length != classPackages.length || entrySizes.length != classPackages.length){
+            throw new IOException("corrupt class name table");
+        }
+        return new ClassNameTable(packageArena, packageOffsets, nameArena, nameOffsets, classPackages,
+                entryCrcs, entrySizes);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0){
+            throw new IOException("corrupt class name table");
+        }
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Collects canonical names and builds a sorted, de-duplicated {@link ClassNameTable}.
+     * Names are copied into the builder's arena as they are added, consecutive names of the same
+     * package, the usual order inside a jar, do not allocate at all.
+     */
+    public static final class Builder {
+        private final Map<String, Integer> packageIds = new HashMap<>();
+        private byte[] packageArena = new byte[256];
+        private int[] packageOffsets = new int[]{0, 0, 0, 0, 0, 0, 0, 0, 0};
+        private int packageCount;
+
+        private byte[] nameArena = new byte[1024];
+        private int[] nameOffsets = new int[65];
+        private int[] classPackages = new int[64];
+        private int[] entryCrcs = new int[64];
+        private int[] entrySizes = new int[64];
+        private int classCount;
+
+        private int lastPackageId = -1;
+
+        /**
+         * Add a canonical name whose class file entry is not known.
+         *
+         * @param chars the canonical name
+         * @param length the number of chars used in {@code chars}
+         * @return this builder
+         */
+        public Builder add(char[] chars, int length){
+            return add(chars, length, 0, -1);
+        }
+
+        /**
+         * Add a canonical name along with its class file entry's CRC-32 and size.
+         *
+         * @param chars the canonical name
+         * @param length the number of chars used in {@code chars}
+         * @param entryCrc the CRC-32 of the class file entry
+         * @param entrySize the uncompressed size of the class file entry, -1 if unknown
+         * @return this builder
+         */
+        public Builder add(char[] chars, int length, int entryCrc, long entrySize){
+            int dot = -1;
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                char c = chars[i];
+                if(c == '.'){
+                    dot = i;
+                }else if(c >= 0x80){
+                    ascii = false;
+                }
+            }
+            if(!ascii){
+                return add(new String(chars, 0, length), entryCrc, entrySize);
+            }
+
+            int packageId = packageId(chars, dot);
+            ensureClassCapacity(classCount + 1);
+            int nameLength = length - dot - 1;
+            int nameStart = nameOffsets[classCount];
+            nameArena = ensureCapacity(nameArena, nameStart + nameLength);
+            for (int i = 0; i < nameLength; i++) {
+                nameArena[nameStart + i] = (byte) chars[dot + 1 + i];
+            }
+            nameOffsets[classCount + 1] = nameStart + nameLength;
+            classPackages[classCount] = packageId;
+            setEntry(entryCrc, entrySize);
+            classCount++;
+            return this;
+        }
+
+        /**
+         * Add a canonical name whose class file entry is not known.
+         *
+         * @param canonicalName the canonical name
+         * @return this builder
+         */
+        public Builder add(String canonicalName){
+            return add(canonicalName, 0, -1);
+        }
+
+        /**
+         * Add a canonical name along with its class file entry's CRC-32 and size.
+         *
+         * @param canonicalName the canonical name
+         * @param entryCrc the CRC-32 of the class file entry
+         * @param entrySize the uncompressed size of the class file entry, -1 if unknown
+         * @return this builder
+         */
+        public Builder add(String canonicalName, int entryCrc, long entrySize){
+            int dot = canonicalName.lastIndexOf('.');
+            String packageName = dot < 0 ? "" : canonicalName.substring(0, dot);
+            Integer packageId = packageIds.get(packageName);
+            if(packageId == null){
+                packageId = newPackage(utf8(packageName), packageName);
+            }
+            lastPackageId = -1;
+
+            byte[] name = utf8(canonicalName.substring(dot + 1));
+            ensureClassCapacity(classCount + 1);
+            int nameStart = nameOffsets[classCount];
+            nameArena = ensureCapacity(nameArena, nameStart + name.length);
+            System.arraycopy(name, 0, nameArena, nameStart, name.length);
+            nameOffsets[classCount + 1] = nameStart + name.length;
+            classPackages[classCount] = packageId;
+            setEntry(entryCrc, entrySize);
+            classCount++;
+            return this;
+        }
+
+        public int size(){
+            return classCount;
+        }
+
+        private void setEntry(int entryCrc, long entrySize){
+            entryCrcs[classCount] = entryCrc;
+            entrySizes[classCount] = entrySize < 0 || entrySize > Integer.MAX_VALUE ? -1 : (int) entrySize;
+        }
+
+        private int packageId(char[] chars, int dot){
+            int length = Math.max(dot, 0);
+            if(lastPackageId >= 0){
+                int start = packageOffsets[lastPackageId];
+                if(packageOffsets[lastPackageId + 1] - start == length){
+                    int i = 0;
+                    while(i < length && packageArena[start + i] == (byte) chars[i]){
+                        i++;
+                    }
+                    if(i == length){
+                        return lastPackageId;
+                    }
+                }
+            }
+
+            String packageName = new String(chars, 0, length);
+            Integer packageId = packageIds.get(packageName);
+            if(packageId == null){
+                packageId = newPackage(utf8(packageName), packageName);
+            }
+            lastPackageId = packageId;
+            return packageId;
+        }
+
+        private int newPackage(byte[] bytes, String packageName){
+            int packageId = packageCount++;
+            if(packageOffsets.length < packageCount + 1){
+                packageOffsets = Arrays.copyOf(packageOffsets, packageOffsets.length * 2);
+            }
+            int start = packageOffsets[packageId];
+            packageArena = ensureCapacity(packageArena, start + bytes.length);
+            System.arraycopy(bytes, 0, packageArena, start, bytes.length);
+            packageOffsets[packageId + 1] = start + bytes.length;
+            packageIds.put(packageName, packageId);
+            return packageId;
+        }
+
+        private void ensureClassCapacity(int capacity){
+            if(classPackages.length < capacity){
+                int newLength = Math.max(capacity, classPackages.length * 2);
+                classPackages = Arrays.copyOf(classPackages, newLength);
+                entryCrcs = Arrays.copyOf(entryCrcs, newLength);
+                entrySizes = Arrays.copyOf(entrySizes, newLength);
+                nameOffsets = Arrays.copyOf(nameOffsets, newLength + 1);
+            }
+        }
+
+        private static byte[] ensureCapacity(byte[] arena, int capacity){
+            if(arena.length >= capacity){
+                return arena;
+            }
+            return Arrays.copyOf(arena, Math.max(capacity, arena.length * 2));
+        }
+
+        /**
+         * @return a table holding every distinct name added so far
+         */
+        public ClassNameTable build(){
+            if(classCount == 0){
+                return EMPTY;
+            }
+
+            // packages are renumbered in sorted order, so (package id, simple name) sorts like
+            // (package name, simple name).
+            Integer[] packageOrder = new Integer[packageCount];
+            for (int i = 0; i < packageCount; i++) {
+                packageOrder[i] = i;
+            }
+            Arrays.sort(packageOrder, (a, b) -> compare(
+                    packageArena, packageOffsets[a], packageOffsets[a + 1] - packageOffsets[a],
+                    packageArena, packageOffsets[b], packageOffsets[b + 1] - packageOffsets[b]));
+
+            int[] packageRank = new int[packageCount];
+            int[] sortedPackageOffsets = new int[packageCount + 1];
+            byte[] sortedPackageArena = new byte[packageOffsets[packageCount]];
+            int pos = 0;
+            for (int rank = 0; rank < packageCount; rank++) {
+                int packageId = packageOrder[rank];
+                packageRank[packageId] = rank;
+                int start = packageOffsets[packageId];
+                int length = packageOffsets[packageId + 1] - start;
+                System.arraycopy(packageArena, start, sortedPackageArena, pos, length);
+                sortedPackageOffsets[rank] = pos;
+                pos += length;
+            }
+            sortedPackageOffsets[packageCount] = pos;
+
+            Integer[] classOrder = new Integer[classCount];
+            for (int i = 0; i < classCount; i++) {
+                classOrder[i] = i;
+            }
+            Arrays.sort(classOrder, (a, b) -> {
+                int cmp = Integer.compare(packageRank[classPackages[a]], packageRank[classPackages[b]]);
+                if(cmp != 0){
+                    return cmp;
+                }
+                return compare(nameArena, nameOffsets[a], nameOffsets[a + 1] - nameOffsets[a],
+                        nameArena, nameOffsets[b], nameOffsets[b + 1] - nameOffsets[b]);
+            });
+
+            int[] sortedClassPackages = new int[classCount];
+            int[] sortedEntryCrcs = new int[classCount];
+            int[] sortedEntrySizes = new int[classCount];
+            int[] sortedNameOffsets = new int[classCount + 1];
+            byte[] sortedNameArena = new byte[nameOffsets[classCount]];
+            int count = 0;
+            pos = 0;
+            for (int i = 0; i < classCount; i++) {
+                int classId = classOrder[i];
+                int start = nameOffsets[classId];
+                int length = nameOffsets[classId + 1] - start;
+                int packageId = packageRank[classPackages[classId]];
+                if(count > 0 && sortedClassPackages[count - 1] == packageId
+                        && compare(sortedNameArena, sortedNameOffsets[count - 1], pos - sortedNameOffsets[count - 1],
+                        nameArena, start, length) == 0){
+                    // duplicate, e.g. the same class in several multi-release versions.
+                    continue;
+                }
+                System.arraycopy(nameArena, start, sortedNameArena, pos, length);
+                sortedNameOffsets[count] = pos;
+                sortedClassPackages[count] = packageId;
+                sortedEntryCrcs[count] = entryCrcs[classId];
+                sortedEntrySizes[count] = entrySizes[classId];
+                pos += length;
+                count++;
+            }
+            sortedNameOffsets[count] = pos;
+
+            return new ClassNameTable(sortedPackageArena, sortedPackageOffsets,
+                    pos == sortedNameArena.length ? sortedNameArena : Arrays.copyOf(sortedNameArena, pos),
+                    count == classCount ? sortedNameOffsets : Arrays.copyOf(sortedNameOffsets, count + 1),
+                    count == classCount ? sortedClassPackages : Arrays.copyOf(sortedClassPackages, count),
+                    count == classCount ? sortedEntryCrcs : Arrays.copyOf(sortedEntryCrcs, count),
+                    count == classCount ? sortedEntrySizes : Arrays.copyOf(sortedEntrySizes, count));
+        }
+    }
+}
@@ -1,21 +1,49 @@
 package com.github.clazz.model;
 
+import java.util.AbstractList;
 import java.util.List;
 
 public class JarClass {
     private String jarPath;
-    private List<String> canonicalNames;
+    private ClassNameTable classNames = ClassNameTable.EMPTY;
 
     public void setCanonicalName(List<String> canonicalNames){
-        this.canonicalNames = canonicalNames;
+        ClassNameTable.Builder builder = new ClassNameTable.Builder();
+        for (String canonicalName : canonicalNames) {
+            builder.add(canonicalName);
+        }
+        this.classNames = builder.build();
+    }
+
+    public void setClassNames(ClassNameTable classNames){
+        this.classNames = classNames;
     }
 
     public void setJarPath(String jarPath){
         this.jarPath = jarPath;
     }
 
+    /**
+     * @return a read-only view of the class names, every element is materialized on access.
+     *     prefer {@link #getClassNames()} on hot paths.
+     */
     public List<String> getCanonicalNames(){
-        return this.canonicalNames;
+        ClassNameTable table = this.classNames;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return table.getCanonicalName(index);
+            }
+
+            @Override
+            public int size() {
+                return table.size();
+            }
+        };
+    }
+
+    public ClassNameTable getClassNames(){
+        return this.classNames;
     }
 
     public String getJarPath() {
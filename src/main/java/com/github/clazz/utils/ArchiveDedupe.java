@@ -0,0 +1,324 @@
+package com.github.clazz.utils;
+
+import com.github.clazz.metrics.ScanMetrics;
+import com.github.clazz.model.JarClass;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   parses every distinct archive once. artifact trees hold the same jar copied
+   into many lib directories; a copy is recognized by the size of the file and
+   two checksums of its central directory, which covers the name, CRC-32 and
+   sizes of every entry, without reading the entries themselves. hard links
+   and files seen before are recognized from their file key alone. a copy gets
+   its own JarClass, named after its own path, sharing the ClassNameTable of
+   the first copy parsed, so heap grows with the distinct archives only.
+
+   the parsed tables are softly referenced: under memory pressure they are
+   collected and the next copy is parsed again. copies parsed concurrently
+   wait for the first one instead of parsing in parallel. the archives are
+   remembered by path, and forgotten with the last path holding them once the
+   paths are gone, so a long lived dedupe, e.g. of an index refreshed by a
+   daemon, stays bounded by the files on disk. thread safe.
+ */
+public final class ArchiveDedupe {
+    private final ConcurrentHashMap<FileIdentity, ContentKey> contentKeys = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ContentKey, CompletableFuture<Parsed>> parsed = new ConcurrentHashMap<>();
+    // the archive last parsed or shared under each path, and the number of paths per archive.
+    private final Map<String, Recorded> recorded = new HashMap<>();
+    private final Map<ContentKey, Integer> keyPaths = new HashMap<>();
+    private final LongAdder parsedArchives = new LongAdder();
+    private final LongAdder sharedArchives = new LongAdder();
+
+    /**
+     * Parse an archive file and the archives nested in it, see {@link Utils#jarArchiveParse(String,
+     * int, int, ScanMetrics, ProblemListener)}, or share the class names of a byte-identical
+     * archive parsed before. The stages of a shared archive are not recorded.
+     *
+     * @param jarPath the file to parse
+     * @param attrs the attributes of the file, null if unknown
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip, the same on every call
+     * @param maxDepth how many levels of nested archives to open, 0 for none, the same on every call
+     * @param metrics receives the timings and counters, null for none
+     * @param listener receives the nested archives skipped
+     * @return the file first, then the archives nested in it
+     * @throws IOException if the file cannot be read
+     */
+    public List<JarClass> parse(String jarPath, BasicFileAttributes attrs, int nameFlags, int maxDepth,
+                                ScanMetrics metrics, ProblemListener listener) throws IOException {
+        checkNotNull(jarPath, "jarPath");
+        checkNotNull(listener, "listener");
+
+        FileIdentity identity = attrs != null && attrs.fileKey() != null
+                ? new FileIdentity(attrs.fileKey(), attrs.size(), attrs.lastModifiedTime().toMillis()) : null;
+        if(identity != null){
+            ContentKey key = contentKeys.get(identity);
+            List<JarClass> shared = key != null ? share(key, jarPath) : null;
+            if(shared != null){
+                record(jarPath, identity, key);
+                return shared;
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        try(FileChannel channel = FileChannel.open(Paths.get(jarPath), StandardOpenOption.READ)){
+            ZipCentralDirectory centralDirectory;
+            try{
+                centralDirectory = ZipCentralDirectory.read(channel);
+            }catch (ZipException ze){
+                // left to the JarFile fallback, which is not worth sharing.
+                centralDirectory = null;
+            }
+
+            if(centralDirectory != null){
+                ContentKey key = ContentKey.of(channel.size(), centralDirectory);
+                // before claiming, so that forgetting another copy never drops the claim.
+                record(jarPath, identity, key);
+
+                CompletableFuture<Parsed> claim = new CompletableFuture<>();
+                CompletableFuture<Parsed> existing = parsed.putIfAbsent(key, claim);
+                if(existing != null){
+                    List<JarClass> shared = share(key, jarPath);
+                    if(shared != null){
+                        return shared;
+                    }
+                    // the first copy failed or its classes were collected, this copy takes over.
+                    if(!parsed.replace(key, existing, claim)){
+                        claim = null;
+                    }
+                }
+
+                List<JarClass> jarClasses;
+                try{
+                    jarClasses = NestedArchives.parse(jarPath, channel, centralDirectory, startNanos, nameFlags,
+                            maxDepth, metrics, listener);
+                }catch (IOException | RuntimeException e){
+                    if(claim != null){
+                        parsed.remove(key, claim);
+                        claim.complete(null);
+                    }
+                    throw e;
+                }
+                if(claim != null){
+                    claim.complete(new Parsed(jarPath, jarClasses));
+                }
+                parsedArchives.increment();
+                return jarClasses;
+            }
+        }catch (IOException ioe){
+            if(metrics != null){
+                metrics.recordFailedJar();
+            }
+            throw ioe;
+        }
+
+        parsedArchives.increment();
+        return Utils.jarArchiveParse(jarPath, nameFlags, maxDepth, metrics, listener);
+    }
+
+    /**
+     * Forget the archives parsed or shared under the paths matching {@code jarPaths}, e.g. the
+     * files gone from a refreshed directory. An archive still held by other paths is kept.
+     *
+     * @param jarPaths selects the paths to forget
+     * @return the number of paths forgotten
+     */
+    public int forgetIf(Predicate<String> jarPaths){
+        checkNotNull(jarPaths, "jarPaths");
+        int forgotten = 0;
+        synchronized (recorded){
+            Iterator<Map.Entry<String, Recorded>> iterator = recorded.entrySet().iterator();
+            while(iterator.hasNext()){
+                Map.Entry<String, Recorded> entry = iterator.next();
+                if(jarPaths.test(entry.getKey())){
+                    iterator.remove();
+                    release(entry.getValue());
+                    forgotten++;
+                }
+            }
+        }
+        return forgotten;
+    }
+
+    /**
+     * @return the number of archive files parsed
+     */
+    public long getParsed(){
+        return parsedArchives.sum();
+    }
+
+    /**
+     * @return the number of archive files that shared the class names of an identical one
+     */
+    public long getShared(){
+        return sharedArchives.sum();
+    }
+
+    private void record(String jarPath, FileIdentity identity, ContentKey key){
+        synchronized (recorded){
+            // counted first, so that replacing a path by the same archive keeps it.
+            keyPaths.merge(key, 1, Integer::sum);
+            Recorded previous = recorded.put(jarPath, new Recorded(identity, key));
+            if(previous != null){
+                release(previous);
+            }
+            if(identity != null){
+                contentKeys.put(identity, key);
+            }
+        }
+    }
+
+    /*
+       with the recorded lock held. a hard link of the path still on disk recomputes its content
+       key on its next parse.
+     */
+    private void release(Recorded previous){
+        if(previous.identity != null){
+            contentKeys.remove(previous.identity, previous.key);
+        }
+        if(keyPaths.merge(previous.key, -1, Integer::sum) == 0){
+            keyPaths.remove(previous.key);
+            parsed.remove(previous.key);
+        }
+    }
+
+    /*
+       the classes of the archive with content key, renamed after jarPath, waiting while it is
+       being parsed. null when it failed or was collected.
+     */
+    private List<JarClass> share(ContentKey key, String jarPath){
+        CompletableFuture<Parsed> future = parsed.get(key);
+        Parsed first = future != null ? future.join() : null;
+        List<JarClass> jarClasses = first != null ? first.jarClasses.get() : null;
+        if(jarClasses == null){
+            return null;
+        }
+        sharedArchives.increment();
+        if(first.jarPath.equals(jarPath)){
+            return jarClasses;
+        }
+
+        // nested archives are named after the file holding them.
+        List<JarClass> renamed = new ArrayList<>(jarClasses.size());
+        for (JarClass jarClass : jarClasses) {
+            JarClass copy = new JarClass();
+            copy.setJarPath(jarPath + jarClass.getJarPath().substring(first.jarPath.length()));
+            copy.setClassNames(jarClass.getClassNames());
+            renamed.add(copy);
+        }
+        return renamed;
+    }
+
+    private static final class Recorded {
+        private final FileIdentity identity;
+        private final ContentKey key;
+
+        private Recorded(FileIdentity identity, ContentKey key){
+            this.identity = identity;
+            this.key = key;
+        }
+    }
+
+    private static final class Parsed {
+        private final String jarPath;
+        private final SoftReference<List<JarClass>> jarClasses;
+
+        private Parsed(String jarPath, List<JarClass> jarClasses){
+            this.jarPath = jarPath;
+            this.jarClasses = new SoftReference<>(jarClasses);
+        }
+    }
+
+    /*
+       a file on disk, as long as it keeps its size and last modified time.
+     */
+    private static final class FileIdentity {
+        private final Object fileKey;
+        private final long size;
+        private final long lastModified;
+
+        private FileIdentity(Object fileKey, long size, long lastModified){
+            this.fileKey = fileKey;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof FileIdentity)){
+                return false;
+            }
+            FileIdentity other = (FileIdentity) o;
+            return size == other.size && lastModified == other.lastModified && fileKey.equals(other.fileKey);
+        }
+
+        @Override
+        public int hashCode(){
+            return fileKey.hashCode() * 31 + Long.hashCode(size ^ lastModified);
+        }
+    }
+
+    /*
+       the content of an archive file: its size, the length and entry count of its central
+       directory, and a CRC-32 and an Adler-32 of the central directory bytes.
+     */
+    private static final class ContentKey {
+        private final long size;
+        private final int centralDirectoryLength;
+        private final long entryCount;
+        private final long checksum;
+
+        private ContentKey(long size, int centralDirectoryLength, long entryCount, long checksum){
+            this.size = size;
+            this.centralDirectoryLength = centralDirectoryLength;
+            this.entryCount = entryCount;
+            this.checksum = checksum;
+        }
+
+        private static ContentKey of(long size, ZipCentralDirectory centralDirectory){
+            ByteBuffer buffer = centralDirectory.buffer();
+            int length = buffer.remaining();
+            CRC32 crc32 = new CRC32();
+            crc32.update(buffer.duplicate());
+            Adler32 adler32 = new Adler32();
+            adler32.update(buffer);
+            return new ContentKey(size, length, centralDirectory.getEntryCount(),
+                    crc32.getValue() << 32 | adler32.getValue());
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof ContentKey)){
+                return false;
+            }
+            ContentKey other = (ContentKey) o;
+            return size == other.size && centralDirectoryLength == other.centralDirectoryLength
+                    && entryCount == other.entryCount && checksum == other.checksum;
+        }
+
+        @Override
+        public int hashCode(){
+            return Long.hashCode(checksum) * 31 + Long.hashCode(size);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.github.clazz.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   a least recently used cache of open archives, so that repeated reads of the
+   same jars, e.g. method lookups, skip opening the file and reading its
+   central directory. an archive is an open channel, or the loaded bytes of a
+   nested archive, with its central directory. at most maxOpen archives are
+   kept; an evicted archive is closed once the last reader releases it, so an
+   archive in use is never closed under a reader. an archive is only served
+   while its file keeps the size and last modified time it was opened with.
+   every acquire returns its own handle, which releases its reference once
+   however often it is closed. thread safe: an archive can be read by several
+   threads at once, each with its own ZipEntryReader.
+ */
+public final class ArchiveHandleCache implements Closeable {
+    /** the default number of archives kept open, well below common file descriptor limits. */
+    public static final int DEFAULT_MAX_OPEN = 64;
+
+    private static volatile ArchiveHandleCache shared = new ArchiveHandleCache(DEFAULT_MAX_OPEN);
+
+    private final int maxOpen;
+    private final Map<String, Archive> archives = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+    private boolean closed;
+
+    /**
+     * @param maxOpen the number of archives kept open before the least recently used are closed
+     */
+    public ArchiveHandleCache(int maxOpen){
+        if(maxOpen < 1){
+            throw new IllegalArgumentException("maxOpen must be positive: " + maxOpen);
+        }
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * @return the cache used by the class file readers of the process
+     */
+    public static ArchiveHandleCache shared(){
+        return shared;
+    }
+
+    /**
+     * Replace the cache used by the class file readers of the process, closing the previous one.
+     *
+     * @param cache the new cache
+     */
+    public static void setShared(ArchiveHandleCache cache){
+        checkNotNull(cache, "cache");
+        ArchiveHandleCache previous = shared;
+        shared = cache;
+        if(previous != cache){
+            previous.close();
+        }
+    }
+
+    /**
+     * Open an archive, or take it from the cache. The handle must be closed, which releases it.
+     *
+     * @param jarPath an archive file, or a nested archive, see {@link NestedArchives}
+     * @return the open archive
+     * @throws java.util.zip.ZipException if the central directory cannot be read
+     * @throws IOException if the archive cannot be read
+     */
+    public Handle acquire(String jarPath) throws IOException {
+        checkNotNull(jarPath, "jarPath");
+        int separator = jarPath.indexOf(NestedArchives.SEPARATOR);
+        Path file = Paths.get(separator < 0 ? jarPath : jarPath.substring(0, separator));
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+
+        synchronized (this){
+            Archive archive = archives.get(jarPath);
+            if(archive != null && archive.size == size && archive.lastModified == lastModified){
+                hits++;
+                archive.references++;
+                return new Handle(archive);
+            }
+            if(archive != null){
+                // the archive changed on disk.
+                archives.remove(jarPath);
+                archive.release();
+            }
+            misses++;
+        }
+
+        // opened outside the lock, so that a slow open does not hold up the other readers.
+        Archive opened = open(jarPath, separator < 0, size, lastModified);
+        synchronized (this){
+            Archive current = archives.get(jarPath);
+            if(current != null && current.size == size && current.lastModified == lastModified){
+                // a concurrent acquire opened it first.
+                opened.release();
+                current.references++;
+                return new Handle(current);
+            }
+            if(closed){
+                // not kept, closed once released.
+                return new Handle(opened);
+            }
+            if(current != null){
+                archives.remove(jarPath);
+                current.release();
+            }
+            opened.references++;
+            archives.put(jarPath, opened);
+            Iterator<Archive> eldest = archives.values().iterator();
+            while(archives.size() > maxOpen){
+                Archive evicted = eldest.next();
+                eldest.remove();
+                evicted.release();
+                evictions++;
+            }
+            return new Handle(opened);
+        }
+    }
+
+    private Archive open(String jarPath, boolean file, long size, long lastModified) throws IOException {
+        if(!file){
+            ByteBuffer archive = NestedArchives.load(jarPath);
+            return new Archive(null, archive, ZipCentralDirectory.read(archive), size, lastModified);
+        }
+        FileChannel channel = FileChannel.open(Paths.get(jarPath), StandardOpenOption.READ);
+        try{
+            return new Archive(channel, null, ZipCentralDirectory.read(channel), size, lastModified);
+        }catch (IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    public synchronized int size(){
+        return archives.size();
+    }
+
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    /**
+     * @return the number of archives closed to stay within the limit
+     */
+    public synchronized long getEvictions(){
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return "open:" + archives.size() + ",hits:" + hits + ",misses:" + misses + ",evictions:" + evictions;
+    }
+
+    /**
+     * Close every archive not in use, the others as they are released.
+     */
+    @Override
+    public synchronized void close(){
+        closed = true;
+        for (Archive archive : archives.values()) {
+            archive.release();
+        }
+        archives.clear();
+    }
+
+    /**
+     * An open archive, released by {@link #close()}. Each {@link #acquire(String)} returns its own
+     * handle; closing it again does nothing.
+     */
+    public final class Handle implements Closeable {
+        private final Archive archive;
+        // guarded by the cache.
+        private boolean closed;
+
+        private Handle(Archive archive){
+            this.archive = archive;
+        }
+
+        public ZipCentralDirectory getCentralDirectory(){
+            return archive.centralDirectory;
+        }
+
+        /**
+         * @return a reader of the entries, for the calling thread only, to be closed
+         */
+        public ZipEntryReader newEntryReader(){
+            return archive.channel != null ? new ZipEntryReader(archive.channel) : new ZipEntryReader(archive.archive);
+        }
+
+        @Override
+        public void close(){
+            synchronized (ArchiveHandleCache.this){
+                if(closed){
+                    return;
+                }
+                closed = true;
+                archive.release();
+            }
+        }
+    }
+
+    /*
+       an open channel, or the loaded bytes of a nested archive, shared by the handles acquired
+       on it.
+     */
+    private static final class Archive {
+        private final FileChannel channel;
+        private final ByteBuffer archive;
+        private final ZipCentralDirectory centralDirectory;
+        private final long size;
+        private final long lastModified;
+        // guarded by the cache: the open handles, plus one while the cache holds the archive.
+        private int references = 1;
+
+        private Archive(FileChannel channel, ByteBuffer archive, ZipCentralDirectory centralDirectory,
+                        long size, long lastModified){
+            this.channel = channel;
+            this.archive = archive;
+            this.centralDirectory = centralDirectory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        // with the cache lock held, the channel is closed with the last reference.
+        private void release(){
+            if(--references == 0 && channel != null){
+                try{
+                    channel.close();
+                }catch (IOException ioe){
+                    // read only, nothing is lost.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.github.clazz.utils;
+
+import com.github.clazz.model.ClassNameTable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+   converts jar entry names such as "org/foo/Bar$Inner.class" into canonical
+   class names ("org.foo.Bar$Inner") in a single pass over the entry name
+   bytes, without regular expressions or intermediate strings.
+ */
+public final class ClassNames {
+    /** skip anonymous classes, i.e. a nested name made of digits only such as {@code Foo$1}. */
+    public static final int SKIP_ANONYMOUS = 1;
+    /**
+     * skip compiler or framework generated classes, recognised by name: an empty nested name
+     * such as {@code Foo$$Lambda$1} or {@code Foo$$EnhancerByCGLIB$$0}, and {@code package-info}.
+     */
+    public static final int SKIP_SYNTHETIC = 1 << 1;
+
+    private static final byte[] CLASS_SUFFIX = ".class".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] META_INF = "META-INF/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VERSIONS = "versions/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BOOT_INF_CLASSES = "BOOT-INF/classes/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WEB_INF_CLASSES = "WEB-INF/classes/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MODULE_INFO = "module-info".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PACKAGE_INFO = "package-info".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int SKIPPED = -1;
+    private static final int NOT_ASCII = -2;
+
+    private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[256]);
+
+    private ClassNames(){
+        // no instance.
+    }
+
+    /**
+     * Convert the entry name stored at {@code buffer[offset, offset + length)} to a canonical
+     * class name. Multi-release entries under {@code META-INF/versions/N/} map to the same name
+     * as their base entry, and the application classes of Spring Boot jars and WARs, under
+     * {@code BOOT-INF/classes/} and {@code WEB-INF/classes/}, to their own name.
+     *
+     * @param buffer the buffer holding the entry name bytes
+     * @param offset the offset of the entry name
+     * @param length the length of the entry name
+     * @param flags a combination of {@link #SKIP_ANONYMOUS} and {@link #SKIP_SYNTHETIC}
+     * @return the canonical name, or null if the entry is not a class or is skipped by
+     *     {@code flags}
+     */
+    public static String toCanonicalName(ByteBuffer buffer, int offset, int length, int flags){
+        int nameLength = canonicalNameChars(buffer, offset, length, flags);
+        if(nameLength == NOT_ASCII){
+            return toCanonicalName(decode(buffer, offset, length), flags);
+        }
+        return nameLength < 0 ? null : new String(SCRATCH.get(), 0, nameLength);
+    }
+
+    /**
+     * Same as {@link #toCanonicalName(ByteBuffer, int, int, int)}, but adds the canonical name
+     * straight to {@code builder} instead of creating a String.
+     *
+     * @param buffer the buffer holding the entry name bytes
+     * @param offset the offset of the entry name
+     * @param length the length of the entry name
+     * @param flags a combination of {@link #SKIP_ANONYMOUS} and {@link #SKIP_SYNTHETIC}
+     * @param entryCrc the CRC-32 of the entry
+     * @param entrySize the uncompressed size of the entry
+     * @param builder receives the canonical name
+     * @return false if the entry is not a class or is skipped by {@code flags}
+     */
+    public static boolean addCanonicalName(ByteBuffer buffer, int offset, int length, int flags,
+                                           int entryCrc, long entrySize, ClassNameTable.Builder builder){
+        int nameLength = canonicalNameChars(buffer, offset, length, flags);
+        if(nameLength == NOT_ASCII){
+            String canonicalName = toCanonicalName(decode(buffer, offset, length), flags);
+            if(canonicalName == null){
+                return false;
+            }
+            builder.add(canonicalName, entryCrc, entrySize);
+            return true;
+        }
+        if(nameLength < 0){
+            return false;
+        }
+        builder.add(SCRATCH.get(), nameLength, entryCrc, entrySize);
+        return true;
+    }
+
+    /*
+       writes the canonical name into the SCRATCH buffer and returns its length, SKIPPED when
+       the entry is not a class or is skipped by flags, or NOT_ASCII when the name needs decoding.
+     */
+    private static int canonicalNameChars(ByteBuffer buffer, int offset, int length, int flags){
+        int start = classNameStart(buffer, offset, length);
+        int end = offset + length - CLASS_SUFFIX.length;
+        if(start < 0 || start >= end || !regionEquals(buffer, end, CLASS_SUFFIX)){
+            return SKIPPED;
+        }
+
+        int nameLength = end - start;
+        char[] chars = SCRATCH.get();
+        if(chars.length < nameLength){
+            chars = new char[Math.max(nameLength, chars.length * 2)];
+            SCRATCH.set(chars);
+        }
+
+        // segmentStart: start of the current simple or nested name, digitsOnly: whether it is
+        // made of digits only so far.
+        int segmentStart = 0;
+        boolean digitsOnly = false;
+        boolean nested = false;
+        for (int i = 0; i < nameLength; i++) {
+            byte b = buffer.get(start + i);
+            if(b < 0){
+                return NOT_ASCII;
+            }
+
+            char c = (char) b;
+            if(c == '/'){
+                chars[i] = '.';
+                segmentStart = i + 1;
+                nested = false;
+            }else if(c == '$'){
+                if(skipSegment(nested, i - segmentStart, digitsOnly, flags)){
+                    return SKIPPED;
+                }
+                chars[i] = c;
+                segmentStart = i + 1;
+                digitsOnly = true;
+                nested = true;
+            }else{
+                chars[i] = c;
+                if(c < '0' || c > '9'){
+                    digitsOnly = false;
+                }
+            }
+        }
+
+        if(segmentStart == nameLength && !nested){
+            return SKIPPED;
+        }
+        if(skipSegment(nested, nameLength - segmentStart, digitsOnly, flags)){
+            return SKIPPED;
+        }
+        if(!nested && isSimpleName(buffer, start + segmentStart, nameLength - segmentStart, MODULE_INFO)){
+            return SKIPPED;
+        }
+        if((flags & SKIP_SYNTHETIC) != 0 && !nested
+                && isSimpleName(buffer, start + segmentStart, nameLength - segmentStart, PACKAGE_INFO)){
+            return SKIPPED;
+        }
+
+        return nameLength;
+    }
+
+    /**
+     * String variant of {@link #toCanonicalName(ByteBuffer, int, int, int)}, for entry names that
+     * are already decoded.
+     *
+     * @param entryName the jar entry name
+     * @param flags a combination of {@link #SKIP_ANONYMOUS} and {@link #SKIP_SYNTHETIC}
+     * @return the canonical name, or null if the entry is not a class or is skipped by
+     *     {@code flags}
+     */
+    public static String toCanonicalName(String entryName, int flags){
+        if(!entryName.endsWith(".class")){
+            return null;
+        }
+
+        String name = entryName.substring(0, entryName.length() - CLASS_SUFFIX.length);
+        if(name.startsWith("BOOT-INF/classes/") || name.startsWith("WEB-INF/classes/")){
+            name = name.substring(name.indexOf("/classes/") + "/classes/".length());
+        }else if(name.startsWith("META-INF/")){
+            name = stripVersionPrefix(name);
+            if(name == null){
+                return null;
+            }
+        }
+
+        int simpleStart = name.lastIndexOf('/') + 1;
+        String simpleName = name.substring(simpleStart);
+        if(simpleName.isEmpty() || simpleName.equals("module-info")){
+            return null;
+        }
+        if((flags & SKIP_SYNTHETIC) != 0 && simpleName.equals("package-info")){
+            return null;
+        }
+
+        int segmentStart = simpleName.indexOf('$');
+        while(segmentStart != -1){
+            int segmentEnd = simpleName.indexOf('$', segmentStart + 1);
+            int end = segmentEnd == -1 ? simpleName.length() : segmentEnd;
+            boolean digitsOnly = true;
+            for (int i = segmentStart + 1; i < end && digitsOnly; i++) {
+                char c = simpleName.charAt(i);
+                digitsOnly = c >= '0' && c <= '9';
+            }
+            if(skipSegment(true, end - segmentStart - 1, digitsOnly, flags)){
+                return null;
+            }
+            segmentStart = segmentEnd;
+        }
+
+        return name.replace('/', '.');
+    }
+
+    /**
+     * @return whether the entry name is a multi-release entry under {@code META-INF/versions/}
+     */
+    public static boolean isVersioned(ByteBuffer buffer, int offset, int length){
+        return length > META_INF.length + VERSIONS.length
+                && regionEquals(buffer, offset, META_INF)
+                && regionEquals(buffer, offset + META_INF.length, VERSIONS);
+    }
+
+    private static boolean skipSegment(boolean nested, int segmentLength, boolean digitsOnly, int flags){
+        if(!nested){
+            return false;
+        }
+        if(segmentLength == 0){
+            return (flags & SKIP_SYNTHETIC) != 0;
+        }
+        return digitsOnly && (flags & SKIP_ANONYMOUS) != 0;
+    }
+
+    /*
+       returns the offset where the class path starts, skipping a META-INF/versions/N/,
+       BOOT-INF/classes/ or WEB-INF/classes/ prefix, or -1 for any other META-INF entry,
+       which is never a loadable class.
+     */
+    private static int classNameStart(ByteBuffer buffer, int offset, int length){
+        if(length > BOOT_INF_CLASSES.length && regionEquals(buffer, offset, BOOT_INF_CLASSES)){
+            return offset + BOOT_INF_CLASSES.length;
+        }
+        if(length > WEB_INF_CLASSES.length && regionEquals(buffer, offset, WEB_INF_CLASSES)){
+            return offset + WEB_INF_CLASSES.length;
+        }
+        if(length < META_INF.length || !regionEquals(buffer, offset, META_INF)){
+            return offset;
+        }
+        if(!isVersioned(buffer, offset, length)){
+            return -1;
+        }
+
+        int end = offset + length;
+        int pos = offset + META_INF.length + VERSIONS.length;
+        int digitsStart = pos;
+        while(pos < end && buffer.get(pos) >= '0' && buffer.get(pos) <= '9'){
+            pos++;
+        }
+        if(pos == digitsStart || pos >= end || buffer.get(pos) != '/'){
+            return -1;
+        }
+        return pos + 1;
+    }
+
+    private static String stripVersionPrefix(String name){
+        String versions = "META-INF/versions/";
+        if(!name.startsWith(versions)){
+            return null;
+        }
+        int slash = name.indexOf('/', versions.length());
+        if(slash <= versions.length()){
+            return null;
+        }
+        for (int i = versions.length(); i < slash; i++) {
+            if(!Character.isDigit(name.charAt(i))){
+                return null;
+            }
+        }
+        return name.substring(slash + 1);
+    }
+
+    private static boolean isSimpleName(ByteBuffer buffer, int offset, int length, byte[] simpleName){
+        return length == simpleName.length && regionEquals(buffer, offset, simpleName);
+    }
+
+    private static boolean regionEquals(ByteBuffer buffer, int offset, byte[] bytes){
+        if(offset < 0 || offset + bytes.length > buffer.limit()){
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if(buffer.get(offset + i) != bytes[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length){
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
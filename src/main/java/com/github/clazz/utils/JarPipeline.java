@@ -0,0 +1,301 @@
+package com.github.clazz.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   a three stage pipeline: a walker thread finds the jar files and queues them
+   as it goes, worker threads process them as soon as they are queued, and
+   the results are handed over to the calling thread as soon as they are
+   ready. both queues are bounded, so a slow stage holds the stages before it
+   back instead of letting memory grow: the walk waits for the workers and the
+   workers wait for the caller.
+ */
+public final class JarPipeline {
+    private static final int FILES_PER_WORKER = 64;
+    private static final int RESULTS_PER_WORKER = 2;
+
+    /**
+     * Finds the jar files to process and hands them to a {@link Sink}.
+     */
+    public interface Source {
+        /**
+         * @param sink receives every jar file found, possibly from several threads; may block
+         *     until the workers catch up
+         * @throws IOException if the jar files cannot be listed
+         */
+        void walk(Sink sink) throws IOException;
+    }
+
+    public interface Sink {
+        /**
+         * @param jarFile a jar file
+         * @param attrs its attributes when the source already has them, or null
+         */
+        void accept(File jarFile, BasicFileAttributes attrs);
+    }
+
+    /**
+     * Work done on one jar file by a worker.
+     */
+    public interface Task<T> {
+        /**
+         * @param jarFile the jar file
+         * @param attrs its attributes when the source had them, or null
+         * @return the result, null for none
+         */
+        T process(File jarFile, BasicFileAttributes attrs) throws IOException;
+    }
+
+    private JarPipeline(){
+        // no instance.
+    }
+
+    /**
+     * @param root a jar, WAR or EAR file, or a directory to walk for them
+     * @param walkThreads the number of directories listed at once
+     * @return a source walking {@code root} with {@link ParallelDirectoryWalker}, following
+     *     symbolic links
+     */
+    public static Source directory(String root, int walkThreads){
+        checkNotNull(root, "root");
+        ParallelDirectoryWalker walker = new ParallelDirectoryWalker(walkThreads, true);
+        return sink -> walker.walk(Paths.get(root),
+                file -> NestedArchives.isArchiveName(file.getFileName().toString()),
+                (file, attrs) -> sink.accept(file.toFile(), attrs));
+    }
+
+    /**
+     * @param jarFiles jar files already listed
+     * @return a source handing them over in order
+     */
+    public static Source files(List<File> jarFiles){
+        checkNotNull(jarFiles, "jarFiles");
+        return sink -> {
+            for (File jarFile : jarFiles) {
+                sink.accept(jarFile, null);
+            }
+        };
+    }
+
+    /**
+     * Run {@code task} on every jar file of {@code source} on {@code threads} workers, while the
+     * source is still being walked. Results are handed to {@code consumer} on the calling thread,
+     * in completion order. A jar the task fails on is skipped and counted.
+     *
+     * @param source finds the jar files
+     * @param threads the number of worker threads
+     * @param task the work to do on each jar file
+     * @param consumer receives every non-null result
+     * @return what the run did
+     */
+    public static <T> Stats run(Source source, int threads, Task<T> task, Consumer<T> consumer){
+        return run(source, threads, task, ProblemListener.IGNORE, consumer);
+    }
+
+    /**
+     * Same as {@link #run(Source, int, Task, Consumer)}, reporting every jar the task fails on,
+     * and a walk that fails, to {@code listener}.
+     *
+     * @param source finds the jar files
+     * @param threads the number of worker threads
+     * @param task the work to do on each jar file
+     * @param listener receives the jars skipped, on the calling thread
+     * @param consumer receives every non-null result
+     * @return what the run did
+     */
+    public static <T> Stats run(Source source, int threads, Task<T> task, ProblemListener listener,
+                                Consumer<T> consumer){
+        checkNotNull(source, "source");
+        checkNotNull(task, "task");
+        checkNotNull(listener, "listener");
+        checkNotNull(consumer, "consumer");
+        if(threads < 1){
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+
+        BlockingQueue<Item> files = new ArrayBlockingQueue<>(threads * FILES_PER_WORKER);
+        BlockingQueue<Outcome<T>> outcomes = new ArrayBlockingQueue<>(threads * RESULTS_PER_WORKER);
+        Stats stats = new Stats();
+        AtomicBoolean stopped = new AtomicBoolean();
+        long startNanos = System.nanoTime();
+
+        AtomicInteger threadIds = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1, runnable -> {
+            Thread thread = new Thread(runnable, "jar-pipeline-" + threadIds.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try{
+            executor.execute(() -> walk(source, files, threads, stats, stopped, startNanos));
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> work(files, outcomes, task));
+            }
+
+            int finishedWorkers = 0;
+            while(finishedWorkers < threads){
+                Outcome<T> outcome = outcomes.take();
+                if(outcome.jarFile == null){
+                    finishedWorkers++;
+                }else if(outcome.error != null){
+                    stats.failed++;
+                    listener.problem("jar parse failed", outcome.jarFile.getAbsolutePath(), outcome.error);
+                }else{
+                    stats.processed++;
+                    if(outcome.result != null){
+                        consumer.accept(outcome.result);
+                    }
+                }
+            }
+        }catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+        }finally {
+            // stops the walker and the workers early when the caller gave up.
+            stopped.set(true);
+            executor.shutdownNow();
+        }
+
+        if(stats.walkError != null){
+            listener.problem("jar file walk failed", null, stats.walkError);
+        }
+        return stats;
+    }
+
+    private static void walk(Source source, BlockingQueue<Item> files, int threads, Stats stats,
+                             AtomicBoolean stopped, long startNanos){
+        try{
+            source.walk((jarFile, attrs) -> {
+                Item item = new Item(jarFile, attrs);
+                try{
+                    // the source may call from its own threads, which an interrupt does not reach.
+                    while(!files.offer(item, 100, TimeUnit.MILLISECONDS)){
+                        if(stopped.get()){
+                            throw new WalkInterruptedException();
+                        }
+                    }
+                }catch (InterruptedException ie){
+                    throw new WalkInterruptedException();
+                }
+            });
+        }catch (IOException | RuntimeException e){
+            if(!(e instanceof WalkInterruptedException)){
+                stats.walkError = e;
+            }
+        }finally {
+            stats.walkNanos = System.nanoTime() - startNanos;
+            try{
+                // one end marker per worker.
+                for (int i = 0; i < threads; i++) {
+                    files.put(Item.END);
+                }
+            }catch (InterruptedException ie){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static <T> void work(BlockingQueue<Item> files, BlockingQueue<Outcome<T>> outcomes, Task<T> task){
+        try{
+            while(true){
+                Item item = files.take();
+                if(item == Item.END){
+                    outcomes.put(new Outcome<>(null, null, null));
+                    return;
+                }
+
+                Outcome<T> outcome;
+                try{
+                    outcome = new Outcome<>(item.jarFile, task.process(item.jarFile, item.attrs), null);
+                }catch (Exception | LinkageError e){
+                    outcome = new Outcome<>(item.jarFile, null, e);
+                }
+                outcomes.put(outcome);
+            }
+        }catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counters of a single {@link #run}.
+     */
+    public static final class Stats {
+        private volatile long walkNanos;
+        private volatile Exception walkError;
+        private int processed;
+        private int failed;
+
+        /**
+         * @return the time from the start of the run to the end of the walk, in milliseconds
+         */
+        public long getWalkMillis(){
+            return TimeUnit.NANOSECONDS.toMillis(walkNanos);
+        }
+
+        /**
+         * @return the time from the start of the run to the end of the walk, in nanoseconds
+         */
+        public long getWalkNanos(){
+            return walkNanos;
+        }
+
+        /**
+         * @return why the walk stopped early, null if it completed
+         */
+        public Exception getWalkError(){
+            return walkError;
+        }
+
+        /**
+         * @return the jar files processed successfully
+         */
+        public int getProcessed(){
+            return processed;
+        }
+
+        /**
+         * @return the jar files the task failed on
+         */
+        public int getFailed(){
+            return failed;
+        }
+    }
+
+    private static final class Item {
+        private static final Item END = new Item(null, null);
+
+        private final File jarFile;
+        private final BasicFileAttributes attrs;
+
+        private Item(File jarFile, BasicFileAttributes attrs){
+            this.jarFile = jarFile;
+            this.attrs = attrs;
+        }
+    }
+
+    private static final class Outcome<T> {
+        private final File jarFile;
+        private final T result;
+        private final Throwable error;
+
+        private Outcome(File jarFile, T result, Throwable error){
+            this.jarFile = jarFile;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    private static final class WalkInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
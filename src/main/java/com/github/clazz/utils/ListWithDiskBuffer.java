@@ -1,27 +1,91 @@
 package com.github.clazz.utils;
 
-import java.io.*;
-import java.util.*;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
 
 /*
-   a wrapper class for a linked list that will keep N tail elements
-   in memory, spilling its head onto disk as needed.
+   a first in first out list that keeps its N newest elements in memory,
+   spilling the older ones onto disk as needed, so the heap it takes is
+   bounded whatever the number of elements.
+   spilled elements are turned into bytes by a Codec and stored as length
+   prefixed records in a temporary file: they are written through a direct
+   buffer and a FileChannel, and read back through a memory mapping of the
+   file. once every spilled element has been read back the file is written
+   again from its start, so a list that is drained as it grows keeps a file
+   of a fixed size. the file is deleted on close.
  */
-public class ListWithDiskBuffer<T> {
+public class ListWithDiskBuffer<T> implements AutoCloseable {
+    private static final int LENGTH_SIZE = Integer.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final long MAP_WINDOW_SIZE = 64L << 20;
+
+    /**
+     * Turns elements into bytes and back.
+     */
+    public interface Codec<T> {
+        /** length prefixed UTF-8, e.g. for class names. */
+        Codec<String> UTF8 = new Utf8Codec();
+
+        /**
+         * Write {@code element} at the position of {@code out}.
+         *
+         * @param element the element to encode
+         * @param out the buffer to write to
+         * @throws BufferOverflowException if {@code out} is too small, the element is then
+         *     encoded again into a larger buffer
+         */
+        void encode(T element, ByteBuffer out);
+
+        /**
+         * @param in the bytes of exactly one encoded element, from position to limit
+         * @return the decoded element
+         */
+        T decode(ByteBuffer in);
+    }
+
     private final long maxInMemoryElements;
-    private final LinkedList<T> list;
+    private final Codec<T> codec;
+    private final ArrayDeque<T> list;
+    private T last;
     private long elementsInFile = 0;
-    private File file;
-    private ObjectInputStream is;
-    private ObjectOutputStream os;
 
-    public ListWithDiskBuffer(long maxInMemoryElements) {
+    private Path file;
+    private FileChannel channel;
+    private ByteBuffer writeBuffer;
+    // file offset the write buffer is flushed to, and offset of the next record to read.
+    private long writePosition;
+    private long readPosition;
+    private MappedByteBuffer map;
+    private long mapPosition;
+
+    /**
+     * @param maxInMemoryElements how many of the newest elements to keep in memory
+     * @param codec encodes the elements spilled onto disk
+     */
+    public ListWithDiskBuffer(long maxInMemoryElements, Codec<T> codec) {
+        checkNotNull(codec, "codec");
+        if(maxInMemoryElements < 0){
+            throw new IllegalArgumentException("maxInMemoryElements must not be negative: " + maxInMemoryElements);
+        }
         this.maxInMemoryElements = maxInMemoryElements;
-        list = new LinkedList<>();
+        this.codec = codec;
+        list = new ArrayDeque<>();
     }
 
     public void add(T element) throws IOException {
         list.add(element);
+        last = element;
 
         while (shouldBuffer()){
             evict();
@@ -32,80 +96,183 @@ public class ListWithDiskBuffer<T> {
         return this.list.size() > maxInMemoryElements;
     }
 
-    protected void resetOutputStreamCaches() throws IOException {
-        System.err.println("Resetting OutputStream caches. elementsInFile: " + elementsInFile);
-        os.reset();
-    }
-
+    /**
+     * Write the spilled elements still held in the write buffer to the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
     public void flushToDisk() throws IOException {
-        if ( os != null )
-            os.writeLong(elementsInFile);
-            os.flush();
+        if ( writeBuffer == null || writeBuffer.position() == 0 ) {
+            return;
+        }
+
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()){
+            writePosition += channel.write(writeBuffer, writePosition);
+        }
+        writeBuffer.clear();
     }
 
     public boolean isEmpty() {
         return this.size() == 0;
     }
 
+    /**
+     * @return the newest element
+     * @throws NoSuchElementException if the list is empty
+     */
     public T getLast() {
-        return list.getLast();
+        if ( isEmpty() ) {
+            throw new NoSuchElementException();
+        }
+        return last;
     }
 
-    public T removeFirst(Class<T> clazz) throws IOException, ClassNotFoundException {
-        if ( elementsInFile > 0 ) {
-            if ( is == null ) {
-                os.flush();
-                is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
-            }
+    /**
+     * Remove the oldest element, reading it back from disk if it was spilled.
+     *
+     * @return the oldest element
+     * @throws NoSuchElementException if the list is empty
+     * @throws IOException if the spilled element cannot be read back
+     */
+    public T removeFirst() throws IOException {
+        if ( elementsInFile == 0 ) {
+            return list.removeFirst();
+        }
 
-            Object object = is.readObject();
-            T element = clazz.cast(object);
-            elementsInFile--;
+        int length = mapped(readPosition, LENGTH_SIZE).getInt((int) (readPosition - mapPosition));
+        long recordPosition = readPosition + LENGTH_SIZE;
+        ByteBuffer record = mapped(recordPosition, length).duplicate();
+        int offset = (int) (recordPosition - mapPosition);
+        record.limit(offset + length).position(offset);
 
-            return element;
-        } else {
-            return list.removeFirst();
+        T element = codec.decode(record.slice());
+        readPosition = recordPosition + length;
+        elementsInFile--;
+
+        if ( elementsInFile == 0 ) {
+            // everything spilled was read back, the file is written again from its start.
+            map = null;
+            writePosition = 0;
+            readPosition = 0;
         }
+        return element;
     }
 
-    public Long size() {
+    public long size() {
         return list.size() + elementsInFile;
     }
 
-    public Long inMemorySize() {
-        return Long.valueOf(list.size());
+    public long inMemorySize() {
+        return list.size();
     }
 
+    /**
+     * Drop every element and delete the spill file.
+     *
+     * @throws IOException if the spill file cannot be closed
+     */
     @Override
-    protected void finalize() throws Throwable {
-        try {
-            if ( file != null )
-                file.delete();
-        } finally {
-            super.finalize();
+    public void close() throws IOException {
+        list.clear();
+        last = null;
+        elementsInFile = 0;
+        map = null;
+        writeBuffer = null;
+        if ( channel != null ) {
+            try {
+                // opened with DELETE_ON_CLOSE.
+                channel.close();
+            } finally {
+                channel = null;
+                Files.deleteIfExists(file);
+            }
         }
     }
 
     protected T evict() throws IOException {
-        if (file == null) {
-            file = File.createTempFile("inspections", "jars");
-            file.deleteOnExit();
-            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
-        }
-
-        if (elementsInFile == 0) {
-            System.out.println("Overflowed in-memory buffer, spilling over into " + file);
+        if (channel == null) {
+            file = Files.createTempFile("inspections", ".spill");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
         }
 
         T evicted = this.list.removeFirst();
-        os.writeObject(evicted);
-
+        write(evicted);
         elementsInFile++;
 
-        if ( elementsInFile % maxInMemoryElements == 0 )
-            resetOutputStreamCaches();
-
         return evicted;
     }
 
+    private void write(T element) throws IOException {
+        if ( encode(element, writeBuffer) ) {
+            return;
+        }
+        flushToDisk();
+        if ( encode(element, writeBuffer) ) {
+            return;
+        }
+
+        // larger than the whole write buffer: encoded on its own and written straight away.
+        ByteBuffer buffer = ByteBuffer.allocate(writeBuffer.capacity() * 2);
+        while ( !encode(element, buffer) ) {
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()){
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+
+    /*
+       appends one length prefixed record to the buffer, or leaves the buffer as it was and
+       returns false when the record does not fit.
+     */
+    private boolean encode(T element, ByteBuffer buffer) {
+        int start = buffer.position();
+        if ( buffer.remaining() < LENGTH_SIZE ) {
+            return false;
+        }
+        try {
+            buffer.position(start + LENGTH_SIZE);
+            codec.encode(element, buffer);
+        } catch (BufferOverflowException boe) {
+            buffer.position(start);
+            return false;
+        }
+        buffer.putInt(start, buffer.position() - start - LENGTH_SIZE);
+        return true;
+    }
+
+    /*
+       returns a mapping of the file holding the {@code length} bytes at {@code position},
+       mapping the next window of the file when the current one does not.
+     */
+    private MappedByteBuffer mapped(long position, int length) throws IOException {
+        if ( map == null || position < mapPosition || position + length > mapPosition + map.limit() ) {
+            flushToDisk();
+            long size = Math.max(length, Math.min(MAP_WINDOW_SIZE, writePosition - position));
+            map = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            mapPosition = position;
+        }
+        return map;
+    }
+
+    private static final class Utf8Codec implements Codec<String> {
+        @Override
+        public void encode(String element, ByteBuffer out) {
+            out.put(element.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String decode(ByteBuffer in) {
+            if ( in.hasArray() ) {
+                return new String(in.array(), in.arrayOffset() + in.position(), in.remaining(), StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[in.remaining()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
 }
@@ -0,0 +1,274 @@
+package com.github.clazz.utils;
+
+import com.github.clazz.metrics.ScanMetrics;
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   parses archives nested in archives: the libraries of Spring Boot fat jars
+   (BOOT-INF/lib/*.jar), of WARs (WEB-INF/lib/*.jar) and the modules of EARs.
+   nothing is extracted to disk. a stored nested archive, as Spring Boot
+   requires, is read in place through a slice or mapping of its outer archive
+   and its central directory; a compressed one is streamed once through a
+   ZipInputStream. a nested archive is named after its path from the file on
+   disk, e.g. app.war!/WEB-INF/lib/lib.jar.
+ */
+public final class NestedArchives {
+    /** separates the path of a nested archive from the path of the archive holding it. */
+    public static final String SEPARATOR = "!/";
+    /** how deep archives are opened by default: enough for a jar in a WAR in an EAR. */
+    public static final int DEFAULT_MAX_DEPTH = 2;
+
+    private static final byte[][] ARCHIVE_SUFFIXES = {
+            ".jar".getBytes(StandardCharsets.US_ASCII),
+            ".war".getBytes(StandardCharsets.US_ASCII),
+            ".ear".getBytes(StandardCharsets.US_ASCII)
+    };
+    private static final byte[] CLASS_SUFFIX = ".class".getBytes(StandardCharsets.US_ASCII);
+    private static final int STORED = 0;
+
+    private NestedArchives(){
+        // no instance.
+    }
+
+    /**
+     * @param name a file or entry name
+     * @return whether the name is the name of a jar, WAR or EAR
+     */
+    public static boolean isArchiveName(String name){
+        return name.endsWith(".jar") || name.endsWith(".war") || name.endsWith(".ear");
+    }
+
+    /**
+     * Parse the class names of an archive and of the archives nested in it, down to {@code
+     * maxDepth} levels.
+     *
+     * @param archivePath the archive file
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @return the archive first, then the nested archives in the order they were found
+     * @throws ZipException if the central directory of the archive file cannot be read
+     * @throws IOException if the archive file cannot be read
+     */
+    public static List<JarClass> parse(String archivePath, int nameFlags, int maxDepth) throws IOException {
+        return parse(archivePath, nameFlags, maxDepth, null);
+    }
+
+    /**
+     * Same as {@link #parse(String, int, int)}, recording the open and parse stages of the
+     * archive file, with the bytes read and the entries visited, into {@code metrics}.
+     *
+     * @param archivePath the archive file
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @param metrics receives the timings and counters, null for none
+     * @return the archive first, then the nested archives in the order they were found
+     * @throws ZipException if the central directory of the archive file cannot be read
+     * @throws IOException if the archive file cannot be read
+     */
+    public static List<JarClass> parse(String archivePath, int nameFlags, int maxDepth, ScanMetrics metrics)
+            throws IOException {
+        return parse(archivePath, nameFlags, maxDepth, metrics, ProblemListener.IGNORE);
+    }
+
+    /**
+     * Same as {@link #parse(String, int, int, ScanMetrics)}, reporting the nested archives that
+     * cannot be parsed, which are skipped, to {@code listener}.
+     *
+     * @param archivePath the archive file
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @param metrics receives the timings and counters, null for none
+     * @param listener receives the nested archives skipped
+     * @return the archive first, then the nested archives in the order they were found
+     * @throws ZipException if the central directory of the archive file cannot be read
+     * @throws IOException if the archive file cannot be read
+     */
+    public static List<JarClass> parse(String archivePath, int nameFlags, int maxDepth, ScanMetrics metrics,
+                                       ProblemListener listener) throws IOException {
+        checkNotNull(listener, "listener");
+        long startNanos = System.nanoTime();
+        try(FileChannel channel = FileChannel.open(Paths.get(archivePath), StandardOpenOption.READ)){
+            return parse(archivePath, channel, ZipCentralDirectory.read(channel), startNanos, nameFlags, maxDepth,
+                    metrics, listener);
+        }
+    }
+
+    /*
+       parses an archive file whose central directory the caller already read, the open stage
+       running from startNanos until now.
+     */
+    static List<JarClass> parse(String archivePath, FileChannel channel, ZipCentralDirectory centralDirectory,
+                                long startNanos, int nameFlags, int maxDepth, ScanMetrics metrics,
+                                ProblemListener listener) throws IOException {
+        List<JarClass> jarClasses = new ArrayList<>();
+        Tally tally = new Tally(listener);
+        long openedNanos = System.nanoTime();
+        try(ZipEntryReader entryReader = new ZipEntryReader(channel)){
+            parse(archivePath, centralDirectory, entryReader, nameFlags, 0, maxDepth, jarClasses, tally);
+        }
+
+        if(metrics != null){
+            long endNanos = System.nanoTime();
+            metrics.record(ScanMetrics.Stage.OPEN, openedNanos - startNanos);
+            metrics.record(ScanMetrics.Stage.PARSE, endNanos - openedNanos);
+            metrics.recordJar(archivePath, endNanos - startNanos, tally.bytes, tally.entries, tally.classes);
+        }
+        return jarClasses;
+    }
+
+    private static void parse(String path, ZipCentralDirectory centralDirectory, ZipEntryReader entryReader,
+                              int nameFlags, int depth, int maxDepth, List<JarClass> jarClasses, Tally tally)
+            throws IOException {
+        JarClass jarClass = new JarClass();
+        jarClass.setJarPath(path);
+        jarClasses.add(jarClass);
+        tally.bytes += centralDirectory.buffer().remaining();
+
+        ClassNameTable.Builder builder = new ClassNameTable.Builder();
+        ZipCentralDirectory.Cursor cursor = centralDirectory.cursor();
+        while(cursor.next()){
+            tally.entries++;
+            if(cursor.nameEndsWith(CLASS_SUFFIX)){
+                ClassNames.addCanonicalName(cursor.nameBuffer(), cursor.nameOffset(), cursor.nameLength(), nameFlags,
+                        cursor.crc(), cursor.size(), builder);
+            }else if(depth < maxDepth && !cursor.isDirectory() && isArchiveName(cursor)){
+                String nestedPath = path + SEPARATOR + cursor.name();
+                try{
+                    if(cursor.method() == STORED){
+                        ByteBuffer nested = entryReader.mapStored(cursor);
+                        try(ZipEntryReader nestedReader = new ZipEntryReader(nested)){
+                            parse(nestedPath, ZipCentralDirectory.read(nested), nestedReader,
+                                    nameFlags, depth + 1, maxDepth, jarClasses, tally);
+                        }
+                    }else{
+                        tally.bytes += cursor.compressedSize();
+                        try(InputStream in = entryReader.openStream(cursor)){
+                            parseStream(nestedPath, in, nameFlags, depth + 1, maxDepth, jarClasses, tally);
+                        }
+                    }
+                }catch (IOException ioe){
+                    // a broken library does not hide the rest of the archive.
+                    tally.listener.problem("nested archive parse failed", nestedPath, ioe);
+                }
+            }
+        }
+        // the table drops duplicates, e.g. the same class in several multi-release versions.
+        jarClass.setClassNames(builder.build());
+        tally.classes += jarClass.getClassNames().size();
+    }
+
+    private static void parseStream(String path, InputStream in, int nameFlags, int depth, int maxDepth,
+                                    List<JarClass> jarClasses, Tally tally) throws IOException {
+        JarClass jarClass = new JarClass();
+        jarClass.setJarPath(path);
+        jarClasses.add(jarClass);
+
+        ClassNameTable.Builder builder = new ClassNameTable.Builder();
+        // closing the nested stream must leave the outer one open.
+        try(ZipInputStream zipIn = new ZipInputStream(new FilterInputStream(in){
+            @Override
+            public void close(){
+            }
+        })){
+            ZipEntry entry;
+            while((entry = zipIn.getNextEntry()) != null){
+                tally.entries++;
+                String name = entry.getName();
+                if(entry.isDirectory()){
+                    continue;
+                }
+                if(name.endsWith(".class")){
+                    String canonicalName = ClassNames.toCanonicalName(name, nameFlags);
+                    if(canonicalName != null){
+                        // CRC-32 and size may only be known once the entry has been read through.
+                        zipIn.closeEntry();
+                        builder.add(canonicalName, (int) entry.getCrc(), entry.getSize());
+                    }
+                }else if(depth < maxDepth && isArchiveName(name)){
+                    String nestedPath = path + SEPARATOR + name;
+                    try{
+                        parseStream(nestedPath, zipIn, nameFlags, depth + 1, maxDepth, jarClasses, tally);
+                    }catch (IOException ioe){
+                        tally.listener.problem("nested archive parse failed", nestedPath, ioe);
+                    }
+                }
+            }
+        }
+        jarClass.setClassNames(builder.build());
+        tally.classes += jarClass.getClassNames().size();
+    }
+
+    /**
+     * Load a nested archive for random access: a slice or mapping when it is stored, its
+     * inflated content otherwise.
+     *
+     * @param nestedPath a path such as {@code app.war!/WEB-INF/lib/lib.jar}
+     * @return the whole nested archive, from position to limit
+     * @throws IOException if an archive on the path cannot be read or has no such entry
+     */
+    public static ByteBuffer load(String nestedPath) throws IOException {
+        String[] parts = nestedPath.split(SEPARATOR);
+        try(FileChannel channel = FileChannel.open(Paths.get(parts[0]), StandardOpenOption.READ);
+            ZipEntryReader entryReader = new ZipEntryReader(channel)){
+            ByteBuffer archive = entry(ZipCentralDirectory.read(channel), entryReader, parts[1], nestedPath);
+            for (int i = 2; i < parts.length; i++) {
+                try(ZipEntryReader nestedReader = new ZipEntryReader(archive)){
+                    archive = entry(ZipCentralDirectory.read(archive), nestedReader, parts[i], nestedPath);
+                }
+            }
+            return archive;
+        }
+    }
+
+    private static ByteBuffer entry(ZipCentralDirectory centralDirectory, ZipEntryReader entryReader,
+                                    String name, String nestedPath) throws IOException {
+        ZipCentralDirectory.Cursor cursor = centralDirectory.cursor();
+        while(cursor.next()){
+            if(cursor.name().equals(name)){
+                return cursor.method() == STORED ? entryReader.mapStored(cursor) : ByteBuffer.wrap(entryReader.read(cursor));
+            }
+        }
+        throw new ZipException("nested archive not found: " + nestedPath);
+    }
+
+    private static boolean isArchiveName(ZipCentralDirectory.Cursor cursor){
+        for (byte[] suffix : ARCHIVE_SUFFIXES) {
+            if(cursor.nameEndsWith(suffix)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+       what parsing an archive file went through, nested archives included: the central
+       directory bytes read, plus the compressed bytes of the nested archives streamed.
+     */
+    private static final class Tally {
+        private final ProblemListener listener;
+        private long bytes;
+        private long entries;
+        private long classes;
+
+        private Tally(ProblemListener listener){
+            this.listener = listener;
+        }
+    }
+}
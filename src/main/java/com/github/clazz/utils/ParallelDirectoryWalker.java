@@ -0,0 +1,150 @@
+package com.github.clazz.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+import static com.github.clazz.utils.Utils.checkNotNull;
+
+/*
+   walks a directory tree on a fork-join pool: every directory is listed by
+   its own task, so on a high latency file system many directories are listed
+   at once instead of one after the other. every entry is stat'ed once and its
+   attributes are handed to the sink with it. symbolic links can be followed;
+   a directory reached twice, through a link cycle or through two links, is
+   only walked the first time.
+ */
+public final class ParallelDirectoryWalker {
+    private static final LinkOption[] FOLLOW_LINKS = {};
+    private static final LinkOption[] NO_FOLLOW_LINKS = {LinkOption.NOFOLLOW_LINKS};
+
+    /**
+     * Receives the files accepted by the filter. Called from several threads at once.
+     */
+    public interface FileSink {
+        void accept(Path file, BasicFileAttributes attrs);
+    }
+
+    private final int parallelism;
+    private final boolean followLinks;
+
+    /**
+     * @param parallelism the number of directories listed at once
+     * @param followLinks whether to follow symbolic links to files and directories
+     */
+    public ParallelDirectoryWalker(int parallelism, boolean followLinks){
+        if(parallelism < 1){
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.followLinks = followLinks;
+    }
+
+    /**
+     * Walk {@code root} and hand every regular file that satisfies {@code fileFilter} to
+     * {@code sink}. A directory or file that cannot be read is skipped. {@code root} may also
+     * be a file, which is then the only file visited.
+     *
+     * @param root the directory to walk
+     * @param fileFilter selects the files handed to {@code sink}
+     * @param sink receives the selected files with their attributes
+     * @throws IOException if {@code root} cannot be read
+     */
+    public void walk(Path root, Predicate<Path> fileFilter, FileSink sink) throws IOException {
+        checkNotNull(root, "root");
+        checkNotNull(fileFilter, "fileFilter");
+        checkNotNull(sink, "sink");
+
+        BasicFileAttributes rootAttrs = Files.readAttributes(root, BasicFileAttributes.class, linkOptions());
+        if(!rootAttrs.isDirectory()){
+            if(rootAttrs.isRegularFile() && fileFilter.test(root)){
+                sink.accept(root, rootAttrs);
+            }
+            return;
+        }
+
+        Set<Object> visited = ConcurrentHashMap.newKeySet();
+        visited.add(directoryKey(root, rootAttrs));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try{
+            pool.invoke(new DirectoryTask(root, fileFilter, sink, visited));
+        }finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private LinkOption[] linkOptions(){
+        return followLinks ? FOLLOW_LINKS : NO_FOLLOW_LINKS;
+    }
+
+    /*
+       identifies a directory whatever the path it was reached through: its file key (device
+       and inode on unix) when the file system has one, its real path otherwise.
+     */
+    private static Object directoryKey(Path dir, BasicFileAttributes attrs){
+        Object fileKey = attrs.fileKey();
+        if(fileKey != null){
+            return fileKey;
+        }
+        try{
+            return dir.toRealPath().toString();
+        }catch (IOException ioe){
+            return dir.toAbsolutePath().normalize().toString();
+        }
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Predicate<Path> fileFilter;
+        private final FileSink sink;
+        private final Set<Object> visited;
+
+        private DirectoryTask(Path dir, Predicate<Path> fileFilter, FileSink sink, Set<Object> visited){
+            this.dir = dir;
+            this.fileFilter = fileFilter;
+            this.sink = sink;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute(){
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try(DirectoryStream<Path> entries = Files.newDirectoryStream(dir)){
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs;
+                    try{
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, linkOptions());
+                    }catch (IOException ioe){
+                        // a dangling link or an entry gone since the listing.
+                        continue;
+                    }
+
+                    if(attrs.isDirectory()){
+                        if(visited.add(directoryKey(entry, attrs))){
+                            DirectoryTask subtask = new DirectoryTask(entry, fileFilter, sink, visited);
+                            subtask.fork();
+                            subtasks.add(subtask);
+                        }
+                    }else if(attrs.isRegularFile() && fileFilter.test(entry)){
+                        sink.accept(entry, attrs);
+                    }
+                }
+            }catch (IOException | DirectoryIteratorException e){
+                // an unreadable directory is skipped like Files.walkFileTree callers here do.
+            }
+
+            for (DirectoryTask subtask : subtasks) {
+                subtask.join();
+            }
+        }
+    }
+}
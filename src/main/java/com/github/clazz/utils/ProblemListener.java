@@ -0,0 +1,19 @@
+package com.github.clazz.utils;
+
+/**
+ * Receives the problems a scan or search gets past without failing: a jar, nested archive or
+ * class file that cannot be read is skipped and reported here. The library never prints them
+ * itself; the command line tool prints them on stderr. May be called from several threads at
+ * once.
+ */
+public interface ProblemListener {
+    /** drops every problem. */
+    ProblemListener IGNORE = (message, path, cause) -> {};
+
+    /**
+     * @param message what went wrong, e.g. {@code "jar parse failed"}
+     * @param path the jar, nested archive, class or file concerned, null if none
+     * @param cause the error, null if none
+     */
+    void problem(String message, String path, Throwable cause);
+}
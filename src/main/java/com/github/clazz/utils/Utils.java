@@ -1,7 +1,8 @@
 package com.github.clazz.utils;
 
+import com.github.clazz.metrics.ScanMetrics;
+import com.github.clazz.model.ClassNameTable;
 import com.github.clazz.model.JarClass;
-import com.sun.istack.internal.Nullable;
 
 import java.io.File;
 import java.io.IOException;
@@ -10,81 +11,186 @@ import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipException;
 
 public final class Utils {
     private static final long MILLIS_ONE_DAY = 86400000L;
+    private static final byte[] CLASS_SUFFIX = ".class".getBytes(StandardCharsets.US_ASCII);
 
     private Utils(){
         // no instance.
     }
 
     public static JarClass jarClassParse(String jarPath){
-        JarFile jarFile = null;
+        return jarClassParse(jarPath, 0);
+    }
+
+    /**
+     * Parse the class names of a jar.
+     *
+     * @param jarPath the jar to parse
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @return the parsed jar, without class names if it could not be read
+     */
+    public static JarClass jarClassParse(String jarPath, int nameFlags){
+        JarClass jarClass = null;
 
         try{
-            jarFile = new JarFile(jarPath);
+            jarClass = parseJar(jarPath, nameFlags);
         }catch (IOException ioe){
             ioe.printStackTrace();
         }
 
-        JarClass jarClass = new JarClass();
-        jarClass.setJarPath(jarPath);
+        if(jarClass == null){
+            jarClass = new JarClass();
+            jarClass.setJarPath(jarPath);
+        }
+
+        return jarClass;
+    }
+
+    private static JarClass parseJar(String jarPath, int nameFlags) throws IOException {
+        return parseArchive(jarPath, nameFlags, 0, null, ProblemListener.IGNORE).get(0);
+    }
+
+    /**
+     * Parse the class names of a jar, WAR or EAR file and of the archives nested in it.
+     *
+     * @param jarPath the file to parse
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @return the file first, then the archives nested in it
+     * @throws IOException if the file cannot be read
+     */
+    public static List<JarClass> jarArchiveParse(String jarPath, int nameFlags, int maxDepth) throws IOException {
+        return parseArchive(jarPath, nameFlags, maxDepth, null, ProblemListener.IGNORE);
+    }
+
+    /**
+     * Same as {@link #jarArchiveParse(String, int, int)}, recording the time it took, the bytes
+     * read and the entries visited into {@code metrics}.
+     *
+     * @param jarPath the file to parse
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @param metrics receives the timings and counters, null for none
+     * @return the file first, then the archives nested in it
+     * @throws IOException if the file cannot be read
+     */
+    public static List<JarClass> jarArchiveParse(String jarPath, int nameFlags, int maxDepth, ScanMetrics metrics)
+            throws IOException {
+        return parseArchive(jarPath, nameFlags, maxDepth, metrics, ProblemListener.IGNORE);
+    }
+
+    /**
+     * Same as {@link #jarArchiveParse(String, int, int, ScanMetrics)}, reporting the nested
+     * archives that cannot be parsed, which are skipped, to {@code listener}.
+     *
+     * @param jarPath the file to parse
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @param metrics receives the timings and counters, null for none
+     * @param listener receives the nested archives skipped
+     * @return the file first, then the archives nested in it
+     * @throws IOException if the file cannot be read
+     */
+    public static List<JarClass> jarArchiveParse(String jarPath, int nameFlags, int maxDepth, ScanMetrics metrics,
+                                                 ProblemListener listener) throws IOException {
+        return parseArchive(jarPath, nameFlags, maxDepth, metrics, checkNotNull(listener, "listener"));
+    }
+
+    private static List<JarClass> parseArchive(String jarPath, int nameFlags, int maxDepth, ScanMetrics metrics,
+                                               ProblemListener listener) throws IOException {
+        try{
+            try{
+                return NestedArchives.parse(jarPath, nameFlags, maxDepth, metrics, listener);
+            }catch (ZipException ze){
+                // not something the central directory reader understands, let JarFile have a go,
+                // without looking into nested archives.
+                JarClass jarClass = new JarClass();
+                jarClass.setJarPath(jarPath);
+                jarClass.setClassNames(parseJarWithJarFile(jarPath, nameFlags, ze, metrics).build());
+                return Collections.singletonList(jarClass);
+            }
+        }catch (IOException ioe){
+            if(metrics != null){
+                metrics.recordFailedJar();
+            }
+            throw ioe;
+        }
+    }
 
-        if(jarFile != null){
+    private static ClassNameTable.Builder parseJarWithJarFile(String jarPath, int nameFlags, ZipException cause,
+                                                              ScanMetrics metrics) throws IOException {
+        long startNanos = System.nanoTime();
+        ClassNameTable.Builder builder = new ClassNameTable.Builder();
+        long entryCount = 0;
+        try(JarFile jarFile = new JarFile(jarPath, false)){
+            long openedNanos = System.nanoTime();
             Enumeration<JarEntry> entries =  jarFile.entries();
-            List<String> canonicalNames = new ArrayList<>();
             while(entries.hasMoreElements()){
                 JarEntry jarEntry = entries.nextElement();
-                if(!jarEntry.isDirectory() && jarEntry.getName().endsWith(".class")){
-                    String clazzStrTemp = jarEntry.getName();
-                    String clazzStr = clazzStrTemp.split("\\.")[0];
-                    String clazzCanonicalName = clazzStr.replaceAll("/",".");
-                    canonicalNames.add(clazzCanonicalName);
+                entryCount++;
+                if(!jarEntry.isDirectory()){
+                    String canonicalName = ClassNames.toCanonicalName(jarEntry.getName(), nameFlags);
+                    if(canonicalName != null){
+                        builder.add(canonicalName, (int) jarEntry.getCrc(), jarEntry.getSize());
+                    }
                 }
             }
-            jarClass.setCanonicalName(canonicalNames);
-        }
 
-       return jarClass;
+            if(metrics != null){
+                long endNanos = System.nanoTime();
+                metrics.record(ScanMetrics.Stage.OPEN, openedNanos - startNanos);
+                metrics.record(ScanMetrics.Stage.PARSE, endNanos - openedNanos);
+                // JarFile does not tell how much it read, the whole file is counted.
+                metrics.recordJar(jarPath, endNanos - startNanos, new File(jarPath).length(), entryCount,
+                        builder.size());
+            }
+        }catch (IOException ioe){
+            ioe.addSuppressed(cause);
+            throw ioe;
+        }
+        return builder;
     }
 
     public static List<File> dirJarFileScan(String jarPath){
-        List<File> dirJarFiles = new ArrayList<>();
-
-        try{
-            Files.walkFileTree(Paths.get(jarPath),new SimpleFileVisitor<Path>(){
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    File dirFile = file.toFile();
-                    if(dirFile.getName().endsWith(".jar")){
-                        dirJarFiles.add(dirFile);
-                    }
-
-                    return super.visitFile(file,attrs);
-                }
-
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs){
-                    return FileVisitResult.CONTINUE;
-                }
+        return dirJarFileScan(jarPath, Runtime.getRuntime().availableProcessors());
+    }
 
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc){
-                    return FileVisitResult.CONTINUE;
-                }
-            });
+    /**
+     * List the jar, WAR and EAR files under {@code jarPath}, following symbolic links, with
+     * {@link ParallelDirectoryWalker}.
+     *
+     * @param jarPath a directory, or a single archive file
+     * @param threads the number of directories listed at once
+     * @return the archive files found, sorted by path
+     */
+    public static List<File> dirJarFileScan(String jarPath, int threads){
+        List<File> dirJarFiles = Collections.synchronizedList(new ArrayList<>());
 
+        try{
+            new ParallelDirectoryWalker(threads, true).walk(Paths.get(jarPath),
+                    file -> NestedArchives.isArchiveName(file.getFileName().toString()),
+                    (file, attrs) -> dirJarFiles.add(file.toFile()));
         }catch (IOException ioe){
             ioe.printStackTrace();
         }
 
-        return dirJarFiles;
+        List<File> sorted = new ArrayList<>(dirJarFiles);
+        Collections.sort(sorted);
+        return sorted;
     }
 
     /**
@@ -111,15 +217,12 @@ public final class Utils {
                     String.format("The %s is not a directory.", directory));
         }
 
-        final FilterFileVisitor filterFileVisitor = new FilterFileVisitor(fileFilter);
-
-        Files.walkFileTree(
-                directory,
-                EnumSet.of(FileVisitOption.FOLLOW_LINKS),
-                Integer.MAX_VALUE,
-                filterFileVisitor);
+        final Collection<Path> files = new ConcurrentLinkedQueue<>();
+        // follows links like Files.walkFileTree with FOLLOW_LINKS, a link cycle is walked once.
+        new ParallelDirectoryWalker(Runtime.getRuntime().availableProcessors(), true)
+                .walk(directory, fileFilter, (file, attrs) -> files.add(file));
 
-        return filterFileVisitor.getFiles();
+        return Collections.unmodifiableCollection(files);
     }
 
     /**
@@ -141,7 +244,7 @@ public final class Utils {
      * @return The object reference itself (generically typed).
      * @throws NullPointerException Thrown, if the passed reference was null.
      */
-    public static <T> T checkNotNull(@Nullable T reference, @Nullable String errorMessage) {
+    public static <T> T checkNotNull(T reference, String errorMessage) {
         if (reference == null) {
             throw new NullPointerException(String.valueOf(errorMessage));
         }
@@ -156,7 +259,7 @@ public final class Utils {
      * @return The object reference itself (generically typed).
      * @throws NullPointerException Thrown, if the passed reference was null.
      */
-    public static <T> T checkNotNull(@Nullable T reference) {
+    public static <T> T checkNotNull(T reference) {
         if (reference == null) {
             throw new NullPointerException();
         }
@@ -172,6 +275,165 @@ public final class Utils {
         return jarClassList;
     }
 
+    /**
+     * Parse the jar files on a work-stealing pool of {@code threads} workers. Every parsed jar
+     * is handed to {@code consumer} on the calling thread as soon as it is finished, so the
+     * caller can match against it while the remaining jars are still being parsed. A jar that
+     * fails to parse is reported on stderr and skipped, it does not stop the run.
+     *
+     * @param dirJarFiles the jar files to parse
+     * @param threads the number of parser threads
+     * @param consumer receives every successfully parsed jar, in completion order
+     * @return the number of jars that failed to parse
+     */
+    public static int jarFileClassesParse(List<File> dirJarFiles, int threads, Consumer<JarClass> consumer){
+        return jarFileClassesParse(dirJarFiles, threads, 0, consumer);
+    }
+
+    /**
+     * Same as {@link #jarFileClassesParse(List, int, Consumer)}, skipping the classes selected
+     * by {@code nameFlags}.
+     *
+     * @param dirJarFiles the jar files to parse
+     * @param threads the number of parser threads
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @param consumer receives every successfully parsed jar, in completion order
+     * @return the number of jars that failed to parse
+     */
+    public static int jarFileClassesParse(List<File> dirJarFiles, int threads, int nameFlags,
+                                          Consumer<JarClass> consumer){
+        checkNotNull(dirJarFiles, "dirJarFiles");
+        List<String> jarPaths = new ArrayList<>(dirJarFiles.size());
+        for (File jarFile : dirJarFiles) {
+            jarPaths.add(jarFile.getAbsolutePath());
+        }
+        return jarFilesProcess(jarPaths, threads, jarPath -> parseJar(jarPath, nameFlags), consumer);
+    }
+
+    /**
+     * Same as {@link #jarFileClassesParse(List, int, int, Consumer)}, also parsing the archives
+     * nested in every jar, WAR or EAR file, e.g. the libraries of a Spring Boot jar.
+     *
+     * @param dirJarFiles the jar, WAR or EAR files to parse
+     * @param threads the number of parser threads
+     * @param nameFlags {@link ClassNames} flags selecting the classes to skip
+     * @param maxDepth how many levels of nested archives to open, 0 for none
+     * @param consumer receives, for every successfully parsed file, the file first and then the
+     *     archives nested in it, named like {@code app.war!/WEB-INF/lib/lib.jar}
+     * @return the number of files that failed to parse
+     */
+    public static int jarFileClassesParse(List<File> dirJarFiles, int threads, int nameFlags, int maxDepth,
+                                          Consumer<List<JarClass>> consumer){
+        checkNotNull(dirJarFiles, "dirJarFiles");
+        List<String> jarPaths = new ArrayList<>(dirJarFiles.size());
+        for (File jarFile : dirJarFiles) {
+            jarPaths.add(jarFile.getAbsolutePath());
+        }
+        return jarFilesProcess(jarPaths, threads, jarPath -> parseArchive(jarPath, nameFlags, maxDepth, null, ProblemListener.IGNORE),
+                consumer);
+    }
+
+    /**
+     * Work done on one jar by {@link #jarFilesProcess}.
+     */
+    public interface JarTask<T> {
+        T process(String jarPath) throws IOException;
+    }
+
+    /**
+     * Run {@code task} on every jar on a work-stealing pool of {@code threads} workers. Every
+     * result is handed to {@code consumer} on the calling thread as soon as it is ready, so the
+     * caller can use it while the remaining jars are still being processed. A jar the task fails
+     * on is skipped and counted, it does not stop the run.
+     *
+     * @param jarPaths the jars to process
+     * @param threads the number of worker threads
+     * @param task the work to do on each jar
+     * @param consumer receives every non-null result, in completion order
+     * @return the number of jars the task failed on
+     */
+    public static <T> int jarFilesProcess(List<String> jarPaths, int threads, JarTask<T> task,
+                                          Consumer<T> consumer){
+        return jarFilesProcess(jarPaths, threads, task, ProblemListener.IGNORE, consumer);
+    }
+
+    /**
+     * Same as {@link #jarFilesProcess(List, int, JarTask, Consumer)}, reporting every jar the
+     * task fails on to {@code listener}.
+     *
+     * @param jarPaths the jars to process
+     * @param threads the number of worker threads
+     * @param task the work to do on each jar
+     * @param listener receives the jars skipped, on the calling thread
+     * @param consumer receives every non-null result, in completion order
+     * @return the number of jars the task failed on
+     */
+    public static <T> int jarFilesProcess(List<String> jarPaths, int threads, JarTask<T> task,
+                                          ProblemListener listener, Consumer<T> consumer){
+        checkNotNull(jarPaths, "jarPaths");
+        checkNotNull(task, "task");
+        checkNotNull(listener, "listener");
+        checkNotNull(consumer, "consumer");
+        if(threads < 1){
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        CompletionService<TaskOutcome<T>> completionService = new ExecutorCompletionService<>(pool);
+        // keep at most a couple of jars per worker queued, so slow consumers hold memory flat.
+        int maxInFlight = threads * 2;
+        int submitted = 0;
+        int inFlight = 0;
+        int failed = 0;
+
+        try{
+            while(submitted < jarPaths.size() || inFlight > 0){
+                while(submitted < jarPaths.size() && inFlight < maxInFlight){
+                    String jarPath = jarPaths.get(submitted);
+                    completionService.submit(() -> {
+                        try{
+                            return new TaskOutcome<>(jarPath, task.process(jarPath), null);
+                        }catch (Exception | LinkageError e){
+                            return new TaskOutcome<>(jarPath, null, e);
+                        }
+                    });
+                    submitted++;
+                    inFlight++;
+                }
+
+                TaskOutcome<T> outcome = completionService.take().get();
+                inFlight--;
+                if(outcome.error != null){
+                    failed++;
+                    listener.problem("jar parse failed", outcome.jarPath, outcome.error);
+                }else if(outcome.result != null){
+                    consumer.accept(outcome.result);
+                }
+            }
+        }catch (InterruptedException ie){
+            Thread.currentThread().interrupt();
+        }catch (ExecutionException ee){
+            // tasks never throw, see above.
+            throw new IllegalStateException(ee.getCause());
+        }finally {
+            pool.shutdownNow();
+        }
+
+        return failed;
+    }
+
+    private static final class TaskOutcome<T> {
+        private final String jarPath;
+        private final T result;
+        private final Throwable error;
+
+        private TaskOutcome(String jarPath, T result, Throwable error){
+            this.jarPath = jarPath;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
     /**
      * Call Class.forName(className), but return null if any exception is thrown.
      *
@@ -210,6 +472,15 @@ public final class Utils {
         return new URL(path);
     }
 
+    /**
+     * Load a class from a jar through a new class loader, running its static initializers.
+     *
+     * @deprecated the class loader is never closed and every call leaks it along with the jar
+     *     file handle and the loaded classes. Use {@link
+     *     com.github.clazz.classfile.ClassInfoReader}, which reads the class metadata without
+     *     loading anything.
+     */
+    @Deprecated
     public static Class<?> loadClassFromJar(File file,String clazzStr){
         Class<?> clazz = null;
 
@@ -254,8 +525,8 @@ public final class Utils {
             throw new IOException(file.getAbsolutePath() + " not exists.");
         }
 
-        if (file.isFile() && !file.getName().endsWith(".jar")) {
-            throw new IOException(file.getAbsolutePath() + " is not a jar file.");
+        if (file.isFile() && !NestedArchives.isArchiveName(file.getName())) {
+            throw new IOException(file.getAbsolutePath() + " is not a jar, war or ear file.");
         }
 
         if (!file.canRead()) {
@@ -275,34 +546,27 @@ public final class Utils {
 
     /**
      * Given a time expressed in milliseconds, append the time formatted as
-     * "hh[:mm[:ss]]".
+     * "[d days,]h:mm:ss.SSS".
      *
      * @param buf    Buffer to append to
      * @param transMillis Milliseconds
      */
     public static void appendPosixTime(StringBuilder buf, long transMillis) {
-        int millis = 0;
+        if (transMillis < 0) {
+            buf.append('-');
+            transMillis = -transMillis;
+        }
 
-        if(transMillis > MILLIS_ONE_DAY){
-            long temp = transMillis % MILLIS_ONE_DAY;
-            long daysNum = (transMillis - temp) / MILLIS_ONE_DAY;
-            buf.append(daysNum);
+        if(transMillis >= MILLIS_ONE_DAY){
+            buf.append(transMillis / MILLIS_ONE_DAY);
             buf.append(" days,");
-            millis = (int)(transMillis - daysNum * MILLIS_ONE_DAY);
-        }else{
-            millis = (int)transMillis;
+            transMillis %= MILLIS_ONE_DAY;
         }
 
-        if (millis < 0) {
-            buf.append('-');
-            millis = -millis;
-        }
+        int millis = (int)transMillis;
         int hours = millis / 3600000;
         buf.append(hours);
         millis -= hours * 3600000;
-        if (millis == 0) {
-            return;
-        }
         buf.append(':');
         int minutes = millis / 60000;
         if (minutes < 10) {
@@ -310,14 +574,53 @@ public final class Utils {
         }
         buf.append(minutes);
         millis -= minutes * 60000;
-        if (millis == 0) {
-            return;
-        }
         buf.append(':');
         int seconds = millis / 1000;
         if (seconds < 10) {
             buf.append('0');
         }
         buf.append(seconds);
+        millis -= seconds * 1000;
+        buf.append('.');
+        if (millis < 100) {
+            buf.append('0');
+        }
+        if (millis < 10) {
+            buf.append('0');
+        }
+        buf.append(millis);
+    }
+
+    /**
+     * Append {@code value} as a JSON string, quoted and escaped.
+     *
+     * @param out where to append
+     * @param value the string
+     * @throws IOException if {@code out} fails
+     */
+    public static void appendJsonString(Appendable out, String value) throws IOException {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\'){
+                out.append('\\').append(c);
+            }else if(c < 0x20){
+                out.append(String.format("\\u%04x", (int) c));
+            }else{
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Given a {@link System#nanoTime()} delta, append the time formatted like {@link
+     * #appendPosixTime}.
+     *
+     * @param buf    Buffer to append to
+     * @param transNanos Nanoseconds
+     */
+    public static void appendPosixNanos(StringBuilder buf, long transNanos) {
+        appendPosixTime(buf, TimeUnit.NANOSECONDS.toMillis(transNanos));
     }
 }
@@ -0,0 +1,338 @@
+package com.github.clazz.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipException;
+
+/*
+   the central directory of a zip archive, read straight from the end of
+   central directory record without opening a ZipFile/JarFile. nothing is
+   inflated and no object is created per entry: entries are walked with a
+   reusable Cursor that reads the raw central directory headers in place.
+ */
+public final class ZipCentralDirectory {
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_LEN = 22;
+    private static final int ZIP64_EOCD_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EOCD_LOCATOR_LEN = 20;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_EOCD_LEN = 56;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_LEN = 46;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int MAX_COMMENT_LEN = 0xFFFF;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private final ByteBuffer buffer;
+    private final long entryCount;
+    private final long baseOffset;
+
+    private ZipCentralDirectory(ByteBuffer buffer, long entryCount, long baseOffset){
+        this.buffer = buffer;
+        this.entryCount = entryCount;
+        this.baseOffset = baseOffset;
+    }
+
+    /**
+     * Read the central directory of the archive behind {@code channel}. Only the tail of the
+     * file and the central directory itself are read.
+     *
+     * @param channel an open channel on a zip archive
+     * @return the central directory
+     * @throws IOException if the archive cannot be read or is not a zip archive
+     */
+    public static ZipCentralDirectory read(FileChannel channel) throws IOException {
+        long archiveSize = channel.size();
+        int tailLen = (int) Math.min(archiveSize, EOCD_LEN + MAX_COMMENT_LEN + ZIP64_EOCD_LOCATOR_LEN);
+        ByteBuffer tail = ByteBuffer.allocate(tailLen).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, archiveSize - tailLen);
+
+        int eocdPos = findEndOfCentralDirectory(tail);
+        long eocdOffset = archiveSize - tailLen + eocdPos;
+        long[] cdInfo = centralDirectoryInfo(tail, eocdPos, eocdOffset, channel, null);
+
+        long entryCount = cdInfo[0];
+        long cdSize = cdInfo[1];
+        long cdStart = cdInfo[2];
+        if(cdSize > Integer.MAX_VALUE){
+            throw new ZipException("central directory too large: " + cdSize);
+        }
+
+        ByteBuffer cd = ByteBuffer.allocate((int) cdSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, cd, cdStart);
+        cd.flip();
+        return new ZipCentralDirectory(cd, entryCount, cdStart - cdInfo[3]);
+    }
+
+    /**
+     * Read the central directory of an archive that is already in memory, for example a mapped
+     * file or a stored entry of an outer archive. The returned directory shares its content with
+     * {@code archive}.
+     *
+     * @param archive the whole archive, from position to limit
+     * @return the central directory
+     * @throws IOException if {@code archive} is not a zip archive
+     */
+    public static ZipCentralDirectory read(ByteBuffer archive) throws IOException {
+        ByteBuffer whole = archive.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int archiveSize = whole.limit();
+        int tailLen = Math.min(archiveSize, EOCD_LEN + MAX_COMMENT_LEN + ZIP64_EOCD_LOCATOR_LEN);
+        whole.position(archiveSize - tailLen);
+        ByteBuffer tail = whole.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        int eocdPos = findEndOfCentralDirectory(tail);
+        long eocdOffset = archiveSize - tailLen + eocdPos;
+        long[] cdInfo = centralDirectoryInfo(tail, eocdPos, eocdOffset, null, whole);
+
+        long cdSize = cdInfo[1];
+        long cdStart = cdInfo[2];
+        if(cdStart < 0 || cdStart + cdSize > archiveSize){
+            throw new ZipException("invalid central directory offset: " + cdStart);
+        }
+
+        whole.position((int) cdStart);
+        whole.limit((int) (cdStart + cdSize));
+        ByteBuffer cd = whole.slice().order(ByteOrder.LITTLE_ENDIAN);
+        return new ZipCentralDirectory(cd, cdInfo[0], cdStart - cdInfo[3]);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer tail) throws ZipException {
+        for (int pos = tail.limit() - EOCD_LEN; pos >= 0; pos--) {
+            if(tail.getInt(pos) == EOCD_SIG
+                    && pos + EOCD_LEN + (tail.getShort(pos + 20) & 0xFFFF) <= tail.limit()){
+                return pos;
+            }
+        }
+        throw new ZipException("end of central directory record not found");
+    }
+
+    /*
+       returns {entry count, central directory size, central directory start in the archive,
+       central directory offset as recorded}. the recorded offset differs from the real start
+       when bytes were prepended to the archive, e.g. a launch script in an executable jar.
+     */
+    private static long[] centralDirectoryInfo(ByteBuffer tail, int eocdPos, long eocdOffset,
+                                               FileChannel channel, ByteBuffer whole) throws IOException {
+        long entryCount = tail.getShort(eocdPos + 10) & 0xFFFF;
+        long cdSize = tail.getInt(eocdPos + 12) & 0xFFFFFFFFL;
+        long cdOffset = tail.getInt(eocdPos + 16) & 0xFFFFFFFFL;
+        long cdEnd = eocdOffset;
+
+        int locatorPos = eocdPos - ZIP64_EOCD_LOCATOR_LEN;
+        if((entryCount == ZIP64_MAGIC_COUNT || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC)
+                && locatorPos >= 0 && tail.getInt(locatorPos) == ZIP64_EOCD_LOCATOR_SIG){
+            long zip64EocdOffset = tail.getLong(locatorPos + 8);
+            // the zip64 record sits right before its locator, whatever the recorded offset says.
+            long zip64EocdStart = eocdOffset - ZIP64_EOCD_LOCATOR_LEN - ZIP64_EOCD_LEN;
+            ByteBuffer zip64Eocd = ByteBuffer.allocate(ZIP64_EOCD_LEN).order(ByteOrder.LITTLE_ENDIAN);
+            if(zip64EocdStart < 0){
+                throw new ZipException("invalid zip64 end of central directory offset: " + zip64EocdOffset);
+            }
+            if(channel != null){
+                readFully(channel, zip64Eocd, zip64EocdStart);
+            }else{
+                for (int i = 0; i < ZIP64_EOCD_LEN; i++) {
+                    zip64Eocd.put(i, whole.get((int) zip64EocdStart + i));
+                }
+            }
+
+            if(zip64Eocd.getInt(0) != ZIP64_EOCD_SIG){
+                throw new ZipException("zip64 end of central directory record not found");
+            }
+            entryCount = zip64Eocd.getLong(32);
+            cdSize = zip64Eocd.getLong(40);
+            cdOffset = zip64Eocd.getLong(48);
+            cdEnd = zip64EocdStart;
+        }
+
+        long cdStart = cdEnd - cdSize;
+        if(cdStart < 0){
+            throw new ZipException("invalid central directory size: " + cdSize);
+        }
+        return new long[]{entryCount, cdSize, cdStart, cdOffset};
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()){
+            int read = channel.read(buffer, position + buffer.position());
+            if(read < 0){
+                throw new EOFException("unexpected end of zip archive");
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries recorded in the end of central directory record
+     */
+    public long getEntryCount(){
+        return entryCount;
+    }
+
+    /**
+     * @return a read-only view of the raw central directory bytes
+     */
+    public ByteBuffer buffer(){
+        return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return a new cursor positioned before the first entry
+     */
+    public Cursor cursor(){
+        return new Cursor();
+    }
+
+    /**
+     * A flyweight over the central directory headers. {@link #next()} moves to the next entry,
+     * the accessors read the current header in place.
+     */
+    public final class Cursor {
+        private int headerPos = -1;
+        private int nextPos = 0;
+        private int nameLength;
+        private long compressedSize;
+        private long size;
+        private long localHeaderOffset;
+
+        private Cursor(){
+        }
+
+        /**
+         * Move to the next entry.
+         *
+         * @return false when there are no more entries
+         * @throws ZipException if the central directory is corrupt
+         */
+        public boolean next() throws ZipException {
+            if(nextPos + CEN_LEN > buffer.limit()){
+                return false;
+            }
+            if(buffer.getInt(nextPos) != CEN_SIG){
+                throw new ZipException("invalid central directory header at " + nextPos);
+            }
+
+            headerPos = nextPos;
+            nameLength = buffer.getShort(headerPos + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(headerPos + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(headerPos + 32) & 0xFFFF;
+            nextPos = headerPos + CEN_LEN + nameLength + extraLength + commentLength;
+            if(nextPos > buffer.limit()){
+                throw new ZipException("truncated central directory header at " + headerPos);
+            }
+
+            compressedSize = buffer.getInt(headerPos + 20) & 0xFFFFFFFFL;
+            size = buffer.getInt(headerPos + 24) & 0xFFFFFFFFL;
+            localHeaderOffset = buffer.getInt(headerPos + 42) & 0xFFFFFFFFL;
+            if(size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC){
+                readZip64Extra(headerPos + CEN_LEN + nameLength, extraLength);
+            }
+            localHeaderOffset += baseOffset;
+            return true;
+        }
+
+        private void readZip64Extra(int extraPos, int extraLength){
+            int end = extraPos + extraLength;
+            while(extraPos + 4 <= end){
+                int id = buffer.getShort(extraPos) & 0xFFFF;
+                int dataLength = buffer.getShort(extraPos + 2) & 0xFFFF;
+                int pos = extraPos + 4;
+                if(id == ZIP64_EXTRA_ID){
+                    int dataEnd = Math.min(pos + dataLength, end);
+                    if(size == ZIP64_MAGIC && pos + 8 <= dataEnd){
+                        size = buffer.getLong(pos);
+                        pos += 8;
+                    }
+                    if(compressedSize == ZIP64_MAGIC && pos + 8 <= dataEnd){
+                        compressedSize = buffer.getLong(pos);
+                        pos += 8;
+                    }
+                    if(localHeaderOffset == ZIP64_MAGIC && pos + 8 <= dataEnd){
+                        localHeaderOffset = buffer.getLong(pos);
+                    }
+                    return;
+                }
+                extraPos = pos + dataLength;
+            }
+        }
+
+        /**
+         * @return the raw central directory buffer, the name is at {@link #nameOffset()}
+         */
+        public ByteBuffer nameBuffer(){
+            return buffer;
+        }
+
+        public int nameOffset(){
+            return headerPos + CEN_LEN;
+        }
+
+        public int nameLength(){
+            return nameLength;
+        }
+
+        /**
+         * @param suffix ascii bytes to compare with the end of the entry name
+         * @return whether the entry name ends with {@code suffix}
+         */
+        public boolean nameEndsWith(byte[] suffix){
+            if(nameLength < suffix.length){
+                return false;
+            }
+            int start = nameOffset() + nameLength - suffix.length;
+            for (int i = 0; i < suffix.length; i++) {
+                if(buffer.get(start + i) != suffix[i]){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the entry name, decoded as UTF-8
+         */
+        public String name(){
+            byte[] bytes = new byte[nameLength];
+            int offset = nameOffset();
+            for (int i = 0; i < nameLength; i++) {
+                bytes[i] = buffer.get(offset + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public boolean isDirectory(){
+            return nameLength > 0 && buffer.get(nameOffset() + nameLength - 1) == '/';
+        }
+
+        /**
+         * @return the compression method, 0 for stored and 8 for deflated
+         */
+        public int method(){
+            return buffer.getShort(headerPos + 10) & 0xFFFF;
+        }
+
+        public int crc(){
+            return buffer.getInt(headerPos + 16);
+        }
+
+        public long compressedSize(){
+            return compressedSize;
+        }
+
+        public long size(){
+            return size;
+        }
+
+        /**
+         * @return the offset of the entry's local header from the start of the archive
+         */
+        public long localHeaderOffset(){
+            return localHeaderOffset;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.github.clazz.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/*
+   reads the content of single entries of a zip archive located through its
+   ZipCentralDirectory, with positional reads on the archive channel, or
+   straight from memory for an archive held in a buffer. one reader holds one
+   Inflater and its buffers, it is meant to be used by one thread for all the
+   entries it reads from an archive.
+ */
+public final class ZipEntryReader implements Closeable {
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_LEN = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int MAX_ENTRY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final FileChannel channel;
+    private final ByteBuffer archive;
+    private final Inflater inflater = new Inflater(true);
+    private final ByteBuffer localHeader = ByteBuffer.allocate(LOC_LEN).order(ByteOrder.LITTLE_ENDIAN);
+    private byte[] compressed = new byte[8192];
+
+    public ZipEntryReader(FileChannel channel){
+        this.channel = Utils.checkNotNull(channel, "channel");
+        this.archive = null;
+    }
+
+    /**
+     * @param archive the whole archive, from position to limit, as given to
+     *     {@link ZipCentralDirectory#read(ByteBuffer)}
+     */
+    public ZipEntryReader(ByteBuffer archive){
+        this.channel = null;
+        this.archive = Utils.checkNotNull(archive, "archive").slice();
+    }
+
+    /**
+     * Read and inflate the entry the cursor is on.
+     *
+     * @param cursor a cursor of the central directory of the archive behind this reader
+     * @return the uncompressed entry content
+     * @throws IOException if the entry cannot be read or uses an unsupported compression method
+     */
+    public byte[] read(ZipCentralDirectory.Cursor cursor) throws IOException {
+        long size = cursor.size();
+        long compressedSize = cursor.compressedSize();
+        if(size > MAX_ENTRY_SIZE || compressedSize > MAX_ENTRY_SIZE){
+            throw new ZipException("entry too large: " + cursor.name());
+        }
+
+        long dataOffset = dataOffset(cursor);
+
+        int method = cursor.method();
+        if(method == STORED){
+            byte[] content = new byte[(int) size];
+            readFully(ByteBuffer.wrap(content), dataOffset);
+            return content;
+        }
+        if(method != DEFLATED){
+            throw new ZipException("unsupported compression method " + method + ": " + cursor.name());
+        }
+
+        // the raw inflater may want one byte past the deflated data.
+        int inputLength = (int) compressedSize + 1;
+        if(compressed.length < inputLength){
+            compressed = new byte[Math.max(inputLength, compressed.length * 2)];
+        }
+        ByteBuffer input = ByteBuffer.wrap(compressed, 0, (int) compressedSize);
+        readFully(input, dataOffset);
+        compressed[(int) compressedSize] = 0;
+
+        byte[] content = new byte[(int) size];
+        inflater.reset();
+        inflater.setInput(compressed, 0, inputLength);
+        try{
+            int length = 0;
+            while(length < content.length){
+                int inflated = inflater.inflate(content, length, content.length - length);
+                if(inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())){
+                    throw new ZipException("truncated deflated entry: " + cursor.name());
+                }
+                length += inflated;
+            }
+        }catch (DataFormatException dfe){
+            throw new ZipException("invalid deflated entry " + cursor.name() + ": " + dfe.getMessage());
+        }
+        return content;
+    }
+
+    /**
+     * Give access to a stored entry without copying it: a slice of the archive buffer, or a
+     * read-only mapping of the archive file.
+     *
+     * @param cursor a cursor on a stored entry of the archive behind this reader
+     * @return the entry content, from position to limit
+     * @throws IOException if the entry cannot be located or is compressed
+     */
+    public ByteBuffer mapStored(ZipCentralDirectory.Cursor cursor) throws IOException {
+        if(cursor.method() != STORED){
+            throw new ZipException("not a stored entry: " + cursor.name());
+        }
+        long dataOffset = dataOffset(cursor);
+        long size = cursor.size();
+        if(channel != null){
+            if(dataOffset + size > channel.size()){
+                throw new EOFException("unexpected end of zip archive");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, size);
+        }
+        if(dataOffset + size > archive.limit()){
+            throw new EOFException("unexpected end of zip archive");
+        }
+        ByteBuffer content = archive.duplicate();
+        content.position((int) dataOffset);
+        content.limit((int) (dataOffset + size));
+        return content.slice();
+    }
+
+    /**
+     * Open a stream on the entry content, inflated as it is read. Nothing is read up front, so
+     * large entries such as nested archives can be walked without holding them in memory.
+     *
+     * @param cursor a cursor on an entry of the archive behind this reader
+     * @return the uncompressed content, to be closed by the caller
+     * @throws IOException if the entry cannot be located or uses an unsupported compression method
+     */
+    public InputStream openStream(ZipCentralDirectory.Cursor cursor) throws IOException {
+        int method = cursor.method();
+        if(method != STORED && method != DEFLATED){
+            throw new ZipException("unsupported compression method " + method + ": " + cursor.name());
+        }
+        long dataOffset = dataOffset(cursor);
+        InputStream raw = new RegionInputStream(dataOffset,
+                method == STORED ? cursor.size() : cursor.compressedSize());
+        if(method == STORED){
+            return raw;
+        }
+
+        Inflater streamInflater = new Inflater(true);
+        return new InflaterInputStream(raw, streamInflater, 8192){
+            private boolean eof;
+            private boolean closed;
+
+            @Override
+            protected void fill() throws IOException {
+                if(eof){
+                    throw new EOFException("unexpected end of deflated entry");
+                }
+                len = in.read(buf, 0, buf.length);
+                if(len == -1){
+                    // the raw inflater may want one byte past the deflated data.
+                    buf[0] = 0;
+                    len = 1;
+                    eof = true;
+                }
+                inf.setInput(buf, 0, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if(!closed){
+                    closed = true;
+                    super.close();
+                    streamInflater.end();
+                }
+            }
+        };
+    }
+
+    private long dataOffset(ZipCentralDirectory.Cursor cursor) throws IOException {
+        localHeader.clear();
+        readFully(localHeader, cursor.localHeaderOffset());
+        if(localHeader.getInt(0) != LOC_SIG){
+            throw new ZipException("invalid local header: " + cursor.name());
+        }
+        return cursor.localHeaderOffset() + LOC_LEN
+                + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        if(channel == null){
+            if(position < 0 || position + buffer.remaining() > archive.limit()){
+                throw new EOFException("unexpected end of zip archive");
+            }
+            ByteBuffer source = archive.duplicate();
+            source.position((int) position);
+            source.limit((int) position + buffer.remaining());
+            buffer.put(source);
+            return;
+        }
+        int start = buffer.position();
+        while(buffer.hasRemaining()){
+            int read = channel.read(buffer, position + buffer.position() - start);
+            if(read < 0){
+                throw new EOFException("unexpected end of zip archive");
+            }
+        }
+    }
+
+    @Override
+    public void close(){
+        inflater.end();
+    }
+
+    /*
+       the raw bytes of a region of the archive, read on demand.
+     */
+    private final class RegionInputStream extends InputStream {
+        private long position;
+        private final long end;
+
+        private RegionInputStream(long position, long length){
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(position >= end){
+                return -1;
+            }
+            int length = (int) Math.min(len, end - position);
+            readFully(ByteBuffer.wrap(b, off, length), position);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public long skip(long n){
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available(){
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
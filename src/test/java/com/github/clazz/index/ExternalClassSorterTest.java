@@ -0,0 +1,118 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExternalClassSorterTest {
+    private static final int JARS = 40;
+    private static final int CLASSES_PER_JAR = 30;
+
+    @Test
+    public void mergesMoreRunsThanTwoTiersInNameThenJarOrder() throws IOException {
+        List<JarClass> jars = jars(new Random(42));
+        List<String> expected = new ArrayList<>();
+        for (JarClass jar : jars) {
+            for (String className : jar.getCanonicalNames()) {
+                expected.add(className + '\t' + jar.getJarPath());
+            }
+        }
+        Collections.sort(expected);
+
+        List<String> merged = new ArrayList<>();
+        try(ExternalClassSorter sorter = new ExternalClassSorter(1)){
+            for (JarClass jar : jars) {
+                sorter.add(jar);
+            }
+            // one run per class: more than MAX_FAN_IN * MAX_FAN_IN of them.
+            assertTrue(sorter.getRunCount() > 32 * 32);
+            sorter.merge(entry -> merged.add(entry.getCanonicalName() + '\t' + entry.getJarPath()),
+                    duplicate -> {});
+        }
+        assertEquals(expected, merged);
+
+        List<String> pulled = new ArrayList<>();
+        try(ExternalClassSorter sorter = new ExternalClassSorter(1)){
+            for (JarClass jar : jars) {
+                sorter.add(jar);
+            }
+            ExternalClassSorter.Sorted sorted = sorter.sorted();
+            for (ExternalClassSorter.ClassEntry entry = sorted.next(); entry != null; entry = sorted.next()) {
+                pulled.add(entry.getCanonicalName() + '\t' + entry.getJarPath());
+            }
+        }
+        assertEquals(expected, pulled);
+    }
+
+    @Test
+    public void duplicatesMatchTheInMemoryDetector() throws IOException {
+        List<JarClass> jars = jars(new Random(7));
+        DuplicateClassDetector detector = new DuplicateClassDetector();
+        for (JarClass jar : jars) {
+            detector.add(jar);
+        }
+        List<String> expected = new ArrayList<>();
+        detector.forEachDuplicate(duplicate -> expected.add(describe(duplicate)));
+        assertTrue(expected.size() > 0);
+
+        for (long maxHeapEntries : new long[]{1, 7, 100, Long.MAX_VALUE}) {
+            List<String> external = new ArrayList<>();
+            try(ExternalClassSorter sorter = new ExternalClassSorter(maxHeapEntries)){
+                for (JarClass jar : jars) {
+                    sorter.add(jar);
+                }
+                sorter.merge(entry -> {}, duplicate -> external.add(describe(duplicate)));
+            }
+            assertEquals("maxHeapEntries:" + maxHeapEntries, expected, external);
+        }
+    }
+
+    /*
+       jars in a random path order, each with a random subset of a shared pool of class names,
+       so that most classes are found in several jars, with the same or a different content.
+     */
+    private static List<JarClass> jars(Random random){
+        List<String> pool = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            pool.add("com.acme.p" + (i % 7) + ".Class" + Integer.toString(random.nextInt(1 << 20), 36) + i);
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < JARS; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+
+        List<JarClass> jars = new ArrayList<>();
+        for (int jar : order) {
+            List<String> classNames = new ArrayList<>(pool);
+            Collections.shuffle(classNames, random);
+            ClassNameTable.Builder builder = new ClassNameTable.Builder();
+            for (String className : classNames.subList(0, CLASSES_PER_JAR)) {
+                builder.add(className, className.hashCode() + random.nextInt(2), 100 + random.nextInt(2));
+            }
+            JarClass jarClass = new JarClass();
+            jarClass.setJarPath("/lib/jar-" + jar + ".jar");
+            jarClass.setClassNames(builder.build());
+            jars.add(jarClass);
+        }
+        return jars;
+    }
+
+    private static String describe(DuplicateClassDetector.Duplicate duplicate){
+        StringBuilder sb = new StringBuilder(duplicate.getCanonicalName());
+        for (int i = 0; i < duplicate.size(); i++) {
+            sb.append(' ').append(duplicate.getJarPath(i)).append(':').append(duplicate.getEntryCrc(i))
+                    .append(':').append(duplicate.getEntrySize(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.clazz.index;
+
+import com.github.clazz.model.ClassMatch;
+import com.github.clazz.model.ClassNameTable;
+import com.github.clazz.model.JarClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MultiPatternQueryTest {
+    private static final List<String> CLASS_NAMES = Arrays.asList(
+            "com.acme.Foo$Bar", "com.acme.FooBar", "com.acme.ABC", "com.acme.ABCD", "com.acme.XBC",
+            "com.acme.Lookup", "org.apache.logging.log4j.core.lookup.JndiLookup", "java.util.HashMap");
+
+    // regexes whose escapes spell characters out, which the literal prefilter must not take literally.
+    private static final List<String> ESCAPE_PATTERNS = Arrays.asList(
+            "regex:Foo\\x24Bar", "regex:Foo\\x{24}Bar", "regex:\\u0041BC", "regex:\\0101BC",
+            "regex:Foo\\044Bar", "regex:\\cAXBC|ABC", "regex:\\p{Lu}BC", "regex:(A)\\1?BC",
+            "regex:Jndi\\x4cookup", "regex:acme\\.\\u0046oo\\$Bar");
+
+    @Test
+    public void forEachMatchAgreesWithMatchingPatterns(){
+        for (ClassSearchIndex.MatchType matchType : ClassSearchIndex.MatchType.values()) {
+            for (String pattern : ESCAPE_PATTERNS) {
+                MultiPatternQuery query = MultiPatternQuery.of(matchType, Collections.singletonList(pattern));
+                assertAgree(pattern, query);
+            }
+            assertAgree("all", MultiPatternQuery.of(matchType, ESCAPE_PATTERNS));
+        }
+    }
+
+    @Test
+    public void escapesAreNotLiterals(){
+        MultiPatternQuery query = MultiPatternQuery.of(ClassSearchIndex.MatchType.SUBSTRING,
+                Arrays.asList("regex:Foo\\x24Bar", "regex:\\u0041BC"));
+        assertEquals(Arrays.asList("com.acme.Foo$Bar", "com.acme.ABC", "com.acme.ABCD"), found(query));
+        assertFalse(query.matchingPatterns("com.acme.Foo$Bar").isEmpty());
+    }
+
+    private static void assertAgree(String pattern, MultiPatternQuery query){
+        List<String> expected = new ArrayList<>();
+        for (String className : CLASS_NAMES) {
+            if(!query.matchingPatterns(className).isEmpty()){
+                expected.add(className);
+            }
+        }
+        assertEquals(pattern, expected, found(query));
+    }
+
+    private static List<String> found(MultiPatternQuery query){
+        ClassNameTable.Builder builder = new ClassNameTable.Builder();
+        for (String className : CLASS_NAMES) {
+            builder.add(className);
+        }
+        JarClass jarClass = new JarClass();
+        jarClass.setJarPath("/lib/test.jar");
+        jarClass.setClassNames(builder.build());
+
+        List<String> found = new ArrayList<>();
+        query.forEachMatch(jarClass, (ClassMatch classMatch) -> found.add(classMatch.getCanonicalName()));
+        // in the order of CLASS_NAMES, whatever order the matches come in.
+        found.sort(Comparator.comparingInt(CLASS_NAMES::indexOf));
+        return found;
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.clazz.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ListWithDiskBufferTest {
+    @Test
+    public void interleavedAddsAndRemovesStayFirstInFirstOut() throws IOException {
+        for (int maxInMemory : new int[]{0, 3}) {
+            Random random = new Random(maxInMemory);
+            ArrayDeque<String> expected = new ArrayDeque<>();
+            try(ListWithDiskBuffer<String> list = new ListWithDiskBuffer<>(maxInMemory, ListWithDiskBuffer.Codec.UTF8)){
+                int next = 0;
+                for (int round = 0; round < 50; round++) {
+                    int adds = random.nextInt(40);
+                    for (int i = 0; i < adds; i++) {
+                        String element = "element-" + next++;
+                        list.add(element);
+                        expected.add(element);
+                    }
+                    // drains completely every other round, so the file is written again from its start.
+                    int removes = round % 2 == 0 ? expected.size() : random.nextInt(expected.size() + 1);
+                    for (int i = 0; i < removes; i++) {
+                        assertEquals(expected.removeFirst(), list.removeFirst());
+                    }
+                    assertEquals(expected.size(), list.size());
+                }
+                while(!expected.isEmpty()){
+                    assertEquals(expected.removeFirst(), list.removeFirst());
+                }
+                assertTrue(list.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void recordsLargerThanTheWriteBufferRoundTrip() throws IOException {
+        char[] chars = new char[3 << 20];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+        try(ListWithDiskBuffer<String> list = new ListWithDiskBuffer<>(0, ListWithDiskBuffer.Codec.UTF8)){
+            list.add("before");
+            list.add(large);
+            list.add("after");
+            assertEquals("before", list.removeFirst());
+            list.add(large + 'y');
+            assertEquals(large, list.removeFirst());
+            assertEquals("after", list.removeFirst());
+            assertEquals(large + 'y', list.removeFirst());
+            assertTrue(list.isEmpty());
+        }
+    }
+
+    @Test
+    public void readsCrossMappingWindows() throws IOException {
+        // 100 000 records of 1000 to 1006 bytes: past a 64 MiB window, records straddling its end.
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'z');
+        String padding = new String(chars);
+        int count = 100_000;
+        try(ListWithDiskBuffer<String> list = new ListWithDiskBuffer<>(0, ListWithDiskBuffer.Codec.UTF8)){
+            for (int i = 0; i < count; i++) {
+                list.add(i + padding);
+            }
+            for (int i = 0; i < count; i++) {
+                String element = list.removeFirst();
+                assertEquals(i + padding, element);
+                if(i == count / 2){
+                    // appended after the first window was mapped.
+                    list.add("late");
+                }
+            }
+            assertEquals("late", list.removeFirst());
+            assertTrue(list.isEmpty());
+        }
+    }
+}